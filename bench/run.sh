@@ -0,0 +1,31 @@
+#!/bin/bash
+
+# Runs the benchmark scenarios headless over a fixed set of seeds. Every run
+# writes its results, as JSON, to bench/results/<scenario>-<seed>.json and its
+# console output next to it.
+#
+# Usage: bench/run.sh [scenario ...]
+#   SEEDS="1 2 3" bench/run.sh rpc_mixed
+#
+# A scenario is a file in bench/scenarios/ that holds the execute.pl options of
+# one simulation. Lines starting with # are ignored. The seed and the results
+# file are added here.
+
+cd "$(dirname "$0")/.."
+
+SEEDS=${SEEDS:-"1 2 3 4 5"}
+mkdir -p bench/results
+
+if [ $# -eq 0 ]; then
+    set -- $(ls bench/scenarios)
+fi
+
+for scenario in "$@"; do
+    opts=$(grep -v '^#' bench/scenarios/$scenario)
+    for seed in $SEEDS; do
+        rm -rf storage
+        out=bench/results/$scenario-$seed
+        echo "$scenario, seed $seed: $out.json"
+        ./execute.pl -s -K $opts --seed=$seed --benchmarkFile=$out.json > $out.log 2>&1
+    done
+done
@@ -0,0 +1,19 @@
+#!/bin/bash
+
+# Builds and runs the JMH microbenchmarks in jmh/src against the compiled lib
+# and proj classes, with allocation profiling. Arguments are passed on to JMH:
+#   jmh/run.sh CodecBenchmarks -p payloadSize=1024
+#
+# Expects the JMH jars (jmh-core, jmh-generator-annprocess, jopt-simple and
+# commons-math3) in jars/jmh/, and proj/ to be compiled with compile.sh.
+
+cd "$(dirname "$0")/.."
+
+JMH_CP=$(ls jars/jmh/*.jar | tr '\n' ':')
+CP=./jars/plume.jar:./jars/lib.jar:./proj:$JMH_CP
+
+rm -rf jmh/classes
+mkdir -p jmh/classes
+javac -cp $CP -processorpath $JMH_CP -d jmh/classes $(find jmh/src -name '*.java') || exit 1
+
+java -cp jmh/classes:$CP org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,66 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The reflective callbacks behind every timeout. The reliable in-order layer
+ * looks up the method and builds a new Callback for every packet it sends, so
+ * that is measured as well as the invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmarks {
+
+	private static final String[] PARAM_TYPES = { "java.lang.Integer", "java.lang.Integer" };
+
+	/**
+	 * Shaped like OutChannel.resendRIOPacket. Public, since Callback can only
+	 * call public methods.
+	 */
+	public static class Target {
+		public int resends;
+
+		public void resend(Integer destAddr, Integer seqNum) {
+			resends += destAddr + seqNum;
+		}
+	}
+
+	private Target target;
+	private Object[] params;
+	private Callback callback;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = new Target();
+		params = new Object[] { 3, 42 };
+		callback = new Callback(Callback.getMethod("resend", target, PARAM_TYPES), target, params);
+	}
+
+	@Benchmark
+	public int invoke() throws Exception {
+		callback.invoke();
+		return target.resends;
+	}
+
+	@Benchmark
+	public Callback create() throws Exception {
+		Method method = Callback.getMethod("resend", target, PARAM_TYPES);
+		return new Callback(method, target, params);
+	}
+}
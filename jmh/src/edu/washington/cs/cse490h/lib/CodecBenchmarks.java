@@ -0,0 +1,186 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packing and unpacking of every packet format, from the Packet that goes over
+ * the wire to the protocol packets that ride in its payload. Payloads go from
+ * the size of a command to the size of a file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmarks {
+
+	private static final MethodHandle RIO_NEW = ProjClasses.generic(ProjClasses.constructor(
+			"RIOPacket", int.class, int.class, int.class, byte[].class));
+	private static final MethodHandle RIO_PACK = ProjClasses.generic(ProjClasses.method(
+			"RIOPacket", "pack"), byte[].class);
+	private static final MethodHandle RIO_UNPACK = ProjClasses.generic(ProjClasses.method(
+			"RIOPacket", "unpack", byte[].class));
+
+	private static final MethodHandle RPC_REQUEST_NEW = ProjClasses.generic(ProjClasses.method(
+			"RPCRequestPacket", "getPacket", ProjClasses.type("RPCNode"), int.class,
+			ProjClasses.type("Command"), byte[].class));
+	private static final MethodHandle RPC_REQUEST_PACK = ProjClasses.generic(ProjClasses.method(
+			"RPCRequestPacket", "pack"), byte[].class);
+	private static final MethodHandle RPC_REQUEST_UNPACK = ProjClasses.generic(ProjClasses.method(
+			"RPCRequestPacket", "unpack", byte[].class));
+
+	private static final MethodHandle RPC_RESULT_NEW = ProjClasses.generic(ProjClasses.method(
+			"RPCResultPacket", "getPacket", ProjClasses.type("RPCNode"), int.class,
+			ProjClasses.type("Status"), byte[].class));
+	private static final MethodHandle RPC_RESULT_PACK = ProjClasses.generic(ProjClasses.method(
+			"RPCResultPacket", "pack"), byte[].class);
+	private static final MethodHandle RPC_RESULT_UNPACK = ProjClasses.generic(ProjClasses.method(
+			"RPCResultPacket", "unpack", byte[].class));
+
+	private static final MethodHandle PAXOS_NEW = ProjClasses.generic(ProjClasses.method(
+			"PaxosPacket", "makeAcceptMessage", int.class, int.class, byte[].class));
+	private static final MethodHandle PAXOS_PACK = ProjClasses.generic(ProjClasses.method(
+			"PaxosPacket", "pack"), byte[].class);
+	private static final MethodHandle PAXOS_UNPACK = ProjClasses.generic(ProjClasses.method(
+			"PaxosPacket", "unpack", byte[].class));
+
+	private static final MethodHandle TXN_NEW = ProjClasses.generic(ProjClasses.method(
+			"TxnPacket", "getPropositionPacket", ProjClasses.type("TransactionNode"), UUID.class,
+			Set.class, String.class, String.class));
+	private static final MethodHandle TXN_PACK = ProjClasses.generic(ProjClasses.method(
+			"TxnPacket", "pack"), byte[].class);
+	private static final MethodHandle TXN_UNPACK = ProjClasses.generic(ProjClasses.method(
+			"TxnPacket", "unpack", byte[].class));
+
+	/**
+	 * Payload size in bytes: a command, a small file, a large file
+	 */
+	@Param({ "16", "1024", "65536" })
+	public int payloadSize;
+
+	private Packet packet;
+	private byte[] packedPacket;
+	private Object rio;
+	private byte[] packedRio;
+	private Object rpcRequest;
+	private byte[] packedRpcRequest;
+	private Object rpcResult;
+	private byte[] packedRpcResult;
+	private Object paxos;
+	private byte[] packedPaxos;
+	private Object txn;
+	private byte[] packedTxn;
+
+	@Setup
+	public void setUp() throws Throwable {
+		Random rng = new Random(1);
+		byte[] payload = new byte[payloadSize];
+		for (int i = 0; i < payload.length; i++) {
+			// printable, like the file contents that the RPC layer carries
+			payload[i] = (byte) ('a' + rng.nextInt(26));
+		}
+
+		// Protocol.DATA
+		packet = new Packet(1, 0, 0, payload);
+		packedPacket = packet.pack();
+
+		// Protocol.RPC_REQUEST_PKT
+		rio = RIO_NEW.invokeExact((Object) 25, (Object) 42, (Object) 7, (Object) payload);
+		packedRio = (byte[]) RIO_PACK.invokeExact(rio);
+
+		rpcRequest = RPC_REQUEST_NEW.invokeExact((Object) null, (Object) 42,
+				ProjClasses.enumConstant("Command", "PUT"), (Object) payload);
+		packedRpcRequest = (byte[]) RPC_REQUEST_PACK.invokeExact(rpcRequest);
+
+		rpcResult = RPC_RESULT_NEW.invokeExact((Object) null, (Object) 42,
+				ProjClasses.enumConstant("Status", "SUCCESS"), (Object) payload);
+		packedRpcResult = (byte[]) RPC_RESULT_PACK.invokeExact(rpcResult);
+
+		paxos = PAXOS_NEW.invokeExact((Object) 5, (Object) 1001, (Object) payload);
+		packedPaxos = (byte[]) PAXOS_PACK.invokeExact(paxos);
+
+		Set<Integer> participants = new HashSet<Integer>(Arrays.asList(0, 2, 4));
+		txn = TXN_NEW.invokeExact((Object) null, (Object) new UUID(1, 2), (Object) participants,
+				(Object) "post", (Object) Utility.byteArrayToString(payload));
+		packedTxn = (byte[]) TXN_PACK.invokeExact(txn);
+	}
+
+	@Benchmark
+	public byte[] packetPack() {
+		return packet.pack();
+	}
+
+	@Benchmark
+	public Packet packetUnpack() throws Exception {
+		return Packet.unpack(packedPacket);
+	}
+
+	@Benchmark
+	public byte[] rioPack() throws Throwable {
+		return (byte[]) RIO_PACK.invokeExact(rio);
+	}
+
+	@Benchmark
+	public Object rioUnpack() throws Throwable {
+		return (Object) RIO_UNPACK.invokeExact((Object) packedRio);
+	}
+
+	@Benchmark
+	public byte[] rpcRequestPack() throws Throwable {
+		return (byte[]) RPC_REQUEST_PACK.invokeExact(rpcRequest);
+	}
+
+	@Benchmark
+	public Object rpcRequestUnpack() throws Throwable {
+		return (Object) RPC_REQUEST_UNPACK.invokeExact((Object) packedRpcRequest);
+	}
+
+	@Benchmark
+	public byte[] rpcResultPack() throws Throwable {
+		return (byte[]) RPC_RESULT_PACK.invokeExact(rpcResult);
+	}
+
+	@Benchmark
+	public Object rpcResultUnpack() throws Throwable {
+		return (Object) RPC_RESULT_UNPACK.invokeExact((Object) packedRpcResult);
+	}
+
+	@Benchmark
+	public byte[] paxosPack() throws Throwable {
+		return (byte[]) PAXOS_PACK.invokeExact(paxos);
+	}
+
+	@Benchmark
+	public Object paxosUnpack() throws Throwable {
+		return (Object) PAXOS_UNPACK.invokeExact((Object) packedPaxos);
+	}
+
+	@Benchmark
+	public byte[] txnPack() throws Throwable {
+		return (byte[]) TXN_PACK.invokeExact(txn);
+	}
+
+	@Benchmark
+	public Object txnUnpack() throws Throwable {
+		return (Object) TXN_UNPACK.invokeExact((Object) packedTxn);
+	}
+}
@@ -0,0 +1,85 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+/**
+ * Access to the classes of proj/ for the benchmarks. They are in the default
+ * package, which cannot be imported from a named package and which JMH does
+ * not allow benchmarks in, so the benchmarks reach them through method handles.
+ * The handles are looked up once and kept in static final fields, where the JIT
+ * compiles calls through them like direct calls.
+ */
+final class ProjClasses {
+
+	private ProjClasses() {
+	}
+
+	static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException("proj/ is not on the classpath: " + e);
+		}
+	}
+
+	static Object enumConstant(String enumName, String constant) {
+		for (Object c : type(enumName).getEnumConstants()) {
+			if (((Enum<?>) c).name().equals(constant)) {
+				return c;
+			}
+		}
+		throw new IllegalStateException(enumName + "." + constant + " does not exist");
+	}
+
+	/**
+	 * @return A handle on a public or package-private method
+	 */
+	static MethodHandle method(String className, String name, Class<?>... paramTypes) {
+		try {
+			Method m = type(className).getDeclaredMethod(name, paramTypes);
+			return MethodHandles.lookup().unreflect(accessible(m));
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot find " + className + "." + name + ": " + e);
+		}
+	}
+
+	/**
+	 * @return A handle on a public or package-private constructor
+	 */
+	static MethodHandle constructor(String className, Class<?>... paramTypes) {
+		try {
+			Constructor<?> c = type(className).getDeclaredConstructor(paramTypes);
+			return MethodHandles.lookup().unreflectConstructor(accessible(c));
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot find constructor of " + className + ": " + e);
+		}
+	}
+
+	/**
+	 * @return A handle on a method that takes and returns Objects, so that the
+	 *         benchmarks can call it with invokeExact without naming proj types
+	 */
+	static MethodHandle generic(MethodHandle handle) {
+		return handle.asType(MethodType.genericMethodType(handle.type().parameterCount()));
+	}
+
+	/**
+	 * @return A handle on a method that takes Objects and returns a type that
+	 *         is not a proj type, such as the byte[] of pack()
+	 */
+	static MethodHandle generic(MethodHandle handle, Class<?> returnType) {
+		MethodHandle h = generic(handle);
+		return h.asType(h.type().changeReturnType(returnType));
+	}
+
+	private static <T extends AccessibleObject> T accessible(T member) {
+		// proj classes such as InChannel are package-private
+		member.setAccessible(true);
+		return member;
+	}
+}
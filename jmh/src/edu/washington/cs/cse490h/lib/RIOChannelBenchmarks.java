@@ -0,0 +1,88 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Delivery of a window of packets through a fresh receiving channel of the
+ * reliable in-order layer, once in order and once shuffled, so that most of
+ * the packets wait in the out-of-order buffer. Scores are per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RIOChannelBenchmarks {
+
+	private static final int WINDOW = 64;
+
+	private static final MethodHandle CHANNEL_NEW = ProjClasses.generic(ProjClasses.constructor(
+			"InChannel"));
+	private static final MethodHandle GOT_PACKET = ProjClasses.generic(ProjClasses.method(
+			"InChannel", "gotPacket", ProjClasses.type("RIOPacket")));
+	private static final MethodHandle RIO_NEW = ProjClasses.generic(ProjClasses.constructor(
+			"RIOPacket", int.class, int.class, int.class, byte[].class));
+
+	private Object[] inOrder;
+	private Object[] shuffled;
+	private Object channel;
+
+	@Setup(Level.Trial)
+	public void makePackets() throws Throwable {
+		byte[] payload = new byte[128];
+		inOrder = new Object[WINDOW];
+		for (int i = 0; i < WINDOW; i++) {
+			// Protocol.RIOTEST_PKT. Sequence numbers start at 1, see InChannel
+			inOrder[i] = RIO_NEW.invokeExact((Object) 10, (Object) (i + 1), (Object) 1,
+					(Object) payload);
+		}
+		shuffled = inOrder.clone();
+		Random rng = new Random(1);
+		for (int i = shuffled.length - 1; i > 0; i--) {
+			int j = rng.nextInt(i + 1);
+			Object tmp = shuffled[i];
+			shuffled[i] = shuffled[j];
+			shuffled[j] = tmp;
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void makeChannel() throws Throwable {
+		channel = CHANNEL_NEW.invokeExact();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WINDOW)
+	public void inOrder(Blackhole bh) throws Throwable {
+		deliver(inOrder, bh);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(WINDOW)
+	public void shuffled(Blackhole bh) throws Throwable {
+		deliver(shuffled, bh);
+	}
+
+	private void deliver(Object[] packets, Blackhole bh) throws Throwable {
+		for (Object pkt : packets) {
+			bh.consume((Object) GOT_PACKET.invokeExact(channel, pkt));
+		}
+	}
+}
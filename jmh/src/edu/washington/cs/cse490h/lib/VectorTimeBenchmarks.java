@@ -0,0 +1,68 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The vector clock work done for every event of a synoptic log: merging the
+ * clock of a received packet, stepping, and printing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorTimeBenchmarks {
+
+	/**
+	 * Length of the clocks: a small simulation, and the clocks of the Emulator
+	 */
+	@Param({ "4", "255" })
+	public int nodes;
+
+	private VectorTime local;
+	private VectorTime remote;
+
+	@Setup
+	public void setUp() {
+		local = new VectorTime(nodes);
+		remote = new VectorTime(nodes);
+		for (int i = 0; i < nodes; i++) {
+			for (int j = 0; j < i % 7; j++) {
+				local.step(i);
+			}
+			for (int j = 0; j < i % 5; j++) {
+				remote.step(i);
+			}
+		}
+	}
+
+	@Benchmark
+	public VectorTime updateTo() {
+		local.updateTo(remote);
+		return local;
+	}
+
+	@Benchmark
+	public VectorTime step() {
+		local.step(0);
+		return local;
+	}
+
+	@Benchmark
+	public String toSynopticString() {
+		return local.toString();
+	}
+}
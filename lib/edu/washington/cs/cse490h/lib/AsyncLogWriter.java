@@ -0,0 +1,267 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <pre>
+ * Writes the lines of a log file from a background thread, so that whoever
+ * logs does not wait on the disk. Each line is a prefix, a space and a text,
+ * which are only put together by the writer thread.
+ *
+ * Lines go through a ring buffer to the writer thread, which writes them out
+ * in batches. There is a single thread logging and a single one writing, so
+ * the log is in the order the lines were logged. When the buffer is full, the
+ * logging thread either waits for room or drops the line. A buffer size of 0
+ * writes on the logging thread.
+ *
+ * Logs whose filename ends in .gz are compressed.
+ * </pre>
+ */
+class AsyncLogWriter {
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	// what the log is, such as "synoptic log", for the warnings
+	private final String kind;
+	private final int capacity;
+	private final boolean dropWhenFull;
+
+	private Writer writer = null;
+	private String filename = "";
+
+	// the ring buffer. Entries from tail up to head are waiting to be written
+	private final Object lock = new Object();
+	private String[] prefixes;
+	private String[] texts;
+	private long head;
+	private long tail;
+	private boolean closing;
+	private boolean logWaiting;
+	private boolean writerWaiting;
+	private long dropped;
+	private Thread writerThread = null;
+
+	/**
+	 * @param kind
+	 *            What the log is, such as "synoptic log", for the warnings and
+	 *            the name of the writer thread
+	 * @param capacity
+	 *            The number of lines that can wait to be written, 0 to write
+	 *            them right away
+	 * @param dropWhenFull
+	 *            Whether to drop lines when the buffer is full, rather than
+	 *            wait for room
+	 */
+	AsyncLogWriter(String kind, int capacity, boolean dropWhenFull) {
+		this.kind = kind;
+		this.capacity = Math.max(0, capacity);
+		this.dropWhenFull = dropWhenFull;
+	}
+
+	/**
+	 * Opens the log file and starts the writer thread.
+	 */
+	void start(String filename) {
+		if (filename == null) {
+			return;
+		}
+
+		this.filename = filename;
+
+		try {
+			// TODO: fail if the file exists
+			Writer out;
+			if (filename.endsWith(".gz")) {
+				out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(filename),
+						WRITE_BUFFER_SIZE), "UTF-8");
+			} else {
+				out = new FileWriter(filename);
+			}
+			start(new BufferedWriter(out, WRITE_BUFFER_SIZE));
+		} catch (IOException e) {
+			System.out.println("Warning: unable to open logfile '" + this.filename+ "' for writing.");
+			//e.printStackTrace();
+			System.out.println("...continuing");
+		}
+	}
+
+	/**
+	 * Starts the writer thread on a custom writer.
+	 *
+	 * @param writer custom writer instance
+	 */
+	void start(Writer writer) {
+		this.writer = writer;
+		if (capacity == 0) {
+			return;
+		}
+
+		prefixes = new String[capacity];
+		texts = new String[capacity];
+		head = 0;
+		tail = 0;
+		closing = false;
+		dropped = 0;
+		writerThread = new Thread(kind + " writer") {
+			@Override
+			public void run() {
+				writeLines();
+			}
+		};
+		// stop() writes out what is left, a forgotten log must not keep the
+		// JVM up
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * @return true if lines that are logged actually end up somewhere
+	 */
+	boolean isActive() {
+		return this.writer != null;
+	}
+
+	/**
+	 * Writes out the lines that are still waiting, then closes the log file
+	 * and stops the writer thread.
+	 */
+	void stop() {
+		if (this.writer == null) {
+			return;
+		}
+
+		if (writerThread != null) {
+			synchronized (lock) {
+				closing = true;
+				lock.notifyAll();
+			}
+			boolean interrupted = false;
+			while (writerThread.isAlive()) {
+				try {
+					writerThread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			writerThread = null;
+			prefixes = null;
+			texts = null;
+			if (dropped > 0) {
+				System.out.println("Warning: dropped " + dropped
+						+ " lines from the " + kind + " '" + this.filename + "' because it fell behind.");
+			}
+		}
+
+		try {
+			this.writer.close();
+			this.writer = null;
+		} catch (IOException e) {
+			System.out.println("Warning: unable to close logfile '" + this.filename + "'.");
+			e.printStackTrace();
+			System.out.println("...continuing");
+		}
+	}
+
+	/**
+	 * Logs a line, or drops it if the log is not started.
+	 */
+	void log(String prefix, String text) {
+		if (this.writer == null) {
+			return;
+		}
+
+		if (writerThread == null) {
+			write(prefix, text);
+			return;
+		}
+
+		synchronized (lock) {
+			while (head - tail == capacity) {
+				if (dropWhenFull) {
+					dropped++;
+					return;
+				}
+				logWaiting = true;
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped++;
+					return;
+				} finally {
+					logWaiting = false;
+				}
+			}
+			int slot = (int) (head % capacity);
+			prefixes[slot] = prefix;
+			texts[slot] = text;
+			head++;
+			if (writerWaiting) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void write(String prefix, String text) {
+		try {
+			this.writer.write(prefix);
+			this.writer.write(' ');
+			this.writer.write(text);
+			this.writer.write('\n');
+		} catch (IOException e) {
+			System.out.println("Warning: unable to write to the " + kind + ".");
+			e.printStackTrace();
+			System.out.println("...continuing");
+		}
+	}
+
+	/**
+	 * Body of the writer thread. It takes whatever has been logged since the
+	 * last batch, and writes it out without holding the lock.
+	 */
+	private void writeLines() {
+		while (true) {
+			long from;
+			long to;
+			synchronized (lock) {
+				while (head == tail && !closing) {
+					writerWaiting = true;
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						// only stop() ends the thread
+					} finally {
+						writerWaiting = false;
+					}
+				}
+				if (head == tail) {
+					return;
+				}
+				from = tail;
+				to = head;
+			}
+
+			for (long i = from; i < to; i++) {
+				int slot = (int) (i % capacity);
+				write(prefixes[slot], texts[slot]);
+				prefixes[slot] = null;
+				texts[slot] = null;
+			}
+
+			synchronized (lock) {
+				tail = to;
+				if (logWaiting) {
+					lock.notifyAll();
+				}
+			}
+		}
+	}
+}
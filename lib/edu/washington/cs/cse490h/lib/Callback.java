@@ -1,5 +1,9 @@
 package edu.washington.cs.cse490h.lib;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -15,10 +19,15 @@ import java.lang.reflect.Method;
  * 
  * The above code snippet assumes that it is written inside class Test, hence the use of this.
  * The method must have public visibility.
+ *
+ * A callback is part of a checkpoint if its object and parameters are. The method is saved
+ * by its class, name and parameter types, and looked up again when the callback is read.
  * </pre>
  */
-public class Callback {
-    private Method method;
+public class Callback implements Serializable {
+    private static final long serialVersionUID = 5180428469613954407L;
+
+    private transient Method method;
     private Object obj;
     private Object[] params;
 
@@ -126,6 +135,27 @@ public class Callback {
         return paramTypes;
     }
 
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(method.getDeclaringClass());
+        out.writeObject(method.getName());
+        out.writeObject(method.getParameterTypes());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+            ClassNotFoundException {
+        in.defaultReadObject();
+        Class<?> declaringClass = (Class<?>) in.readObject();
+        String name = (String) in.readObject();
+        Class<?>[] parameterTypes = (Class<?>[]) in.readObject();
+        try {
+            method = declaringClass.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Callback method " + declaringClass.getName()
+                    + "." + name + " no longer exists");
+        }
+    }
+
     public String toString() {
         return method.getName() + "(" + params + ")";
     }
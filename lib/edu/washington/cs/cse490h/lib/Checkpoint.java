@@ -0,0 +1,220 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <pre>
+ * A snapshot of a simulation between two time steps, written by the
+ * checkpoint command and resumed with the resumeFrom option. A checkpoint
+ * file is:
+ *
+ *   header:  MAGIC, seed, time step (8 bytes each)
+ *   state:   this object, with Java serialization, compressed with GZIP
+ *
+ * The state is everything that the simulation carries from one time step to
+ * the next: the node objects and whatever they reference, the waiting
+ * timeouts, the packets in transit, the crashed nodes, the random number
+ * generator, the vector clocks, the metrics and operation stats, and the
+ * durable contents of the storage of every node. It is written in one go, so
+ * that objects referenced from several places, such as a node and the
+ * callbacks of its timeouts, are still shared once the checkpoint is read.
+ *
+ * Not part of a checkpoint: the link and storage cost models, which are built
+ * from the options of the resumed simulation and start out idle, the trace,
+ * the synoptic log files, and storage that was written but not flushed.
+ * </pre>
+ */
+class Checkpoint implements Serializable {
+	private static final long serialVersionUID = 6302577152914218318L;
+
+	/** First long of a checkpoint file, "490CKPT1" */
+	public static final long MAGIC = 0x343930434B505431L;
+
+	// in the header rather than the state, see readSeed()
+	transient long seed;
+	transient long time;
+
+	String nodeClass;
+	int pktsSent;
+	int globalLogicalTime;
+	HashMap<Integer, Node> nodes;
+	HashSet<Integer> crashedNodes;
+	HashMap<Integer, VectorTime> vtimes;
+	ArrayList<Manager.Timeout> waitingTOs;
+	InTransitBuffer inTransitMsgs;
+	// events put off until the storage of their node is done
+	ArrayList<Event> deferredEvents;
+	Random rng;
+	OperationStats operations;
+	HashMap<Integer, MetricsRegistry> metrics;
+	// Maps: node addr -> filename -> contents
+	HashMap<Integer, HashMap<String, byte[]>> storage;
+
+	/**
+	 * Copy the files of the given nodes out of the storage backend.
+	 *
+	 * @throws IOException
+	 *             If a file cannot be read
+	 */
+	void saveStorage(Iterable<Integer> addrs) throws IOException {
+		storage = new HashMap<Integer, HashMap<String, byte[]>>();
+		byte[] buf = new byte[8192];
+		for (int addr : addrs) {
+			HashMap<String, byte[]> files = new HashMap<String, byte[]>();
+			for (String name : Utility.storage.list(addr)) {
+				InputStream in = Utility.storage.openInput(addr, name);
+				ByteArrayOutputStream contents = new ByteArrayOutputStream();
+				try {
+					int len;
+					while ((len = in.read(buf)) != -1) {
+						contents.write(buf, 0, len);
+					}
+				} finally {
+					in.close();
+				}
+				files.put(name, contents.toByteArray());
+			}
+			storage.put(addr, files);
+		}
+	}
+
+	/**
+	 * Replace the files of the nodes in the checkpoint with the ones saved by
+	 * saveStorage().
+	 *
+	 * @throws IOException
+	 *             If a file cannot be written
+	 */
+	void restoreStorage() throws IOException {
+		for (Map.Entry<Integer, HashMap<String, byte[]>> disk : storage.entrySet()) {
+			int addr = disk.getKey();
+			for (String name : Utility.storage.list(addr)) {
+				Utility.storage.delete(addr, name);
+			}
+			for (Map.Entry<String, byte[]> file : disk.getValue().entrySet()) {
+				OutputStream out = Utility.storage.openOutput(addr, file.getKey(), false);
+				try {
+					out.write(file.getValue());
+				} finally {
+					out.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the checkpoint. It is written next to the file first and then
+	 * renamed, so that a checkpoint that fails halfway does not replace an
+	 * older one.
+	 *
+	 * @throws IOException
+	 *             If the checkpoint cannot be written, or some of the state
+	 *             is not serializable
+	 */
+	void write(String filename) throws IOException {
+		File file = new File(filename);
+		File temp = new File(filename + ".tmp");
+		boolean done = false;
+		try {
+			DataOutputStream header = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(temp)));
+			try {
+				header.writeLong(MAGIC);
+				header.writeLong(seed);
+				header.writeLong(time);
+				ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(header));
+				out.writeObject(this);
+				out.close();
+			} finally {
+				header.close();
+			}
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not rename " + temp + " to " + file);
+			}
+			done = true;
+		} finally {
+			if (!done) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Read a checkpoint.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be read, is not a checkpoint, or refers
+	 *             to classes that do not exist any more
+	 */
+	static Checkpoint read(String filename) throws IOException {
+		DataInputStream header = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(filename)));
+		try {
+			long seed = readHeader(header, filename);
+			long time = header.readLong();
+			ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(header));
+			Checkpoint cp;
+			try {
+				cp = (Checkpoint) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Checkpoint " + filename + " refers to a missing class: "
+						+ e.getMessage());
+			}
+			cp.seed = seed;
+			cp.time = time;
+			return cp;
+		} finally {
+			header.close();
+		}
+	}
+
+	/**
+	 * Read only the seed of a checkpoint, which the manager needs before the
+	 * rest of the checkpoint can be restored.
+	 *
+	 * @param filename
+	 *            The checkpoint file, or "" for none
+	 * @return The seed of the simulation the checkpoint was taken of, or null
+	 *         if there is no checkpoint
+	 * @throws IOException
+	 *             If the file cannot be read or is not a checkpoint
+	 */
+	static Long readSeed(String filename) throws IOException {
+		if (filename.equals("")) {
+			return null;
+		}
+		DataInputStream header = new DataInputStream(new FileInputStream(filename));
+		try {
+			return readHeader(header, filename);
+		} finally {
+			header.close();
+		}
+	}
+
+	private static long readHeader(DataInputStream header, String filename) throws IOException {
+		if (header.readLong() != MAGIC) {
+			throw new IOException(filename + " is not a checkpoint");
+		}
+		return header.readLong();
+	}
+}
@@ -0,0 +1,24 @@
+package edu.washington.cs.cse490h.lib;
+
+/**
+ * <pre>
+ * Procedural source of command lines, used in place of a command file to drive
+ * large workloads without writing them out first. The lines have the same
+ * format as the lines of a command file, see CommandsParser.
+ *
+ * A generator is selected with the commandGenerator option, as the name of a
+ * class implementing this interface, optionally followed by a colon and an
+ * argument string:
+ *	MyGenerator
+ *	MyGenerator:1000000
+ * The class must have a public constructor that takes no arguments, or one that
+ * takes the argument string if one is given.
+ * </pre>
+ */
+public interface CommandGenerator {
+
+	/**
+	 * @return The next command line, or null once the script is over
+	 */
+	String nextLine();
+}
@@ -3,9 +3,8 @@ package edu.washington.cs.cse490h.lib;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.IOException;
 import java.io.PrintStream;
-import java.util.ArrayList;
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * <pre>
@@ -25,6 +24,10 @@ import java.util.ArrayList;
  *	fail [n] -- this crashes a node n
  *	start [n]  -- this restarts a node.
  *	echo text -- print the text 
+ *	metrics [file] -- dump the metrics of the nodes as JSON, to the file if
+ *		one is given
+ *	checkpoint file -- write a checkpoint of the simulation to the file at the
+ *		end of the time step, see Checkpoint. Simulation only
  *	exit  -- cleanly stop the simulation/emulation run and print statistics
  *	[n] <msg>  -- deliver command <msg> to node n
  *		Note that msg cannot start with any keyword defined above
@@ -33,54 +36,60 @@ import java.util.ArrayList;
 
 public abstract class CommandsParser {
 
-	private String filename;
-	private BufferedReader reader;
-
 	protected CommandsParser() {
-		this.filename = null;
-		this.reader = null;
 	}
 
 	/**
-	 * Open and process a command file.
+	 * Open a command file. The file is read and parsed as its events are
+	 * consumed.
 	 * 
 	 * @param filename
 	 *            The name of the command file.
+	 * @return The events of the file
 	 * @throws FileNotFoundException
 	 *             If the named filed does not exist, is a directory rather than
 	 *             a regular file, or for some other reason cannot be opened for
 	 *             reading
 	 */
-	protected ArrayList<Event> parseFile(String filename) throws FileNotFoundException {
+	protected EventSource parseFile(String filename) throws FileNotFoundException {
 		if(filename == null) {
 			throw new FileNotFoundException("null filename");
 		}
-		this.filename = filename;
-		reader = new BufferedReader(new FileReader(filename));
-		return parse();
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		return new EventSource.FileEventSource(this, filename, reader);
 	}
 
 	/**
-	 * Parse the command file.
+	 * Instantiate a command generator, see CommandGenerator.
+	 * 
+	 * @param spec
+	 *            The generator class name, optionally followed by a colon and
+	 *            the argument string for its constructor
+	 * @return The events of the generated script
+	 * @throws IllegalArgumentException
+	 *             If the generator cannot be instantiated
 	 */
-	protected ArrayList<Event> parse(){
+	protected EventSource parseGenerator(String spec) throws IllegalArgumentException {
+		int colon = spec.indexOf(':');
+		String className = (colon < 0) ? spec : spec.substring(0, colon);
+		String arg = (colon < 0) ? null : spec.substring(colon + 1);
+
+		CommandGenerator generator;
 		try {
-			ArrayList<Event> eventQueue = new ArrayList<Event>();
-			String line;
-			while((line = reader.readLine()) != null) {
-				Event e = parseLine(line);
-				if(e == null){
-					System.err.println("not a valid line: " + line);
-				}else{
-					eventQueue.add(e);
-				}
+			Class<? extends CommandGenerator> genClass = ClassLoader.getSystemClassLoader()
+					.loadClass(className).asSubclass(CommandGenerator.class);
+			if (arg == null) {
+				generator = genClass.getConstructor().newInstance();
+			} else {
+				generator = genClass.getConstructor(String.class).newInstance(arg);
 			}
-			return eventQueue;
-		}catch(IOException e) {
-			System.err.println("IOException occured while trying to read file: " + filename + "\nException: " + e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalArgumentException("Command generator " + spec + " failed: "
+					+ e.getCause());
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Invalid command generator " + spec + ": " + e);
 		}
-		
-		return null;
+		return new EventSource.GeneratorEventSource(this, generator);
 	}
 
 	/**
@@ -146,7 +155,7 @@ public abstract class CommandsParser {
 	}
 
 	/**
-	 * Parses exit, time, echo and node commands
+	 * Parses exit, time, echo, metrics and node commands
 	 * 
 	 * @param cmd
 	 *            The tokens of the command
@@ -163,6 +172,10 @@ public abstract class CommandsParser {
 		if(cmd[0].equals("echo")) {
 			return echo(cmd);
 		}
+
+		if(cmd[0].equals("metrics")) {
+			return Event.getMetrics((cmd.length > 1) ? cmd[1] : null);
+		}
 		
 		return parseNodeCmd(cmd);
 	}
@@ -0,0 +1,66 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.reflect.Method;
+
+/**
+ * <pre>
+ * Starts the threads that serve a connection each, the ones of EmulatedNode
+ * and NodeServer, as virtual threads if the virtualThreads option of the
+ * Router or of MessageLayer asks for them. Virtual threads only exist from
+ * Java 21 on, so they are made through reflection, and on an older JVM the
+ * threads are ordinary ones, with a warning the first time.
+ *
+ * A virtual thread that blocks inside a synchronized block pins the thread
+ * that carries it, so the code these threads run locks with ReentrantLock
+ * wherever it may block on a socket.
+ * </pre>
+ */
+class ConnectionThreads {
+	// Thread.ofVirtual(), Thread.Builder.name(String) and unstarted(Runnable),
+	// looked up on first use
+	private static Method ofVirtual;
+	private static Method name;
+	private static Method unstarted;
+	private static boolean unavailable = false;
+
+	/**
+	 * Start a thread.
+	 *
+	 * @param task
+	 *            What the thread runs
+	 * @param threadName
+	 *            The name of the thread
+	 * @param virtual
+	 *            Whether to make it a virtual thread, if the JVM has them
+	 * @return The started thread
+	 */
+	static Thread start(Runnable task, String threadName, boolean virtual) {
+		Thread t = virtual ? newVirtualThread(task, threadName) : null;
+		if (t == null) {
+			t = new Thread(task, threadName);
+		}
+		t.start();
+		return t;
+	}
+
+	private static synchronized Thread newVirtualThread(Runnable task, String threadName) {
+		if (unavailable) {
+			return null;
+		}
+		try {
+			if (ofVirtual == null) {
+				Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				name = builder.getMethod("name", String.class);
+				unstarted = builder.getMethod("unstarted", Runnable.class);
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+			}
+			Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+			return (Thread) unstarted.invoke(builder, task);
+		} catch (Exception e) {
+			// an older JVM, or one with virtual threads as a disabled preview
+			unavailable = true;
+			System.err.println("Warning: virtual threads are not available, using platform threads: " + e);
+			return null;
+		}
+	}
+}
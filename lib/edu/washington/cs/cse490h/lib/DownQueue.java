@@ -0,0 +1,306 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.logging.Level;
+
+import edu.washington.cs.cse490h.lib.Packet.CorruptPacketException;
+
+/**
+ * <pre>
+ * The packets that the Router keeps for a node while it is down. The first
+ * Router.downQueueMemory packets are kept in memory. Past that, packets spill
+ * to files that are appended to through memory mappings, one segment file at
+ * a time, and a segment file is deleted once all its packets are taken out.
+ * Packets only go to memory while nothing is spilled, so the packets in
+ * memory are always older than the spilled ones, and the queue stays in order.
+ *
+ * A spilled packet is:
+ *
+ *   time:    when it was queued, in ms (8 bytes)
+ *   length:  of the packet (4 bytes)
+ *   packet:  as Packet.pack() writes it
+ *
+ * The oldest packets are dropped, and counted as dropped by the throughput of
+ * the node, once the queue holds more than Router.downQueueMaxBytes bytes of
+ * packets or once they are older than Router.downQueueMaxAge seconds.
+ *
+ * Not thread safe, the NodeContainer that owns the queue locks it.
+ * </pre>
+ */
+class DownQueue {
+	private static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int RECORD_HEADER = 12;
+
+	/** A packet in memory and when it was queued */
+	private static class Entry {
+		final Packet packet;
+		final long time;
+
+		Entry(Packet packet, long time) {
+			this.packet = packet;
+			this.time = time;
+		}
+	}
+
+	/** A spill file, written at the position of buf and read at readPos */
+	private static class Segment {
+		final File file;
+		final MappedByteBuffer buf;
+		int readPos = 0;
+
+		Segment(File file, MappedByteBuffer buf) {
+			this.file = file;
+			this.buf = buf;
+		}
+	}
+
+	private final int address;
+	private final Throughput throughput;
+	private final ArrayDeque<Entry> memory;
+	// oldest first, the last one is appended to
+	private final ArrayDeque<Segment> segments;
+	private int spilled;
+	// size on the wire of all the queued packets
+	private long bytes;
+	// the first spilled packet, once peek() read it
+	private Packet peeked;
+
+	/**
+	 * @param address
+	 *            The node the packets are for
+	 * @param throughput
+	 *            Counts the packets that are dropped
+	 */
+	DownQueue(int address, Throughput throughput) {
+		this.address = address;
+		this.throughput = throughput;
+		memory = new ArrayDeque<Entry>();
+		segments = new ArrayDeque<Segment>();
+		spilled = 0;
+		bytes = 0;
+		peeked = null;
+	}
+
+	/**
+	 * Queue a packet, and drop the oldest packets if the queue holds too
+	 * much.
+	 */
+	void add(Packet pkt) {
+		long now = System.currentTimeMillis();
+		if (spilled == 0 && memory.size() < Router.downQueueMemory) {
+			memory.add(new Entry(pkt, now));
+		} else if (!spill(pkt, now)) {
+			dropped(pkt, "it could not be spilled to disk");
+			return;
+		}
+		bytes += pkt.getPayload().length + Packet.HEADER_SIZE;
+
+		while (Router.downQueueMaxBytes > 0 && bytes > Router.downQueueMaxBytes) {
+			dropped(removeFirst(), "the queue is full");
+		}
+		expire(now);
+	}
+
+	void addAll(Collection<Packet> packets) {
+		for (Packet pkt : packets) {
+			add(pkt);
+		}
+	}
+
+	/**
+	 * @return The oldest packet, or null if there is none
+	 */
+	Packet peek() {
+		expire(System.currentTimeMillis());
+		if (!memory.isEmpty()) {
+			return memory.peek().packet;
+		}
+		while (peeked == null && spilled > 0) {
+			peeked = readFirst();
+			if (peeked == null) {
+				Segment seg = firstSegment();
+				String record = "the " + seg.buf.getInt(seg.readPos + 8) + " bytes at "
+						+ seg.readPos + " of " + seg.file;
+				removeFirst();
+				dropped(record, "it was corrupted on disk");
+			}
+		}
+		return peeked;
+	}
+
+	/**
+	 * Take out the oldest packet, the one peek() returns.
+	 */
+	void remove() {
+		if (peek() != null) {
+			removeFirst();
+		}
+	}
+
+	int size() {
+		expire(System.currentTimeMillis());
+		return memory.size() + spilled;
+	}
+
+	boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Throw away all the packets.
+	 *
+	 * @return The number of packets thrown away
+	 */
+	int clear() {
+		int cleared = memory.size() + spilled;
+		memory.clear();
+		deleteSegments();
+		spilled = 0;
+		bytes = 0;
+		peeked = null;
+		return cleared;
+	}
+
+	/**
+	 * Drop the packets that are older than Router.downQueueMaxAge.
+	 */
+	private void expire(long now) {
+		if (Router.downQueueMaxAge <= 0) {
+			return;
+		}
+		long oldest = now - Router.downQueueMaxAge * 1000L;
+		while (memory.size() + spilled > 0 && firstTime() < oldest) {
+			dropped(removeFirst(), "it is too old");
+		}
+	}
+
+	private long firstTime() {
+		if (!memory.isEmpty()) {
+			return memory.peek().time;
+		}
+		Segment seg = firstSegment();
+		return seg.buf.getLong(seg.readPos);
+	}
+
+	/**
+	 * Take out the oldest packet, which must exist.
+	 */
+	private Packet removeFirst() {
+		if (!memory.isEmpty()) {
+			Packet pkt = memory.poll().packet;
+			bytes -= pkt.getPayload().length + Packet.HEADER_SIZE;
+			return pkt;
+		}
+
+		Packet pkt = (peeked != null) ? peeked : readFirst();
+		Segment seg = firstSegment();
+		int length = seg.buf.getInt(seg.readPos + 8);
+		seg.readPos += RECORD_HEADER + length;
+		bytes -= length;
+		spilled--;
+		peeked = null;
+		if (spilled == 0) {
+			// start over with memory and a fresh segment
+			deleteSegments();
+		}
+		return pkt;
+	}
+
+	private void deleteSegments() {
+		for (Segment seg : segments) {
+			seg.file.delete();
+		}
+		segments.clear();
+	}
+
+	/**
+	 * @return The first spilled packet, or null if it is corrupted
+	 */
+	private Packet readFirst() {
+		Segment seg = firstSegment();
+		int length = seg.buf.getInt(seg.readPos + 8);
+		ByteBuffer record = seg.buf.duplicate();
+		record.position(seg.readPos + RECORD_HEADER);
+		byte[] packed = new byte[length];
+		record.get(packed);
+		try {
+			return Packet.unpack(packed);
+		} catch (CorruptPacketException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The segment of the first spilled packet, after deleting the
+	 *         segments that were read to their end
+	 */
+	private Segment firstSegment() {
+		Segment seg = segments.peek();
+		while (seg.readPos == seg.buf.position()) {
+			segments.poll();
+			seg.file.delete();
+			seg = segments.peek();
+		}
+		return seg;
+	}
+
+	/**
+	 * Append a packet to the last segment, or to a new one if it does not fit.
+	 *
+	 * @return false if the packet could not be written
+	 */
+	private boolean spill(Packet pkt, long now) {
+		byte[] packed = pkt.pack();
+		Segment seg = segments.peekLast();
+		if (seg == null || seg.buf.remaining() < RECORD_HEADER + packed.length) {
+			try {
+				seg = newSegment(Math.max(SEGMENT_SIZE, RECORD_HEADER + packed.length));
+			} catch (IOException e) {
+				Management.log(Level.SEVERE, "Could not create a file to spill packets to node "
+						+ address + " to: " + e);
+				return false;
+			}
+			segments.add(seg);
+		}
+		seg.buf.putLong(now);
+		seg.buf.putInt(packed.length);
+		seg.buf.put(packed);
+		spilled++;
+		return true;
+	}
+
+	private Segment newSegment(int size) throws IOException {
+		File dir = Router.downQueueDir.equals("") ? null : new File(Router.downQueueDir);
+		File file = File.createTempFile("router-" + address + "-", ".spill", dir);
+		// in case the Router exits before the node comes back
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			// the mapping stays valid after the file is closed
+			MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			return new Segment(file, buf);
+		} catch (IOException e) {
+			file.delete();
+			throw e;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param pkt
+	 *            The packet, or where it was on disk if it cannot be read
+	 */
+	private void dropped(Object pkt, String why) {
+		throughput.dropped();
+		Management.log(Level.WARNING, "Dropping packet to failed node " + address + " because "
+				+ why + ": " + pkt);
+	}
+}
@@ -1,21 +1,33 @@
 package edu.washington.cs.cse490h.lib;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
-import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * <pre>
  * Keeps track of information about an emulated node
  * The emulated is the Router's abstraction of the client.  It reliably handles messages to and from a single client.
+ *
+ * Packets to the node wait in a queue for a writer thread of their own, so
+ * that a node that is slow to read holds up nobody but itself. Once
+ * Router.outQueueLength packets wait, more are refused, and the Router keeps
+ * them until the node catches up.
  * </pre>
  */
-public class EmulatedNode implements Runnable {
+public class EmulatedNode implements NodeConnection, Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // tells the writer thread to stop
+    private static final Packet END = new Packet(0, 0, 0, 0, new byte[0]);
+
     private Router parent;
+    private Throughput throughput;
     private Socket socket;
     private OutputStream out;
     private InputStream in;
@@ -31,7 +43,13 @@ public class EmulatedNode implements Runnable {
     private int port;
 
     private boolean cleanQuit;
-    private boolean finished;
+    private volatile boolean finished;
+
+    // packets for the writer thread, a FIN or END is the last of them
+    private final LinkedBlockingQueue<Packet> outQueue = new LinkedBlockingQueue<Packet>();
+    // guards finished and what goes into outQueue. Not a monitor, which
+    // would pin a virtual thread
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * Create a new EmulatedNode
@@ -52,20 +70,25 @@ public class EmulatedNode implements Runnable {
     public EmulatedNode(Router parent, Socket socket, int addr,
             InetAddress ipAddress, int port) throws IOException {
         this.parent = parent;
+        this.throughput = parent.throughput(addr);
         this.socket = socket;
         this.addr = addr;
         // this.vtime = new VectorTime(Manager.MAX_ADDRESS);
         this.ipAddress = ipAddress;
         this.port = port;
 
-        out = socket.getOutputStream();
+        out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
         in = socket.getInputStream();
 
         cleanQuit = false;
         finished = false;
 
-        Thread t = new Thread(this);
-        t.start();
+        ConnectionThreads.start(this, "EmulatedNode " + addr, Router.virtualThreads);
+        ConnectionThreads.start(new Runnable() {
+            public void run() {
+                writeQueued();
+            }
+        }, "EmulatedNode " + addr + " writer", Router.virtualThreads);
     }
 
     public void run() {
@@ -77,6 +100,7 @@ public class EmulatedNode implements Runnable {
                     // The other side closed the connection
                     break;
                 }
+                throughput.in(packet.getPayload().length + Packet.HEADER_SIZE);
 
                 if ((packet.getFlags() & Packet.FIN) != 0) {
                     // start termination protocol
@@ -85,79 +109,151 @@ public class EmulatedNode implements Runnable {
                     // we don't call nodeQuit inside close because it could
                     // cause deadlock
                     parent.nodeQuit(addr, queue);
-                } else if (packet.getDest() == Manager.BROADCAST_ADDRESS) {
-                    Collection<Integer> c = parent.emulatedNodes.keySet();
-                    System.out.println("Broadcasting: " + packet);
-
-                    synchronized (parent.emulatedNodes) {
-                        for (Integer dest : c) {
-                            if (dest != addr) {
-                                parent.emulatedNodes.get(dest).send(packet);
-                            }
-                        }
-                    }
                 } else {
-                    parent.emulatedNodes.get(packet.getDest()).send(packet);
+                    parent.route(addr, packet);
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        LinkedList<Packet> unwritten = stopWriter();
 
         if (!cleanQuit) {
-            // If the termination protocol did not finish, quit
+            // If the termination protocol did not finish, quit, and hand
+            // the packets we did not get to write back to the router
             try {
                 socket.close();
             } catch (IOException e) {
                 // TODO
             }
-            if (parent != null) {
-                parent.nodeQuit(addr, null);
+            Router router = parent;
+            if (router != null) {
+                router.nodeQuit(addr, unwritten);
             }
         }
     }
 
     /**
-     * Called by other EmulatedNodes to send a packet to this node. Locking
-     * methodology is that this and close() should not call other synchronized
-     * blocks (except each other)
+     * Called by other EmulatedNodes to send a packet to this node. The packet
+     * is only queued for the writer thread, so this never blocks on the
+     * socket
      * 
      * @param pkt
      *            The packet to send
-     * @return true if the send was successful, false otherwise. This is to let
-     *         the router know when the node is closing and packets should be
-     *         queued
+     * @return true if the packet is on its way, false if the node is closing
+     *         or too many packets wait for it. This is to let the router know
+     *         when packets should be queued
      */
-    protected synchronized boolean send(Packet pkt) {
-        if (finished) {
-            return false;
+    public boolean send(Packet pkt) {
+        lock.lock();
+        try {
+            if (finished || outQueue.size() >= Router.outQueueLength) {
+                return false;
+            }
+            outQueue.add(pkt);
+            return true;
+        } finally {
+            lock.unlock();
         }
+    }
+
+    public boolean isBacklogged() {
+        return outQueue.size() >= Math.max(1, Router.outQueueLength / 2);
+    }
 
+    /**
+     * Body of the writer thread. Writes the queued packets, and flushes
+     * whenever the queue runs dry, until the FIN of the termination protocol
+     * or the end of the connection.
+     */
+    private void writeQueued() {
         try {
-            out.write(pkt.pack());
-            out.flush();
+            while (true) {
+                Packet pkt;
+                try {
+                    pkt = outQueue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (pkt == END) {
+                    return;
+                }
+
+                byte[] packed = pkt.pack();
+                out.write(packed);
+                if ((pkt.getFlags() & Packet.FIN) != 0) {
+                    out.flush();
+                    // make sure that we don't send new packets
+                    socket.shutdownOutput();
+                    return;
+                }
+                throughput.out(packed.length);
+                if (outQueue.isEmpty()) {
+                    out.flush();
+                }
+            }
         } catch (IOException e) {
-            finished = true;
             e.printStackTrace();
+            // refuse new packets, and have the thread of the node see the
+            // connection end and hand the ones still waiting back to the
+            // router
+            lock.lock();
+            try {
+                finished = true;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                socket.close();
+            } catch (IOException e1) {
+                // the thread of the node sees it closed either way
+            }
         }
-        return true;
     }
 
     /**
-     * Close the the connection to the node server cleanly. Locking methodology
-     * is that this and close() should not call other synchronized blocks
-     * (except each other)
+     * Stop taking packets and have the writer thread stop, without writing
+     * the ones still waiting
+     *
+     * @return The packets that were waiting, oldest first
      */
-    private synchronized LinkedList<Packet> close() {
-        Packet fin = Packet.getFinPacket(addr);
-        // send our FIN packet to signal that no new packets will arrive
-        send(fin);
-        finished = true;
+    private LinkedList<Packet> stopWriter() {
+        lock.lock();
+        try {
+            finished = true;
+            LinkedList<Packet> unwritten = new LinkedList<Packet>();
+            Packet pkt;
+            while ((pkt = outQueue.poll()) != null) {
+                // not our FIN, or the END of an earlier stop
+                if (pkt != END && (pkt.getFlags() & Packet.FIN) == 0) {
+                    unwritten.add(pkt);
+                }
+            }
+            outQueue.add(END);
+            return unwritten;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * Close the the connection to the node server cleanly. Called by the
+     * thread of the node, and does not hold a lock while it waits for the node
+     */
+    private LinkedList<Packet> close() {
+        lock.lock();
         try {
-            // make sure that we don't send new packets
-            socket.shutdownOutput();
+            if (!finished) {
+                // send our FIN packet, after what is queued already, to
+                // signal that no new packets will arrive
+                outQueue.add(Packet.getFinPacket(addr));
+            }
+            finished = true;
+        } finally {
+            lock.unlock();
+        }
 
+        try {
             LinkedList<Packet> queue = new LinkedList<Packet>();
 
             while (true) {
@@ -202,7 +298,7 @@ public class EmulatedNode implements Runnable {
      * 
      * @return The IP address of the machine that this emulated node is on
      */
-    protected InetAddress getIPAddress() {
+    public InetAddress getIPAddress() {
         return ipAddress;
     }
 
@@ -212,7 +308,7 @@ public class EmulatedNode implements Runnable {
      * @return The port that this emulated node is using to talk to its
      *         neighbors
      */
-    protected int getPort() {
+    public int getPort() {
         return port;
     }
 
@@ -229,12 +325,14 @@ public class EmulatedNode implements Runnable {
     /**
      * Called by the router to tell the emulated node to stop and that the
      * router has already removed the emulated node
+     *
+     * @return The packets that were waiting to be written, oldest first
      */
-    protected void finish() {
+    public LinkedList<Packet> finish() {
         // parent is set to null only when the router wants to close the
         // connection first
         parent = null;
-        finished = true;
+        return stopWriter();
     }
 
     /**
@@ -8,13 +8,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
 
 import edu.washington.cs.cse490h.lib.Node.NodeCrashException;
 import edu.washington.cs.cse490h.lib.Packet.CorruptPacketException;
 
 /**
- * Manager that runs under a single emulated node on the client machine.
+ * Manager that runs under a single emulated node on the client machine. It can
+ * be watched over JMX while it runs, see Management and EmulatorMXBean.
  */
 public class Emulator extends Manager {
 	private Node node;
@@ -29,6 +34,15 @@ public class Emulator extends Manager {
 	private boolean failed;
 	private boolean IOFinished;
 
+	// Management state. The bean runs on JMX threads, so it only reads what
+	// the emulator publishes at the end of each time step, and hands
+	// operations back to the emulator thread.
+	private final Throughput throughput;
+	private volatile boolean up;
+	private volatile TreeMap<String, Long> publishedMetrics;
+	// files to dump the metrics to, "" for standard out
+	private final ConcurrentLinkedQueue<String> metricsDumps;
+
 	/**
 	 * Base constructor for the Emulator. Does most of the work, but the command
 	 * input method and failure level should be set before calling this
@@ -96,12 +110,7 @@ public class Emulator extends Manager {
 		}
 
 		if (Replay.replayOut != null) {
-			try {
-				Packet addrPkt = Replay.getAddrPacket(address);
-				Replay.replayOut.write(addrPkt.pack());
-			} catch (IOException e) {
-				throw new Replay.ReplayException(e.getMessage());
-			}
+			Replay.replayOut.record(Replay.getAddrPacket(address));
 		}
 		
 		// We'll store just a single nodeAddr->vtime mapping here.
@@ -111,6 +120,12 @@ public class Emulator extends Manager {
 
 		this.timeStep = timeStep;
 		setTime(0);
+
+		throughput = new Throughput();
+		publishedMetrics = new TreeMap<String, Long>();
+		metricsDumps = new ConcurrentLinkedQueue<String>();
+		Management.sample(throughput);
+		Management.register("type=Emulator", new Bean());
 	}
 
 	/**
@@ -162,7 +177,8 @@ public class Emulator extends Manager {
 	 * @param failureGen
 	 *            How failures should be generated
 	 * @param commandFile
-	 *            File containing the list of commands
+	 *            File containing the list of commands. Ignored if a command
+	 *            generator is set
 	 * @param seed
 	 *            Seed for the RNG. This can be null if the failure generator is
 	 *            not a RNG
@@ -184,8 +200,7 @@ public class Emulator extends Manager {
 		cmdInputType = InputType.FILE;
 		userControl = failureGen;
 
-		EmulationCommandsParser commandFileParser = new EmulationCommandsParser();
-		sortedEvents = commandFileParser.parseFile(commandFile);
+		commandEvents = openCommands(new EmulationCommandsParser(), commandFile);
 	}
 
 	/**
@@ -212,6 +227,7 @@ public class Emulator extends Manager {
 	protected void start() {
 		// start the synoptic partial-ordered logger
 		synPartialOrderLogger.start(MessageLayer.synopticPartialOrderLogFilename);
+		NodeLogger.start(MessageLayer.nodeLogLevel, MessageLayer.nodeLogFile);
 
 		startNode();
 
@@ -222,7 +238,7 @@ public class Emulator extends Manager {
 					failNode();
 				}
 
-				System.out.println("\nTime: " + now());
+				Management.log(Level.FINE, "\nTime: " + now());
 
 				if (node == null) {
 					checkRecover();
@@ -231,10 +247,10 @@ public class Emulator extends Manager {
 
 					boolean advance = false;
 					do {
-						if (sortedEvents.isEmpty()) {
+						if (!commandEvents.hasNext()) {
 							advance = true;
 						} else {
-							Event ev = sortedEvents.remove(0);
+							Event ev = commandEvents.next();
 							if (ev.t == Event.EventType.TIME) {
 								advance = true;
 							} else {
@@ -251,6 +267,7 @@ public class Emulator extends Manager {
 				if (node != null) {
 					logEventWithNodeField(node, "TIMESTEP time:" + now());
 				}
+				publishManagementState();
 
 				try {
 					// We sleep here to give a chance for messages to travel
@@ -267,7 +284,7 @@ public class Emulator extends Manager {
 					failNode();
 				}
 
-				System.out.println("\nTime: " + now());
+				Management.log(Level.FINE, "\nTime: " + now());
 
 				if (node == null) {
 					checkRecover();
@@ -362,6 +379,7 @@ public class Emulator extends Manager {
 				if (node != null) {
 					logEventWithNodeField(node, "TIMESTEP time:" + now());
 				}
+				publishManagementState();
 			}
 		}
 
@@ -379,9 +397,26 @@ public class Emulator extends Manager {
 		}
 
 		synPartialOrderLogger.stop();
+		NodeLogger.stop();
+		Replay.close();
+		writeBenchmarkResults();
+		writeMetrics(MessageLayer.metricsFile);
 		System.exit(0);
 	}
 
+	/**
+	 * Publish the state that the management bean reads, and run the
+	 * operations it asked for.
+	 */
+	private void publishManagementState() {
+		String dump;
+		while ((dump = metricsDumps.poll()) != null) {
+			writeMetrics(dump.equals("") ? null : dump);
+		}
+		up = node != null;
+		publishedMetrics = metricsFor(address).snapshot();
+	}
+
 	/******************* Methods to fail or restart a node *******************/
 
 	/**
@@ -464,6 +499,9 @@ public class Emulator extends Manager {
 
 		logEventWithNodeField(node, "FAILURE");
 
+		for (Timeout to : waitingTOs) {
+			FlightEvents.timeoutCancelled(to.node.addr, to.cb, to.fireTime);
+		}
 		waitingTOs.clear();
 		node = null;
 		failed = true;
@@ -516,12 +554,12 @@ public class Emulator extends Manager {
 	}
 
 	@Override
-	protected void storageWriteEvent(Node node, String description) {
+	protected void storageWriteEvent(Node node, String description, int bytes) {
 		logEventWithNodeField(node, "WRITE " + description);
 	}
 
 	@Override
-	protected void storageReadEvent(Node node, String description) {
+	protected void storageReadEvent(Node node, String description, int bytes) {
 		logEventWithNodeField(node, "READ" + description);
 	}
 
@@ -555,9 +593,10 @@ public class Emulator extends Manager {
 			}
 			while (pkt != null) {
 				if (Replay.replayOut != null) {
-					Replay.replayOut.write(pkt.pack());
+					Replay.replayOut.record(pkt);
 				}
-				inTransitMsgs.add(pkt);
+				throughput.in(pkt.getPayload().length + Packet.HEADER_SIZE);
+				inTransitMsgs.add(pkt, now());
 				if (Replay.isReplaying()) {
 					pkt = Replay.getPacket();
 					if (Replay.isNullPacket(pkt)) {
@@ -572,11 +611,7 @@ public class Emulator extends Manager {
 		}
 
 		if (Replay.replayOut != null) {
-			try {
-				Replay.replayOut.write(Replay.getNullPacket().pack());
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			Replay.replayOut.record(Replay.getNullPacket());
 		}
 
 		if (inTransitMsgs.isEmpty()) {
@@ -584,48 +619,41 @@ public class Emulator extends Manager {
 		}
 
 		// See what we should do with all the in-transit messages
-		ArrayList<Packet> currentPackets = inTransitMsgs;
-		inTransitMsgs = new ArrayList<Packet>();
+		int numPackets = inTransitMsgs.beginRound(now());
 
 		if (userControl.compareTo(FailureLvl.DROP) < 0) { // userControl < DROP
 			// Figure out if we need to drop the packet.
-			Iterator<Packet> iter = currentPackets.iterator();
-		while (iter.hasNext()) {
-			Packet p = iter.next();
-			double rand = Utility.getRNG().nextDouble();
-			if (rand < dropRate) {
-				System.out.println("Randomly dropping: " + p.toString());
-				logEvent(node, "DROP " + p.toSynopticString(node));
-				iter.remove();
+			for (int i = 0; i < numPackets; i++) {
+				double rand = Utility.getRNG().nextDouble();
+				if (rand < dropRate) {
+					Packet p = inTransitMsgs.drop(i);
+					Management.log(Level.FINE, "Randomly dropping: " + p.toString());
+					logEvent(node, "DROP " + p.toSynopticString(node));
+				}
 			}
-		}
 		} else {
 			System.out.println("The following messages are in transit: ");
-			for (int i = 0; i < currentPackets.size(); ++i) {
-				System.out.println(i + ": " + currentPackets.get(i).toString());
+			for (int i = 0; i < numPackets; ++i) {
+				System.out.println(i + ": " + inTransitMsgs.current(i).toString());
 			}
 
 			try {
 				System.out
 				.println("Which should be dropped? (space delimited list or just press enter to drop none)");
 				String input = Replay.getLine().trim();
-				// hash set so we don't have to deal with duplicates
-				HashSet<Packet> toBeRemoved = new HashSet<Packet>();
+				// flags rather than removing right away, since a delay of the
+				// same packet takes precedence over the drop
+				boolean[] toBeDropped = new boolean[numPackets];
 
 				if (!input.equals("")) {
 					String[] dropList = input.split("\\s+");
-					Packet p;
 					for (String s : dropList) {
-						p = currentPackets.get(Integer.parseInt(s));
-						toBeRemoved.add(p);
-						logEvent(node, "DROP " + p.toSynopticString(node));
+						int i = Integer.parseInt(s);
+						toBeDropped[i] = true;
+						logEvent(node, "DROP " + inTransitMsgs.current(i).toSynopticString(node));
 					}
 				}
 
-				if (toBeRemoved.size() == currentPackets.size()) {
-					return;
-				}
-
 				// If user drops and delays the same packet, result is undefined
 				// In current implementation, delay takes precedence
 				if (userControl.compareTo(FailureLvl.DELAY) >= 0) { // userControl
@@ -637,46 +665,49 @@ public class Emulator extends Manager {
 					if (!input.equals("")) {
 						String[] delayList = input.split("\\s+");
 						for (String s : delayList) {
-							Packet p = currentPackets.get(Integer.parseInt(s));
-							inTransitMsgs.add(p);
-							toBeRemoved.add(p);
-							logEvent(node, "DELAY " + p.toSynopticString(node));
+							Packet p = inTransitMsgs.defer(Integer.parseInt(s));
+							if (p != null) {
+								logEvent(node, "DELAY " + p.toSynopticString(node));
+							}
 						}
 					}
+				}
 
-					if (toBeRemoved.size() == currentPackets.size()) {
-						return;
+				for (int i = 0; i < numPackets; i++) {
+					if (toBeDropped[i]) {
+						inTransitMsgs.drop(i);
 					}
 				}
-
-				currentPackets.removeAll(toBeRemoved);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 
+		numPackets = inTransitMsgs.compact();
+
 		if (userControl.compareTo(FailureLvl.DELAY) < 0) { // userControl <
 			// DELAY
-			Iterator<Packet> iter = currentPackets.iterator();
-			while (iter.hasNext()) {
-				Packet p = iter.next();
+			// adjust the probability since these are not independent events
+			// Ex: 50% drop rate and 50% delay rate should mean that nothing
+			// gets through
+			double adjustedDelay = delayRate / (1 - dropRate);
+			for (int i = 0; i < numPackets; i++) {
 				double rand = Utility.getRNG().nextDouble();
-				// adjust the probability since these are not independent events
-				// Ex: 50% drop rate and 50% delay rate should mean that nothing
-				// gets through
-				double adjustedDelay = delayRate / (1 - dropRate);
 				if (rand < adjustedDelay) {
-					System.out.println("Randomly Delaying: " + p.toString());
+					Packet p = inTransitMsgs.defer(i);
+					Management.log(Level.FINE, "Randomly Delaying: " + p.toString());
 					logEvent(node, "DELAY " + p.toSynopticString(node));
-					iter.remove();
-					inTransitMsgs.add(p);
 				}
 			}
 		}
 
-		for (Packet p : currentPackets) {
-			currentRoundEvents.add(Event.getDelivery(p));
+		for (int i = 0; i < numPackets; i++) {
+			Packet p = inTransitMsgs.current(i);
+			if (p != null) {
+				currentRoundEvents.add(Event.getDelivery(p));
+			}
 		}
+		inTransitMsgs.endRound();
 	}
 
 	/**
@@ -811,9 +842,11 @@ public class Emulator extends Manager {
 			} while (doAgain);
 		} else {
 			Collections.shuffle(currentRoundEvents, Utility.getRNG());
-			System.out.println("Executing with order: ");
+			Management.log(Level.FINE, "Executing with order: ");
 			for (Event ev : currentRoundEvents) {
-				System.out.println(ev.toString());
+				if (Management.isLogged(Level.FINE)) {
+					System.out.println(ev.toString());
+				}
 				handleEvent(ev);
 			}
 		}
@@ -842,6 +875,9 @@ public class Emulator extends Manager {
 		case ECHO:
 			parser.printStrArray(ev.msg, System.out);
 			break;
+		case METRICS:
+			writeMetrics(ev.command);
+			break;
 		case DELIVERY:
 			deliverPkt(ev.p);
 			break;
@@ -849,6 +885,7 @@ public class Emulator extends Manager {
 			logEventWithNodeField(ev.to.node, "TIMEOUT fire-time:"
 					+ ev.to.fireTime + " " + ev.to.cb.toString());
 
+			Object flight = FlightEvents.beginTimeout();
 			try {
 				ev.to.cb.invoke();
 			} catch (InvocationTargetException e) {
@@ -863,6 +900,8 @@ public class Emulator extends Manager {
 			} catch (IllegalAccessException e) {
 				e.printStackTrace();
 			}
+			FlightEvents.endTimeout(flight, ev.to.node.addr, ev.to.cb,
+					ev.to.fireTime, now());
 			break;
 		default:
 			System.err.println("Shouldn't happen. TIME here?");
@@ -913,6 +952,7 @@ public class Emulator extends Manager {
 	private void sendToRouter(int destAddr, byte[] pkt) {
 		if (!Replay.isReplaying()) {
 			server.send(pkt);
+			throughput.out(pkt.length);
 		}
 		// else ignore it
 	}
@@ -932,12 +972,17 @@ public class Emulator extends Manager {
 
 		if (pkt.getDest() == address
 				|| pkt.getDest() == Manager.BROADCAST_ADDRESS) {
+			countPacket(PACKETS_RECEIVED, node.addr, pkt.getProtocol());
+			Object flight = FlightEvents.beginDelivery();
+			int addr = node.addr;
 			try {
 				node.onReceive(pkt.getSrc(), pkt.getProtocol(),
 						pkt.getPayload());
 			} catch (NodeCrashException e) {
 				failNode();
 			}
+			FlightEvents.endDelivery(flight, addr, pkt.getSrc(),
+					pkt.getProtocol(), pkt.getPayload().length);
 		}
 		// drop if not for me. This can happen if we took a port that was
 		// recently occupied by another node
@@ -982,4 +1027,90 @@ public class Emulator extends Manager {
 	public void logEvent(Node node, String eventStr) {
 		super.logEvent(node, eventStr);
 	}
+
+	/**
+	 * The management bean of the emulator
+	 */
+	private class Bean implements EmulatorMXBean {
+		public int getAddress() {
+			return address;
+		}
+
+		public boolean isUp() {
+			return up;
+		}
+
+		public long getTime() {
+			return now();
+		}
+
+		public long getPacketsIn() {
+			return throughput.getPacketsIn();
+		}
+
+		public long getBytesIn() {
+			return throughput.getBytesIn();
+		}
+
+		public long getPacketsOut() {
+			return throughput.getPacketsOut();
+		}
+
+		public long getBytesOut() {
+			return throughput.getBytesOut();
+		}
+
+		public double getPacketsInPerSecond() {
+			return throughput.getPacketsInPerSecond();
+		}
+
+		public double getBytesInPerSecond() {
+			return throughput.getBytesInPerSecond();
+		}
+
+		public double getPacketsOutPerSecond() {
+			return throughput.getPacketsOutPerSecond();
+		}
+
+		public double getBytesOutPerSecond() {
+			return throughput.getBytesOutPerSecond();
+		}
+
+		public long getRioUnACKed() {
+			return metric("rio.unACKed");
+		}
+
+		public long getRioOutOfOrder() {
+			return metric("rio.outOfOrder");
+		}
+
+		public long getRioRetransmissions() {
+			return metric("rio.retransmissions");
+		}
+
+		public long getRpcOutstanding() {
+			return metric("rpc.queueDepth");
+		}
+
+		public Map<String, Long> getMetrics() {
+			return publishedMetrics;
+		}
+
+		public void dumpMetrics(String filename) {
+			metricsDumps.add(filename == null ? "" : filename);
+		}
+
+		public String getLogLevel() {
+			return Management.getLogLevel();
+		}
+
+		public void setLogLevel(String level) {
+			Management.setLogLevel(level);
+		}
+
+		private long metric(String name) {
+			Long value = publishedMetrics.get(name);
+			return value == null ? 0 : value;
+		}
+	}
 }
@@ -0,0 +1,79 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.util.Map;
+
+/**
+ * Management interface of the Emulator, see Management. Packets in are the
+ * ones the node got from the Router, packets out the ones it sent. The metrics
+ * are those of Node.metrics(), as of the end of the last time step.
+ */
+public interface EmulatorMXBean {
+	public int getAddress();
+
+	/**
+	 * @return Whether the node is running, rather than crashed
+	 */
+	public boolean isUp();
+
+	/**
+	 * @return The current time step
+	 */
+	public long getTime();
+
+	public long getPacketsIn();
+
+	public long getBytesIn();
+
+	public long getPacketsOut();
+
+	public long getBytesOut();
+
+	public double getPacketsInPerSecond();
+
+	public double getBytesInPerSecond();
+
+	public double getPacketsOutPerSecond();
+
+	public double getBytesOutPerSecond();
+
+	/**
+	 * @return Packets sent by the reliable in-order layer and not ACKed yet
+	 */
+	public long getRioUnACKed();
+
+	/**
+	 * @return Packets received by the reliable in-order layer that wait for
+	 *         earlier ones
+	 */
+	public long getRioOutOfOrder();
+
+	public long getRioRetransmissions();
+
+	/**
+	 * @return RPC requests that were made and have no result yet
+	 */
+	public long getRpcOutstanding();
+
+	/**
+	 * @return All the counters and gauges of the node
+	 */
+	public Map<String, Long> getMetrics();
+
+	/**
+	 * Dump the metrics as JSON, like the metrics command. This happens in the
+	 * next time step.
+	 *
+	 * @param filename
+	 *            The file to write to, or empty to print to standard out
+	 */
+	public void dumpMetrics(String filename);
+
+	public String getLogLevel();
+
+	/**
+	 * @param level
+	 *            A java.util.logging level name. FINE and below print every
+	 *            time step and the events in it
+	 */
+	public void setLogLevel(String level);
+}
@@ -1,16 +1,26 @@
 package edu.washington.cs.cse490h.lib;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+
 import edu.washington.cs.cse490h.lib.Manager.Timeout;
 
 /**
  * Class that represents the various types of events within the managers
  */
-public class Event {
+public class Event implements Serializable {
+	private static final long serialVersionUID = 2286915874127336570L;
+
+	// Events that were handed back by the manager, reused by the factories so
+	// that a long simulation does not allocate events on every round
+	private static final int MAX_POOL_SIZE = 4096;
+	private static final ArrayList<Event> pool = new ArrayList<Event>();
+
 	protected int node;
-	protected final EventType t;
+	protected EventType t;
 
 	public static enum EventType {
-		FAILURE, START, EXIT, COMMAND, ECHO, TIME, DELIVERY, TIMEOUT
+		FAILURE, START, EXIT, COMMAND, ECHO, TIME, DELIVERY, TIMEOUT, METRICS, CHECKPOINT
 	}
 
 	protected String command;
@@ -19,54 +29,104 @@ public class Event {
 	protected Packet p;
 	protected Timeout to;
 
+	// whether the simulator put the event off until the next round, so that
+	// it is not handed back to the pool with the events of this one
+	protected boolean deferred;
+
 	private Event(EventType t) {
 		this.t = t;
 	}
 
+	private static Event obtain(EventType t) {
+		int last = pool.size() - 1;
+		if (last < 0) {
+			return new Event(t);
+		}
+		Event e = pool.remove(last);
+		e.t = t;
+		return e;
+	}
+
+	/**
+	 * Hand the event back once the manager is completely done with it, so
+	 * that the factories can reuse it. The event must not be used afterwards.
+	 */
+	protected void recycle() {
+		node = 0;
+		command = null;
+		msg = null;
+		p = null;
+		to = null;
+		deferred = false;
+		if (pool.size() < MAX_POOL_SIZE) {
+			pool.add(this);
+		}
+	}
+
 	protected static Event getFailure(int node) {
-		Event e = new Event(EventType.FAILURE);
+		Event e = obtain(EventType.FAILURE);
 		e.node = node;
 		return e;
 	}
 
 	protected static Event getStart(int node) {
-		Event e = new Event(EventType.START);
+		Event e = obtain(EventType.START);
 		e.node = node;
 		return e;
 	}
 
 	protected static Event getExit() {
-		Event e = new Event(EventType.EXIT);
+		Event e = obtain(EventType.EXIT);
 		return e;
 	}
 
 	protected static Event getCommand(int node, String command) {
-		Event e = new Event(EventType.COMMAND);
+		Event e = obtain(EventType.COMMAND);
 		e.node = node;
 		e.command = command;
 		return e;
 	}
 
 	protected static Event getEcho(String[] msg) {
-		Event e = new Event(EventType.ECHO);
+		Event e = obtain(EventType.ECHO);
 		e.msg = msg;
 		return e;
 	}
 
+	/**
+	 * @param filename
+	 *            The file to dump the metrics to, null for standard out
+	 */
+	protected static Event getMetrics(String filename) {
+		Event e = obtain(EventType.METRICS);
+		e.command = filename;
+		return e;
+	}
+
+	/**
+	 * @param filename
+	 *            The file to write the checkpoint to
+	 */
+	protected static Event getCheckpoint(String filename) {
+		Event e = obtain(EventType.CHECKPOINT);
+		e.command = filename;
+		return e;
+	}
+
 	protected static Event getTime() {
-		Event e = new Event(EventType.TIME);
+		Event e = obtain(EventType.TIME);
 		return e;
 	}
 
 	protected static Event getDelivery(Packet p) {
-		Event e = new Event(EventType.DELIVERY);
+		Event e = obtain(EventType.DELIVERY);
 		e.node = p.getDest();
 		e.p = p;
 		return e;
 	}
 
 	protected static Event getTimeout(Timeout to) {
-		Event e = new Event(EventType.TIMEOUT);
+		Event e = obtain(EventType.TIMEOUT);
 		e.node = to.node.addr;
 		e.to = to;
 		return e;
@@ -90,6 +150,10 @@ public class Event {
 			return "DELIVERY " + p;
 		case TIMEOUT:
 			return "TIMEOUT " + to;
+		case METRICS:
+			return "METRICS " + ((command == null) ? "" : command);
+		case CHECKPOINT:
+			return "CHECKPOINT " + command;
 		default:
 			return "UNKNOWN EVENT TYPE " + t;
 		}
@@ -0,0 +1,169 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+
+/**
+ * <pre>
+ * Stream of the events of a command script, in script order. Lines are only
+ * read and parsed when the manager gets to them, and at most LOOKAHEAD parsed
+ * events are held at any time, so a script of any length starts right away and
+ * takes a constant amount of memory.
+ *
+ * The lines come either from a command file or from a CommandGenerator.
+ * </pre>
+ */
+public abstract class EventSource {
+	/**
+	 * The maximum number of events that are parsed ahead of the manager
+	 */
+	static final int LOOKAHEAD = 64;
+
+	private final CommandsParser parser;
+	private final ArrayDeque<Event> lookahead;
+	private boolean exhausted;
+
+	protected EventSource(CommandsParser parser) {
+		this.parser = parser;
+		this.lookahead = new ArrayDeque<Event>(LOOKAHEAD);
+		this.exhausted = false;
+	}
+
+	/**
+	 * @return true if there are events left in the script
+	 */
+	public boolean hasNext() {
+		fill();
+		return !lookahead.isEmpty();
+	}
+
+	/**
+	 * @return The next event of the script
+	 * @throws NoSuchElementException
+	 *             If there are no events left
+	 */
+	public Event next() {
+		fill();
+		Event ev = lookahead.poll();
+		if (ev == null) {
+			throw new NoSuchElementException();
+		}
+		return ev;
+	}
+
+	/**
+	 * Stop reading the script and release what it holds. Events that were
+	 * parsed ahead are dropped.
+	 */
+	public void close() {
+		lookahead.clear();
+		if (!exhausted) {
+			exhausted = true;
+			closeInput();
+		}
+	}
+
+	/**
+	 * @return The next line of the script, or null at the end of the script
+	 * @throws IOException
+	 *             If the line cannot be read
+	 */
+	protected abstract String readLine() throws IOException;
+
+	/**
+	 * Release the input of the script. Called once, when the end of the script
+	 * is reached or the source is closed.
+	 */
+	protected abstract void closeInput();
+
+	/**
+	 * @return A description of the script for error messages
+	 */
+	protected abstract String describe();
+
+	private void fill() {
+		try {
+			while (!exhausted && lookahead.size() < LOOKAHEAD) {
+				String line = readLine();
+				if (line == null) {
+					exhausted = true;
+					closeInput();
+				} else {
+					Event e = parser.parseLine(line);
+					if (e == null) {
+						System.err.println("not a valid line: " + line);
+					} else {
+						lookahead.add(e);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("IOException occured while trying to read file: " + describe()
+					+ "\nException: " + e);
+			exhausted = true;
+			closeInput();
+		}
+	}
+
+	/**
+	 * Event source reading a command file.
+	 */
+	static class FileEventSource extends EventSource {
+		private final String filename;
+		private final BufferedReader reader;
+
+		FileEventSource(CommandsParser parser, String filename, BufferedReader reader) {
+			super(parser);
+			this.filename = filename;
+			this.reader = reader;
+		}
+
+		@Override
+		protected String readLine() throws IOException {
+			return reader.readLine();
+		}
+
+		@Override
+		protected void closeInput() {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// nothing more will be read from it anyway
+			}
+		}
+
+		@Override
+		protected String describe() {
+			return filename;
+		}
+	}
+
+	/**
+	 * Event source pulling its lines from a CommandGenerator.
+	 */
+	static class GeneratorEventSource extends EventSource {
+		private final CommandGenerator generator;
+
+		GeneratorEventSource(CommandsParser parser, CommandGenerator generator) {
+			super(parser);
+			this.generator = generator;
+		}
+
+		@Override
+		protected String readLine() {
+			return generator.nextLine();
+		}
+
+		@Override
+		protected void closeInput() {
+			// generators hold no resources that we know of
+		}
+
+		@Override
+		protected String describe() {
+			return generator.getClass().getName();
+		}
+	}
+}
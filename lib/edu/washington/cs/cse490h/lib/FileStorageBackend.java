@@ -0,0 +1,60 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Storage backend that keeps the files of each node in storage/<addr>/ on the
+ * real filesystem. Streams are unbuffered, so everything that is written is
+ * handed to the operating system right away and nothing is lost on a crash.
+ */
+class FileStorageBackend extends StorageBackend {
+
+    @Override
+    boolean exists(int nodeAddr, String filename) {
+        return new File(Utility.realFilename(nodeAddr, filename)).exists();
+    }
+
+    @Override
+    InputStream openInput(int nodeAddr, String filename)
+            throws FileNotFoundException {
+        return new FileInputStream(Utility.realFilename(nodeAddr, filename));
+    }
+
+    @Override
+    OutputStream openOutput(int nodeAddr, String filename, boolean append)
+            throws IOException {
+        Utility.mkdirs(nodeAddr);
+        return new FileOutputStream(Utility.realFilename(nodeAddr, filename),
+                append);
+    }
+
+    @Override
+    boolean delete(int nodeAddr, String filename) {
+        return new File(Utility.realFilename(nodeAddr, filename)).delete();
+    }
+
+    @Override
+    List<String> list(int nodeAddr) {
+        List<String> names = new ArrayList<String>();
+        File[] files = new File(Utility.realFilename(nodeAddr, "")).listFiles();
+        if (files != null) {
+            for (File f : files) {
+                names.add(f.getName());
+            }
+        }
+        return names;
+    }
+
+    @Override
+    void crash(int nodeAddr) {
+        // the operating system already has everything that was written
+    }
+}
@@ -0,0 +1,334 @@
+package edu.washington.cs.cse490h.lib;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * <pre>
+ * Java Flight Recorder events for the activity of the nodes, so that a
+ * recording of a simulation or emulation shows packets, timers, storage and
+ * RPCs next to CPU and GC:
+ *
+ *   java -XX:StartFlightRecording=filename=node.jfr ... MessageLayer ...
+ *
+ * or jcmd <pid> JFR.start on a running Emulator. The events are in the
+ * "CSE 490h" category.
+ *
+ * When no recording is running, an event costs a check of whether its type is
+ * enabled; the fields are not filled in, and strings are not built. On a JVM
+ * without the jdk.jfr module the events are skipped altogether.
+ *
+ * Events with a duration are started with a begin method, which returns a
+ * token to pass to the matching end method. The token is null when the event
+ * is off.
+ * </pre>
+ */
+public final class FlightEvents {
+
+	private static final boolean AVAILABLE = isAvailable();
+
+	private FlightEvents() {
+	}
+
+	/**
+	 * A node sent a packet, see Manager.sendPkt.
+	 */
+	public static void packetSent(int node, int dest, int protocol, int size) {
+		if (!AVAILABLE) {
+			return;
+		}
+		PacketSent e = new PacketSent();
+		if (e.isEnabled()) {
+			e.node = node;
+			e.dest = dest;
+			e.protocol = protocol;
+			e.size = size;
+			e.commit();
+		}
+	}
+
+	/**
+	 * Start of the delivery of a packet to a node, just before onReceive.
+	 */
+	public static Object beginDelivery() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		PacketDelivered e = new PacketDelivered();
+		if (!e.isEnabled()) {
+			return null;
+		}
+		e.begin();
+		return e;
+	}
+
+	/**
+	 * End of the delivery of a packet, once onReceive returned.
+	 */
+	public static void endDelivery(Object token, int node, int source, int protocol, int size) {
+		if (token == null) {
+			return;
+		}
+		PacketDelivered e = (PacketDelivered) token;
+		e.end();
+		e.node = node;
+		e.source = source;
+		e.protocol = protocol;
+		e.size = size;
+		e.commit();
+	}
+
+	/**
+	 * Start of a timeout firing, just before its callback is invoked.
+	 */
+	public static Object beginTimeout() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		TimeoutFired e = new TimeoutFired();
+		if (!e.isEnabled()) {
+			return null;
+		}
+		e.begin();
+		return e;
+	}
+
+	/**
+	 * End of a timeout firing, once its callback returned.
+	 *
+	 * @param fireTime
+	 *            The time step the timeout was set to fire in
+	 * @param now
+	 *            The time step it fired in
+	 */
+	public static void endTimeout(Object token, int node, Callback cb, long fireTime, long now) {
+		if (token == null) {
+			return;
+		}
+		TimeoutFired e = (TimeoutFired) token;
+		e.end();
+		e.node = node;
+		e.callback = cb.toString();
+		e.fireTime = fireTime;
+		e.late = now - fireTime;
+		e.commit();
+	}
+
+	/**
+	 * A timeout will not fire, because its node crashed.
+	 */
+	public static void timeoutCancelled(int node, Callback cb, long fireTime) {
+		if (!AVAILABLE) {
+			return;
+		}
+		TimeoutCancelled e = new TimeoutCancelled();
+		if (e.isEnabled()) {
+			e.node = node;
+			e.callback = cb.toString();
+			e.fireTime = fireTime;
+			e.commit();
+		}
+	}
+
+	/**
+	 * The reliable in-order layer of a node sent a packet again.
+	 */
+	public static void retransmission(int node, int dest, int protocol, int size, int seqNum) {
+		if (!AVAILABLE) {
+			return;
+		}
+		Retransmission e = new Retransmission();
+		if (e.isEnabled()) {
+			e.node = node;
+			e.dest = dest;
+			e.protocol = protocol;
+			e.size = size;
+			e.seqNum = seqNum;
+			e.commit();
+		}
+	}
+
+	/**
+	 * A node got the result of an RPC.
+	 *
+	 * @param size
+	 *            The size of the result payload
+	 * @param latencySteps
+	 *            Time steps since the request was made
+	 * @param latencyNanos
+	 *            Nanoseconds since the request was made
+	 */
+	public static void rpcCompleted(int node, int server, String command, String status,
+			int size, long latencySteps, long latencyNanos) {
+		if (!AVAILABLE) {
+			return;
+		}
+		RPCCompleted e = new RPCCompleted();
+		if (e.isEnabled()) {
+			e.node = node;
+			e.server = server;
+			e.command = command;
+			e.status = status;
+			e.size = size;
+			e.latencySteps = latencySteps;
+			e.latencyNanos = latencyNanos;
+			e.commit();
+		}
+	}
+
+	/**
+	 * Start of a flush of a node's writes to its storage.
+	 */
+	public static Object beginStorageFlush() {
+		if (!AVAILABLE) {
+			return null;
+		}
+		StorageFlush e = new StorageFlush();
+		if (!e.isEnabled()) {
+			return null;
+		}
+		e.begin();
+		return e;
+	}
+
+	/**
+	 * End of a flush of a node's writes to its storage.
+	 *
+	 * @param size
+	 *            The number of bytes written
+	 */
+	public static void endStorageFlush(Object token, int node, String filename, int size) {
+		if (token == null) {
+			return;
+		}
+		StorageFlush e = (StorageFlush) token;
+		e.end();
+		e.node = node;
+		e.filename = filename;
+		e.size = size;
+		e.commit();
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	/******************** Event types ********************/
+
+	@Name("edu.washington.cs.cse490h.PacketSent")
+	@Label("Packet Sent")
+	@Category({ "CSE 490h", "Network" })
+	static final class PacketSent extends Event {
+		@Label("Node")
+		int node;
+		@Label("Destination")
+		int dest;
+		@Label("Protocol")
+		int protocol;
+		@Label("Payload Size")
+		int size;
+	}
+
+	@Name("edu.washington.cs.cse490h.PacketDelivered")
+	@Label("Packet Delivered")
+	@Description("Delivery of a packet, lasting as long as the node handles it")
+	@Category({ "CSE 490h", "Network" })
+	static final class PacketDelivered extends Event {
+		@Label("Node")
+		int node;
+		@Label("Source")
+		int source;
+		@Label("Protocol")
+		int protocol;
+		@Label("Payload Size")
+		int size;
+	}
+
+	@Name("edu.washington.cs.cse490h.TimeoutFired")
+	@Label("Timeout Fired")
+	@Description("A timeout, lasting as long as its callback runs")
+	@Category({ "CSE 490h", "Timers" })
+	static final class TimeoutFired extends Event {
+		@Label("Node")
+		int node;
+		@Label("Callback")
+		String callback;
+		@Label("Fire Time")
+		@Description("Time step the timeout was set to fire in")
+		long fireTime;
+		@Label("Late")
+		@Description("Time steps the timeout fired after its fire time")
+		long late;
+	}
+
+	@Name("edu.washington.cs.cse490h.TimeoutCancelled")
+	@Label("Timeout Cancelled")
+	@Description("A timeout that will not fire because its node crashed")
+	@Category({ "CSE 490h", "Timers" })
+	static final class TimeoutCancelled extends Event {
+		@Label("Node")
+		int node;
+		@Label("Callback")
+		String callback;
+		@Label("Fire Time")
+		long fireTime;
+	}
+
+	@Name("edu.washington.cs.cse490h.Retransmission")
+	@Label("RIO Retransmission")
+	@Category({ "CSE 490h", "Network" })
+	static final class Retransmission extends Event {
+		@Label("Node")
+		int node;
+		@Label("Destination")
+		int dest;
+		@Label("Protocol")
+		int protocol;
+		@Label("Payload Size")
+		int size;
+		@Label("Sequence Number")
+		int seqNum;
+	}
+
+	@Name("edu.washington.cs.cse490h.RPCCompleted")
+	@Label("RPC Completed")
+	@Category({ "CSE 490h", "RPC" })
+	static final class RPCCompleted extends Event {
+		@Label("Node")
+		int node;
+		@Label("Server")
+		int server;
+		@Label("Command")
+		String command;
+		@Label("Status")
+		String status;
+		@Label("Result Size")
+		int size;
+		@Label("Latency (steps)")
+		long latencySteps;
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latencyNanos;
+	}
+
+	@Name("edu.washington.cs.cse490h.StorageFlush")
+	@Label("Storage Flush")
+	@Category({ "CSE 490h", "Storage" })
+	static final class StorageFlush extends Event {
+		@Label("Node")
+		int node;
+		@Label("File")
+		String filename;
+		@Label("Size")
+		int size;
+	}
+}
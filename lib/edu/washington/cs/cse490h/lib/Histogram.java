@@ -0,0 +1,167 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.Serializable;
+
+/**
+ * <pre>
+ * Distribution of non-negative integer values, such as latencies in time steps
+ * or message counts. Values below EXACT_LIMIT are counted exactly. Larger
+ * values are counted in buckets that split every power of two into
+ * SUB_BUCKETS, so that their percentiles are off by less than 2%.
+ *
+ * Recording a value does not allocate.
+ * </pre>
+ */
+public class Histogram implements Serializable {
+	private static final long serialVersionUID = -4051080154938799569L;
+
+	private static final int EXACT_BITS = 10;
+	private static final int EXACT_LIMIT = 1 << EXACT_BITS;
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+
+	public Histogram() {
+		counts = new long[EXACT_LIMIT + (64 - EXACT_BITS) * SUB_BUCKETS];
+		reset();
+	}
+
+	/**
+	 * Count a value.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the value is negative
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Negative value: " + value);
+		}
+		counts[bucket(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Count all the values of another histogram.
+	 */
+	public void add(Histogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * Forget every value.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * @return The number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The mean of the values, or 0 if there are none
+	 */
+	public double getMean() {
+		return (count == 0) ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @return The smallest value, or 0 if there are none
+	 */
+	public long getMin() {
+		return (count == 0) ? 0 : min;
+	}
+
+	/**
+	 * @return The largest value, or 0 if there are none
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @param p
+	 *            The percentile, between 0 and 100
+	 * @return The smallest value such that p percent of the values are at most
+	 *         that value, or 0 if there are none
+	 */
+	public long getPercentile(double p) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				// the bucket may start below the smallest value or end above
+				// the largest one
+				return Math.max(min, Math.min(max, bucketEnd(i)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return The summary statistics of the values as a JSON object
+	 */
+	public String toJson() {
+		return "{\"count\": " + count + ", \"mean\": " + Math.round(getMean() * 100) / 100.0
+				+ ", \"min\": " + getMin() + ", \"p50\": " + getPercentile(50) + ", \"p90\": "
+				+ getPercentile(90) + ", \"p99\": " + getPercentile(99) + ", \"max\": " + getMax()
+				+ "}";
+	}
+
+	@Override
+	public String toString() {
+		return "count " + count + ", mean " + Math.round(getMean() * 10) / 10.0 + ", p50 "
+				+ getPercentile(50) + ", p99 " + getPercentile(99) + ", max " + getMax();
+	}
+
+	private static int bucket(long value) {
+		if (value < EXACT_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return EXACT_LIMIT + (magnitude - EXACT_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/* The largest value that falls in a bucket */
+	private static long bucketEnd(int bucket) {
+		if (bucket < EXACT_LIMIT) {
+			return bucket;
+		}
+		int magnitude = (bucket - EXACT_LIMIT) / SUB_BUCKETS + EXACT_BITS;
+		long sub = (bucket - EXACT_LIMIT) % SUB_BUCKETS;
+		long width = 1L << (magnitude - SUB_BUCKET_BITS);
+		return (1L << magnitude) + (sub + 1) * width - 1;
+	}
+}
@@ -0,0 +1,372 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <pre>
+ * Holds the packets that are in transit between nodes.
+ *
+ * Every packet is due in some time step, the step in which the manager looks
+ * at it. Packets that are not due yet are kept in a calendar queue: an array of
+ * buckets indexed by due time modulo the number of buckets, so that putting a
+ * packet in transit and finding the packets that are due are both O(1) per
+ * packet no matter how far into the future the packets are spread.
+ *
+ * At the start of each round the manager calls beginRound() which moves the
+ * packets that are due into the current round. The manager then decides the
+ * fate of every current packet by index, either dropping it, deferring it to
+ * the next round or leaving it to be delivered. Dropped and deferred slots are
+ * nulled out and squeezed out in bulk by compact(), so no decision costs more
+ * than O(1).
+ *
+ * The number of packets in flight is also counted per directed link and per
+ * destination so that queue depths can be inspected at any time.
+ * </pre>
+ */
+class InTransitBuffer implements Iterable<Packet>, Serializable {
+	private static final long serialVersionUID = 2036123853969620459L;
+
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int NUM_ADDRESSES = Manager.MAX_ADDRESS + 1;
+	// must be a power of 2
+	private static final int CALENDAR_DAYS = 64;
+
+	/**
+	 * The packets that are due in the time steps that map to one calendar day
+	 */
+	private static class Bucket implements Serializable {
+		private static final long serialVersionUID = 4071628520537122377L;
+
+		Packet[] packets = new Packet[INITIAL_CAPACITY];
+		long[] due = new long[INITIAL_CAPACITY];
+		int size = 0;
+
+		void append(Packet p, long dueTime) {
+			if (size == packets.length) {
+				Packet[] biggerPackets = new Packet[packets.length * 2];
+				long[] biggerDue = new long[due.length * 2];
+				System.arraycopy(packets, 0, biggerPackets, 0, size);
+				System.arraycopy(due, 0, biggerDue, 0, size);
+				packets = biggerPackets;
+				due = biggerDue;
+			}
+			packets[size] = p;
+			due[size] = dueTime;
+			size++;
+		}
+	}
+
+	// packets that are not due yet, bucketed by due time
+	private final Bucket[] calendar;
+	private int scheduledSize;
+
+	// packets being looked at in the current round
+	private Packet[] current;
+	private int currentSize;
+
+	// the time step of the current round
+	private long roundTime;
+
+	// in-flight packet counts, indexed by src * NUM_ADDRESSES + dest
+	private final int[] linkDepth;
+	private final int[] linkPeakDepth;
+	// in-flight packet counts, indexed by dest
+	private final int[] destDepth;
+
+	InTransitBuffer() {
+		calendar = new Bucket[CALENDAR_DAYS];
+		for (int i = 0; i < CALENDAR_DAYS; i++) {
+			calendar[i] = new Bucket();
+		}
+		current = new Packet[INITIAL_CAPACITY];
+		scheduledSize = 0;
+		currentSize = 0;
+		roundTime = -1;
+		linkDepth = new int[NUM_ADDRESSES * NUM_ADDRESSES];
+		linkPeakDepth = new int[NUM_ADDRESSES * NUM_ADDRESSES];
+		destDepth = new int[NUM_ADDRESSES];
+	}
+
+	/**
+	 * Put a newly sent packet in transit.
+	 *
+	 * @param p
+	 *            The packet that was sent
+	 * @param due
+	 *            The time step in which the packet should be looked at. Due
+	 *            times that are not later than the current round mean the next
+	 *            round
+	 */
+	void add(Packet p, long due) {
+		schedule(p, Math.max(due, roundTime + 1));
+
+		int link = linkIndex(p);
+		linkDepth[link]++;
+		if (linkDepth[link] > linkPeakDepth[link]) {
+			linkPeakDepth[link] = linkDepth[link];
+		}
+		destDepth[p.getDest()]++;
+	}
+
+	/**
+	 * Start a new round. All of the packets that are due by now become the
+	 * current packets, in the order in which they were put in transit.
+	 *
+	 * @param now
+	 *            The time step of the round
+	 * @return The number of packets in the current round
+	 */
+	int beginRound(long now) {
+		// normally only today's bucket has to be looked at, but every bucket
+		// that was skipped since the last round may hold overdue packets
+		long firstDay = Math.max(roundTime + 1, now - CALENDAR_DAYS + 1);
+		roundTime = now;
+		if (scheduledSize == 0) {
+			return currentSize;
+		}
+
+		for (long day = firstDay; day <= now; day++) {
+			Bucket b = calendar[bucketIndex(day)];
+			int kept = 0;
+			for (int i = 0; i < b.size; i++) {
+				if (b.due[i] <= now) {
+					appendCurrent(b.packets[i]);
+					scheduledSize--;
+				} else {
+					b.packets[kept] = b.packets[i];
+					b.due[kept] = b.due[i];
+					kept++;
+				}
+			}
+			for (int i = kept; i < b.size; i++) {
+				b.packets[i] = null;
+			}
+			b.size = kept;
+		}
+		return currentSize;
+	}
+
+	/**
+	 * @return The number of slots in the current round, including dropped and
+	 *         deferred slots that have not been compacted away yet
+	 */
+	int currentSize() {
+		return currentSize;
+	}
+
+	/**
+	 * Get a packet of the current round.
+	 *
+	 * @param i
+	 *            The index of the packet
+	 * @return The packet, or null if it was dropped or deferred
+	 */
+	Packet current(int i) {
+		return current[i];
+	}
+
+	/**
+	 * Drop a packet of the current round. It is no longer in transit.
+	 *
+	 * @param i
+	 *            The index of the packet
+	 * @return The dropped packet, or null if the slot was already empty
+	 */
+	Packet drop(int i) {
+		Packet p = current[i];
+		if (p != null) {
+			current[i] = null;
+			leave(p);
+		}
+		return p;
+	}
+
+	/**
+	 * Defer a packet of the current round so that it is looked at again in the
+	 * next time step. It stays in transit.
+	 *
+	 * @param i
+	 *            The index of the packet
+	 * @return The deferred packet, or null if the slot was already empty
+	 */
+	Packet defer(int i) {
+		Packet p = current[i];
+		if (p != null) {
+			current[i] = null;
+			schedule(p, roundTime + 1);
+		}
+		return p;
+	}
+
+	/**
+	 * Squeeze the dropped and deferred slots out of the current round,
+	 * keeping the order of the remaining packets.
+	 *
+	 * @return The number of packets left in the current round
+	 */
+	int compact() {
+		int j = 0;
+		for (int i = 0; i < currentSize; i++) {
+			if (current[i] != null) {
+				current[j++] = current[i];
+			}
+		}
+		for (int i = j; i < currentSize; i++) {
+			current[i] = null;
+		}
+		currentSize = j;
+		return currentSize;
+	}
+
+	/**
+	 * Finish the current round. Every packet that is still in the current
+	 * round is considered delivered and leaves transit.
+	 */
+	void endRound() {
+		for (int i = 0; i < currentSize; i++) {
+			Packet p = current[i];
+			if (p != null) {
+				current[i] = null;
+				leave(p);
+			}
+		}
+		currentSize = 0;
+	}
+
+	/**
+	 * @return true if there are no packets in transit
+	 */
+	boolean isEmpty() {
+		return scheduledSize == 0 && currentSize == 0;
+	}
+
+	/**
+	 * @return The number of packets in transit
+	 */
+	int size() {
+		return scheduledSize + currentSize;
+	}
+
+	/**
+	 * Forget about all of the packets in transit.
+	 */
+	void clear() {
+		for (Bucket b : calendar) {
+			for (int i = 0; i < b.size; i++) {
+				leave(b.packets[i]);
+				b.packets[i] = null;
+			}
+			b.size = 0;
+		}
+		scheduledSize = 0;
+		for (int i = 0; i < currentSize; i++) {
+			if (current[i] != null) {
+				leave(current[i]);
+				current[i] = null;
+			}
+		}
+		currentSize = 0;
+	}
+
+	/**
+	 * @return The number of packets in transit on the directed link src->dest
+	 */
+	int linkDepth(int src, int dest) {
+		return linkDepth[src * NUM_ADDRESSES + dest];
+	}
+
+	/**
+	 * @return The largest number of packets that were ever in transit at the
+	 *         same time on the directed link src->dest
+	 */
+	int peakLinkDepth(int src, int dest) {
+		return linkPeakDepth[src * NUM_ADDRESSES + dest];
+	}
+
+	/**
+	 * @return The number of packets in transit to dest
+	 */
+	int destDepth(int dest) {
+		return destDepth[dest];
+	}
+
+	/**
+	 * Iterates over all of the packets in transit, current round first and
+	 * then the packets that are not due yet, calendar day by calendar day.
+	 */
+	public Iterator<Packet> iterator() {
+		return new Iterator<Packet>() {
+			// -1 is the current round, anything else is a calendar offset
+			private int day = -1;
+			private int i = 0;
+			private Packet next = advance();
+
+			private Packet advance() {
+				while (day < CALENDAR_DAYS) {
+					if (day < 0) {
+						while (i < currentSize) {
+							Packet p = current[i++];
+							if (p != null) {
+								return p;
+							}
+						}
+					} else {
+						Bucket b = calendar[bucketIndex(roundTime + 1 + day)];
+						if (i < b.size) {
+							return b.packets[i++];
+						}
+					}
+					day++;
+					i = 0;
+				}
+				return null;
+			}
+
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			public Packet next() {
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				Packet p = next;
+				next = advance();
+				return p;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void schedule(Packet p, long due) {
+		calendar[bucketIndex(due)].append(p, due);
+		scheduledSize++;
+	}
+
+	private void appendCurrent(Packet p) {
+		if (currentSize == current.length) {
+			Packet[] bigger = new Packet[current.length * 2];
+			System.arraycopy(current, 0, bigger, 0, currentSize);
+			current = bigger;
+		}
+		current[currentSize++] = p;
+	}
+
+	private void leave(Packet p) {
+		linkDepth[linkIndex(p)]--;
+		destDepth[p.getDest()]--;
+	}
+
+	private static int bucketIndex(long day) {
+		return (int) (day & (CALENDAR_DAYS - 1));
+	}
+
+	private static int linkIndex(Packet p) {
+		return p.getSrc() * NUM_ADDRESSES + p.getDest();
+	}
+}
@@ -0,0 +1,227 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * <pre>
+ * A distribution of link latencies, in time steps. A packet sent during time
+ * step t with a latency of n is looked at by the simulator in time step t + n.
+ * The smallest latency is 1, which is the behavior of a simulator without a
+ * latency model.
+ *
+ * Distributions are written as strings:
+ *	const:N -- always N steps
+ *	uniform:MIN:MAX -- uniformly between MIN and MAX steps, inclusive
+ *	lognormal:MEDIAN:SIGMA -- log-normally around MEDIAN steps, where SIGMA is
+ *		the standard deviation of the underlying normal distribution
+ *	hist:STEPS=WEIGHT,STEPS=WEIGHT,... -- an empirical histogram, where each
+ *		latency is chosen with a probability proportional to its weight
+ * </pre>
+ */
+public abstract class LatencyModel implements Serializable {
+	private static final long serialVersionUID = 3369551309043692261L;
+
+	/**
+	 * The latency of a simulator without a latency model.
+	 */
+	public static final LatencyModel DEFAULT = new Constant(1);
+
+	/**
+	 * Draw a latency from the distribution.
+	 *
+	 * @param rng
+	 *            The random number generator to draw from
+	 * @return The latency, in time steps. Always at least 1
+	 */
+	public abstract int sample(Random rng);
+
+	/**
+	 * Parse a distribution from its string form.
+	 *
+	 * @param spec
+	 *            The string form of the distribution
+	 * @return The distribution
+	 * @throws IllegalArgumentException
+	 *             If the string is not a valid distribution
+	 */
+	public static LatencyModel parse(String spec) throws IllegalArgumentException {
+		String[] parts = spec.trim().split(":");
+		try {
+			if (parts[0].equals("const") && parts.length == 2) {
+				return new Constant(Integer.parseInt(parts[1]));
+			}
+			if (parts[0].equals("uniform") && parts.length == 3) {
+				return new Uniform(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+			}
+			if (parts[0].equals("lognormal") && parts.length == 3) {
+				return new LogNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+			}
+			if (parts[0].equals("hist") && parts.length == 2) {
+				String[] bins = parts[1].split(",");
+				int[] steps = new int[bins.length];
+				double[] weights = new double[bins.length];
+				for (int i = 0; i < bins.length; i++) {
+					String[] bin = bins[i].split("=");
+					if (bin.length != 2) {
+						throw new IllegalArgumentException("Invalid histogram bin: " + bins[i]);
+					}
+					steps[i] = Integer.parseInt(bin[0].trim());
+					weights[i] = Double.parseDouble(bin[1].trim());
+				}
+				return new Empirical(steps, weights);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number in latency distribution: " + spec);
+		}
+		throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+	}
+
+	/**
+	 * Always the same latency.
+	 */
+	public static class Constant extends LatencyModel {
+		private static final long serialVersionUID = 1174060731907580507L;
+
+		private final int steps;
+
+		public Constant(int steps) {
+			if (steps < 1) {
+				throw new IllegalArgumentException("Latency must be at least 1 step");
+			}
+			this.steps = steps;
+		}
+
+		@Override
+		public int sample(Random rng) {
+			return steps;
+		}
+
+		@Override
+		public String toString() {
+			return "const:" + steps;
+		}
+	}
+
+	/**
+	 * Uniformly distributed latencies between two bounds, inclusive.
+	 */
+	public static class Uniform extends LatencyModel {
+		private static final long serialVersionUID = -2794237687742159779L;
+
+		private final int min;
+		private final int max;
+
+		public Uniform(int min, int max) {
+			if (min < 1 || max < min) {
+				throw new IllegalArgumentException("Invalid uniform latency bounds: " + min + ", " + max);
+			}
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public int sample(Random rng) {
+			return min + rng.nextInt(max - min + 1);
+		}
+
+		@Override
+		public String toString() {
+			return "uniform:" + min + ":" + max;
+		}
+	}
+
+	/**
+	 * Log-normally distributed latencies, rounded to the nearest step.
+	 */
+	public static class LogNormal extends LatencyModel {
+		private static final long serialVersionUID = 8702886638389010324L;
+
+		private final double median;
+		private final double sigma;
+
+		public LogNormal(double median, double sigma) {
+			if (median <= 0 || sigma < 0) {
+				throw new IllegalArgumentException("Invalid lognormal latency parameters: " + median
+						+ ", " + sigma);
+			}
+			this.median = median;
+			this.sigma = sigma;
+		}
+
+		@Override
+		public int sample(Random rng) {
+			double steps = median * Math.exp(sigma * rng.nextGaussian());
+			return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(steps)));
+		}
+
+		@Override
+		public String toString() {
+			return "lognormal:" + median + ":" + sigma;
+		}
+	}
+
+	/**
+	 * Latencies drawn from an empirical histogram. Named so as not to clash
+	 * with the Histogram of measured values in this package.
+	 */
+	public static class Empirical extends LatencyModel {
+		private static final long serialVersionUID = -2355781269974178207L;
+
+		private final int[] steps;
+		// cumulative weights, same order as steps
+		private final double[] cumulative;
+
+		public Empirical(int[] steps, double[] weights) {
+			if (steps.length == 0 || steps.length != weights.length) {
+				throw new IllegalArgumentException("Empirical distribution needs one weight per latency");
+			}
+			this.steps = steps.clone();
+			this.cumulative = new double[weights.length];
+
+			double total = 0;
+			for (int i = 0; i < steps.length; i++) {
+				if (steps[i] < 1 || weights[i] < 0) {
+					throw new IllegalArgumentException("Invalid histogram bin: " + steps[i] + "="
+							+ weights[i]);
+				}
+				total += weights[i];
+				cumulative[i] = total;
+			}
+			if (total <= 0) {
+				throw new IllegalArgumentException("Empirical distribution weights must not all be 0");
+			}
+		}
+
+		@Override
+		public int sample(Random rng) {
+			double r = rng.nextDouble() * cumulative[cumulative.length - 1];
+			// find the first bin whose cumulative weight is above r
+			int lo = 0;
+			int hi = cumulative.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cumulative[mid] > r) {
+					hi = mid;
+				} else {
+					lo = mid + 1;
+				}
+			}
+			return steps[lo];
+		}
+
+		@Override
+		public String toString() {
+			StringBuffer sb = new StringBuffer("hist:");
+			double last = 0;
+			for (int i = 0; i < steps.length; i++) {
+				if (i != 0) {
+					sb.append(",");
+				}
+				sb.append(steps[i] + "=" + (cumulative[i] - last));
+				last = cumulative[i];
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+
+/**
+ * <pre>
+ * Capacity model for the directed links between nodes. Every link can carry a
+ * limited number of bytes per time step. A link sends its packets one after the
+ * other, so a packet that does not fit in what is left of the current step
+ * waits in the link's queue, and a packet that is larger than the capacity
+ * takes several steps to get onto the wire. The extra steps are added to the
+ * packet's latency.
+ *
+ * A capacity of 0 means that the link is unlimited, which is the behavior of a
+ * simulator without a bandwidth model.
+ *
+ * The per-link capacities are read from a file with one link per line:
+ *	src dest bytesPerStep
+ * where src or dest can be * to match every address, see LinkFile.
+ * </pre>
+ */
+class LinkBandwidths {
+	private static final int NUM_ADDRESSES = Manager.MAX_ADDRESS + 1;
+
+	// bytes per step, indexed by src * NUM_ADDRESSES + dest. null if every
+	// link is unlimited
+	private int[] capacity;
+
+	// the per-link state below is only allocated when some link is limited
+
+	// the time, in fractional steps, at which the link is done sending
+	// everything that is queued on it
+	private double[] freeAt;
+	// the number of steps the link has spent sending
+	private double[] busySteps;
+	private long[] bytesSent;
+	private long[] packetsSent;
+	private long[] peakBacklog;
+
+	LinkBandwidths(int defaultCapacity) {
+		if (defaultCapacity < 0) {
+			throw new IllegalArgumentException("Bandwidth must not be negative: " + defaultCapacity);
+		}
+		if (defaultCapacity > 0) {
+			set(-1, -1, defaultCapacity);
+		}
+	}
+
+	/**
+	 * Build the bandwidth model from the command line options.
+	 *
+	 * @param defaultCapacity
+	 *            The capacity of the links that are not in the file, in bytes
+	 *            per step. 0 for unlimited
+	 * @param filename
+	 *            The per-link capacity file, or "" for none
+	 * @return The bandwidth model
+	 * @throws IllegalArgumentException
+	 *             If a capacity is invalid
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	static LinkBandwidths fromOptions(int defaultCapacity, String filename)
+			throws IllegalArgumentException, IOException {
+		LinkBandwidths bandwidths = new LinkBandwidths(defaultCapacity);
+		if (filename != null && !filename.equals("")) {
+			bandwidths.load(filename);
+		}
+		return bandwidths;
+	}
+
+	/**
+	 * @return true if at least one link has a limited capacity
+	 */
+	boolean isLimited() {
+		return capacity != null;
+	}
+
+	/**
+	 * Set the capacity of a link.
+	 *
+	 * @param src
+	 *            The source address, or -1 for every source
+	 * @param dest
+	 *            The destination address, or -1 for every destination
+	 * @param bytesPerStep
+	 *            The capacity, or 0 for unlimited
+	 */
+	void set(int src, int dest, int bytesPerStep) {
+		if (capacity == null) {
+			if (bytesPerStep == 0) {
+				return;
+			}
+			int numLinks = NUM_ADDRESSES * NUM_ADDRESSES;
+			capacity = new int[numLinks];
+			freeAt = new double[numLinks];
+			busySteps = new double[numLinks];
+			bytesSent = new long[numLinks];
+			packetsSent = new long[numLinks];
+			peakBacklog = new long[numLinks];
+		}
+
+		int srcLo = (src < 0) ? 0 : src;
+		int srcHi = (src < 0) ? NUM_ADDRESSES - 1 : src;
+		int destLo = (dest < 0) ? 0 : dest;
+		int destHi = (dest < 0) ? NUM_ADDRESSES - 1 : dest;
+
+		for (int s = srcLo; s <= srcHi; s++) {
+			for (int d = destLo; d <= destHi; d++) {
+				capacity[s * NUM_ADDRESSES + d] = bytesPerStep;
+			}
+		}
+	}
+
+	/**
+	 * Queue a packet on its link.
+	 *
+	 * @param src
+	 *            The sender of the packet
+	 * @param dest
+	 *            The recipient of the packet
+	 * @param bytes
+	 *            The size of the packet, header included
+	 * @param now
+	 *            The time step in which the packet is sent
+	 * @return How many steps the packet is held up by the link on top of its
+	 *         latency
+	 */
+	int transmit(int src, int dest, int bytes, long now) {
+		if (capacity == null) {
+			return 0;
+		}
+		int link = src * NUM_ADDRESSES + dest;
+		int cap = capacity[link];
+		if (cap == 0) {
+			return 0;
+		}
+
+		double start = Math.max(now, freeAt[link]);
+		long backlog = (long) ((start - now) * cap) + bytes;
+		if (backlog > peakBacklog[link]) {
+			peakBacklog[link] = backlog;
+		}
+
+		double duration = (double) bytes / cap;
+		freeAt[link] = start + duration;
+		busySteps[link] += duration;
+		bytesSent[link] += bytes;
+		packetsSent[link]++;
+
+		// a packet that is done sending within the current step is not held up
+		return (int) Math.max(0, Math.ceil(freeAt[link] - now) - 1);
+	}
+
+	/**
+	 * @return The number of bytes that are queued on the link src->dest at
+	 *         time step now and have not been sent yet
+	 */
+	long backlog(int src, int dest, long now) {
+		if (capacity == null) {
+			return 0;
+		}
+		int link = src * NUM_ADDRESSES + dest;
+		return (long) (Math.max(0, freeAt[link] - now) * capacity[link]);
+	}
+
+	/**
+	 * Summarize how the limited links were used.
+	 *
+	 * @param now
+	 *            The time step at which the run ends
+	 * @return One line per limited link that carried traffic, or "" if no
+	 *         link is limited
+	 */
+	String report(long now) {
+		if (capacity == null) {
+			return "";
+		}
+		long elapsed = Math.max(1, now);
+		StringBuffer sb = new StringBuffer("Link bandwidth usage:");
+		for (int link = 0; link < capacity.length; link++) {
+			if (capacity[link] == 0 || packetsSent[link] == 0) {
+				continue;
+			}
+			double utilization = Math.min(busySteps[link], elapsed) / elapsed;
+			sb.append("\n" + (link / NUM_ADDRESSES) + "->" + (link % NUM_ADDRESSES) + ": "
+					+ packetsSent[link] + " packets, " + bytesSent[link] + " bytes, capacity "
+					+ capacity[link] + " bytes/step, peak backlog " + peakBacklog[link]
+					+ " bytes, utilization " + Math.round(utilization * 1000) / 10.0 + "%");
+		}
+		return sb.toString();
+	}
+
+	private void load(String filename) throws IOException {
+		new LinkFile<Integer>("bytesPerStep") {
+			@Override
+			Integer parse(String field) {
+				int bytesPerStep;
+				try {
+					bytesPerStep = Integer.parseInt(field);
+				} catch (NumberFormatException e) {
+					bytesPerStep = -1;
+				}
+				if (bytesPerStep < 0) {
+					throw new IllegalArgumentException("invalid bandwidth " + field);
+				}
+				return bytesPerStep;
+			}
+
+			@Override
+			void set(int src, int dest, Integer bytesPerStep) {
+				LinkBandwidths.this.set(src, dest, bytesPerStep);
+			}
+		}.read(filename);
+	}
+}
@@ -0,0 +1,110 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * <pre>
+ * Reader of the per-link files of the simulator options, such as latencyFile
+ * and bandwidthFile. Every file has one link per line:
+ *	src dest value
+ * where src or dest can be * to match every address. Lines starting with // or
+ * # are ignored. Subclasses parse the value and apply it to the link, in the
+ * order of the lines, so later lines override earlier ones.
+ * </pre>
+ *
+ * @param <T>
+ *            The type of the value of a link
+ */
+abstract class LinkFile<T> {
+	// what the value is, such as "distribution", for the errors
+	private final String valueName;
+
+	/**
+	 * @param valueName
+	 *            What the value of a link is, such as "distribution", for the
+	 *            errors
+	 */
+	LinkFile(String valueName) {
+		this.valueName = valueName;
+	}
+
+	/**
+	 * Parse the value field of a line.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the value is invalid. The file and line are added to the
+	 *             message
+	 */
+	abstract T parse(String field) throws IllegalArgumentException;
+
+	/**
+	 * Apply the value of a line to its links.
+	 *
+	 * @param src
+	 *            The source address, or -1 for every source
+	 * @param dest
+	 *            The destination address, or -1 for every destination
+	 */
+	abstract void set(int src, int dest, T value);
+
+	/**
+	 * Read the file and apply every line of it.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If a line is invalid
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	void read(String filename) throws IllegalArgumentException, IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(filename));
+		try {
+			String line;
+			int lineNum = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.equals("") || line.startsWith("//") || line.startsWith("#")) {
+					continue;
+				}
+
+				String where = filename + ":" + lineNum + ": ";
+				String[] fields = line.split("\\s+");
+				if (fields.length != 3) {
+					throw new IllegalArgumentException(where + "expected 'src dest " + valueName
+							+ "'");
+				}
+				int src = parseAddr(fields[0], where);
+				int dest = parseAddr(fields[1], where);
+				T value;
+				try {
+					value = parse(fields[2]);
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(where + e.getMessage());
+				}
+				set(src, dest, value);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Parse an address field. * stands for every address and is returned as
+	 * -1.
+	 */
+	private static int parseAddr(String field, String where) {
+		if (field.equals("*")) {
+			return -1;
+		}
+		try {
+			int addr = Integer.parseInt(field);
+			if (Packet.validAddress(addr)) {
+				return addr;
+			}
+		} catch (NumberFormatException e) {
+		}
+		throw new IllegalArgumentException(where + "invalid address " + field);
+	}
+}
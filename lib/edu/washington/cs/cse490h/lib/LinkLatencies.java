@@ -0,0 +1,115 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * <pre>
+ * Matrix of latency distributions, one per directed link. Links that are not
+ * given a distribution of their own use the default one.
+ *
+ * The per-link distributions are read from a file with one link per line:
+ *	src dest distribution
+ * where src or dest can be * to match every address, and distribution is in
+ * the format understood by LatencyModel.parse(), see LinkFile.
+ * </pre>
+ */
+class LinkLatencies {
+	private static final int NUM_ADDRESSES = Manager.MAX_ADDRESS + 1;
+
+	private final LatencyModel defaultModel;
+	// rows are allocated the first time a link out of src is configured
+	private final LatencyModel[][] links;
+
+	LinkLatencies(LatencyModel defaultModel) {
+		this.defaultModel = defaultModel;
+		this.links = new LatencyModel[NUM_ADDRESSES][];
+	}
+
+	/**
+	 * Build the latency matrix from the command line options.
+	 *
+	 * @param defaultSpec
+	 *            The distribution for links that are not in the file
+	 * @param filename
+	 *            The per-link distribution file, or "" for none
+	 * @return The latency matrix
+	 * @throws IllegalArgumentException
+	 *             If a distribution is invalid
+	 * @throws IOException
+	 *             If the file cannot be read
+	 */
+	static LinkLatencies fromOptions(String defaultSpec, String filename)
+			throws IllegalArgumentException, IOException {
+		LatencyModel defaultModel = LatencyModel.DEFAULT;
+		if (defaultSpec != null && !defaultSpec.equals("")) {
+			defaultModel = LatencyModel.parse(defaultSpec);
+		}
+
+		LinkLatencies latencies = new LinkLatencies(defaultModel);
+		if (filename != null && !filename.equals("")) {
+			latencies.load(filename);
+		}
+		return latencies;
+	}
+
+	/**
+	 * Set the distribution of a link.
+	 *
+	 * @param src
+	 *            The source address, or -1 for every source
+	 * @param dest
+	 *            The destination address, or -1 for every destination
+	 * @param model
+	 *            The distribution
+	 */
+	void set(int src, int dest, LatencyModel model) {
+		int srcLo = (src < 0) ? 0 : src;
+		int srcHi = (src < 0) ? NUM_ADDRESSES - 1 : src;
+		int destLo = (dest < 0) ? 0 : dest;
+		int destHi = (dest < 0) ? NUM_ADDRESSES - 1 : dest;
+
+		for (int s = srcLo; s <= srcHi; s++) {
+			if (links[s] == null) {
+				links[s] = new LatencyModel[NUM_ADDRESSES];
+			}
+			for (int d = destLo; d <= destHi; d++) {
+				links[s][d] = model;
+			}
+		}
+	}
+
+	/**
+	 * Get the distribution of a link.
+	 */
+	LatencyModel get(int src, int dest) {
+		LatencyModel[] row = links[src];
+		if (row == null || row[dest] == null) {
+			return defaultModel;
+		}
+		return row[dest];
+	}
+
+	/**
+	 * Draw the latency of a packet on a link.
+	 *
+	 * @return The latency, in time steps
+	 */
+	int sample(int src, int dest, Random rng) {
+		return get(src, dest).sample(rng);
+	}
+
+	private void load(String filename) throws IOException {
+		new LinkFile<LatencyModel>("distribution") {
+			@Override
+			LatencyModel parse(String field) {
+				return LatencyModel.parse(field);
+			}
+
+			@Override
+			void set(int src, int dest, LatencyModel model) {
+				LinkLatencies.this.set(src, dest, model);
+			}
+		}.read(filename);
+	}
+}
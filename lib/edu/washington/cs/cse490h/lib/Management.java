@@ -0,0 +1,117 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.lang.management.ManagementFactory;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <pre>
+ * JMX support for the Router and the Emulator. They register their beans in
+ * the platform MBean server under the domain edu.washington.cs.cse490h, so
+ * that jconsole or any other JMX client can watch a running process:
+ *
+ *   edu.washington.cs.cse490h:type=Router
+ *   edu.washington.cs.cse490h:type=Router,node=N   (one per address)
+ *   edu.washington.cs.cse490h:type=Emulator
+ *
+ * Local clients attach to the process directly. For remote ones, start the
+ * JVM with -Dcom.sun.management.jmxremote.port=... as usual.
+ *
+ * Also holds the log level of the process, which decides how much of the
+ * per-packet and per-step output is printed. It can be changed through the
+ * beans while the process runs.
+ * </pre>
+ */
+public final class Management {
+	public static final String DOMAIN = "edu.washington.cs.cse490h";
+
+	// how often the throughput rates are computed, in milliseconds
+	private static final long SAMPLE_PERIOD = 1000;
+
+	private static volatile Level logLevel = Level.ALL;
+
+	private static final CopyOnWriteArrayList<Throughput> sampled = new CopyOnWriteArrayList<Throughput>();
+	private static Timer sampler = null;
+
+	private Management() {
+	}
+
+	/**
+	 * Register a bean. Failures are printed and otherwise ignored, since the
+	 * process works fine without its beans.
+	 *
+	 * @param properties
+	 *            The key properties of the name, such as "type=Router"
+	 */
+	public static void register(String properties, Object bean) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(bean, name);
+		} catch (JMException e) {
+			System.err.println("Could not register management bean " + properties + ": " + e);
+		}
+	}
+
+	/**
+	 * Keep the rates of a throughput up to date, until the process exits.
+	 */
+	public static synchronized void sample(Throughput t) {
+		sampled.add(t);
+		if (sampler == null) {
+			sampler = new Timer("throughput sampler", true);
+			sampler.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					for (Throughput t : sampled) {
+						t.sample();
+					}
+				}
+			}, SAMPLE_PERIOD, SAMPLE_PERIOD);
+		}
+	}
+
+	/**
+	 * @return The name of the current log level
+	 */
+	public static String getLogLevel() {
+		return logLevel.getName();
+	}
+
+	/**
+	 * @param level
+	 *            A java.util.logging level name, such as INFO or FINE. INFO
+	 *            keeps connections and failures but hides each packet. ALL is
+	 *            the default
+	 * @throws IllegalArgumentException
+	 *             If the level is not a known level
+	 */
+	public static void setLogLevel(String level) {
+		logLevel = Level.parse(level.trim().toUpperCase());
+	}
+
+	/**
+	 * @return Whether output at this level should be printed
+	 */
+	public static boolean isLogged(Level level) {
+		return level.intValue() >= logLevel.intValue();
+	}
+
+	/**
+	 * Print a line to standard out if its level is logged.
+	 */
+	public static void log(Level level, String msg) {
+		if (isLogged(level)) {
+			System.out.println(msg);
+		}
+	}
+}
@@ -1,13 +1,14 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
  * Abstract class defining generic routines for running network code under the
@@ -31,13 +32,40 @@ public abstract class Manager {
     protected HashMap<Integer, VectorTime> vtimes;
 
     private int pktsSent;
-    protected ArrayList<Event> sortedEvents;
+    protected EventSource commandEvents; // events of the command script
     protected ArrayList<Timeout> waitingTOs;
-    protected ArrayList<Packet> inTransitMsgs;
+    protected InTransitBuffer inTransitMsgs;
     protected CommandsParser parser; // parser for commands file
 
     protected SynopticLogger synPartialOrderLogger = new SynopticLogger();
 
+    // performance of the operations that the nodes report
+    protected OperationStats operations = new OperationStats();
+
+    // Maps: node addr -> metrics of the node, see Node.metrics()
+    private HashMap<Integer, MetricsRegistry> metrics;
+
+    // binary event trace, null if there is none, see the traceFile option
+    protected TraceWriter trace = null;
+    // trace number of the event that the nodes are handling, 0 if none
+    protected long traceCause = 0;
+    // Maps: operation id -> trace number of its OP_BEGIN
+    private HashMap<Integer, Long> tracedOperations;
+
+    // the per-protocol packet counters, see countPacket
+    protected static final int PACKETS_SENT = 0;
+    protected static final int PACKETS_RECEIVED = 1;
+    protected static final int PACKETS_DROPPED = 2;
+    protected static final int PACKETS_DELAYED = 3;
+    // names of the packet counters, indexed by the counter and then by the
+    // protocol as it goes over the wire
+    private static final String[][] PACKET_COUNTER_NAMES = {
+            packetCounterNames("sent"), packetCounterNames("received"),
+            packetCounterNames("dropped"), packetCounterNames("delayed") };
+    // the packet counters looked up so far, indexed like the names after the
+    // node addr. Kept next to the metrics, which own the counters
+    private MetricsRegistry.Counter[][][] packetCounters;
+
     protected FailureLvl userControl;
 
     protected enum FailureLvl {
@@ -58,10 +86,15 @@ public abstract class Manager {
     /**
      * Class representing a timeout
      */
-    protected class Timeout {
+    protected static class Timeout implements Serializable {
+        private static final long serialVersionUID = -3605981229377400129L;
+
         protected Node node;
         protected long fireTime;
         protected Callback cb;
+        // trace number of the event during which the timeout was set, not
+        // part of a checkpoint
+        protected transient long traceCause;
 
         protected Timeout(Node node, long fireTime, Callback cb) {
             this.node = node;
@@ -99,8 +132,10 @@ public abstract class Manager {
             String replayOutputFilename, String replayInputFilename)
             throws IllegalArgumentException, IOException {
         pktsSent = 0;
+        metrics = new HashMap<Integer, MetricsRegistry>();
+        packetCounters = new MetricsRegistry.Counter[PACKET_COUNTER_NAMES.length][MAX_ADDRESS + 1][];
         waitingTOs = new ArrayList<Timeout>();
-        inTransitMsgs = new ArrayList<Packet>();
+        inTransitMsgs = new InTransitBuffer();
         parser = null;
 
         this.nodeImpl = nodeImpl;
@@ -126,22 +161,16 @@ public abstract class Manager {
         Replay.parent = this;
 
         if (!replayOutputFilename.equals("")) {
-            // initialize the replay output file
             File f = new File(replayOutputFilename);
             if (f.exists()) {
                 throw new IllegalArgumentException(
                         "Replay output file already exists");
             }
-            Replay.replayOut = new DataOutputStream(new FileOutputStream(
-                    replayOutputFilename));
-        } else {
-            Replay.replayOut = null;
         }
 
         if (!replayInputFilename.equals("")) {
             // initialize the replay input file and grab the old seed
-            this.seed = Replay.init(new DataInputStream(new FileInputStream(
-                    replayInputFilename)), true);
+            this.seed = Replay.init(replayInputFilename, true);
         } else {
             // make a new seed and initialize keyboard input
             Replay.init(null, false);
@@ -152,8 +181,13 @@ public abstract class Manager {
             }
         }
 
-        if (Replay.replayOut != null) {
-            Replay.replayOut.writeLong(this.seed);
+        if (!replayOutputFilename.equals("")) {
+            // initialize the replay output file, which starts with the seed
+            Replay.replayOut = new ReplayRecorder(replayOutputFilename,
+                    this.seed, MessageLayer.replayCompact,
+                    MessageLayer.replayIndexInterval);
+        } else {
+            Replay.replayOut = null;
         }
     }
 
@@ -181,9 +215,227 @@ public abstract class Manager {
      */
     protected void stop() {
         System.out.println(stopString());
+        Replay.close();
+        writeBenchmarkResults();
+        writeMetrics(MessageLayer.metricsFile);
         System.exit(0);
     }
 
+    /**
+     * Write the performance of the operations that the nodes reported to the
+     * benchmark file, if one was given with the benchmarkFile option.
+     */
+    protected void writeBenchmarkResults() {
+        if (MessageLayer.benchmarkFile.equals("")) {
+            return;
+        }
+        LinkedHashMap<String, String> header = new LinkedHashMap<String, String>();
+        header.put("node", OperationStats.quote(nodeImpl.getName()));
+        header.put("seed", String.valueOf(seed));
+        header.put("packetsSent", String.valueOf(pktsSent));
+        try {
+            operations.writeJson(MessageLayer.benchmarkFile, header, now());
+        } catch (IOException e) {
+            System.err.println("Could not write benchmark results to "
+                    + MessageLayer.benchmarkFile + ": " + e);
+        }
+    }
+
+    /**
+     * Dump the metrics of all nodes as JSON. Does nothing if the filename is
+     * empty.
+     * 
+     * @param filename
+     *            The file to write to, or null to print to standard out
+     */
+    protected void writeMetrics(String filename) {
+        if (filename != null && filename.equals("")) {
+            return;
+        }
+        StringBuffer sb = new StringBuffer("{\n");
+        sb.append("  \"node\": " + OperationStats.quote(nodeImpl.getName()) + ",\n");
+        sb.append("  \"seed\": " + seed + ",\n");
+        sb.append("  \"time\": " + now() + ",\n");
+        sb.append("  \"packetsSent\": " + pktsSent + ",\n");
+        sb.append("  \"nodes\": {");
+        String sep = "\n";
+        for (int addr = 0; addr <= MAX_ADDRESS; addr++) {
+            MetricsRegistry m = metrics.get(addr);
+            if (m != null && !m.isEmpty()) {
+                sb.append(sep + "    \"" + addr + "\": " + m.toJson("    "));
+                sep = ",\n";
+            }
+        }
+        sb.append("\n  }\n}\n");
+
+        if (filename == null) {
+            System.out.print(sb);
+            return;
+        }
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(filename));
+            out.print(sb);
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Could not write metrics to " + filename + ": "
+                    + e);
+        }
+    }
+
+    /**
+     * @return The metrics of the node at the given address
+     */
+    MetricsRegistry metricsFor(int addr) {
+        MetricsRegistry m = metrics.get(addr);
+        if (m == null) {
+            m = new MetricsRegistry();
+            metrics.put(addr, m);
+        }
+        return m;
+    }
+
+    /**
+     * Put the state of the manager in a checkpoint, see Checkpoint.
+     */
+    void saveCheckpoint(Checkpoint cp) {
+        cp.seed = seed;
+        cp.time = now();
+        cp.nodeClass = nodeImpl.getName();
+        cp.pktsSent = pktsSent;
+        cp.vtimes = vtimes;
+        cp.waitingTOs = waitingTOs;
+        cp.inTransitMsgs = inTransitMsgs;
+        cp.rng = Utility.randNumGen;
+        cp.operations = operations;
+        cp.metrics = metrics;
+    }
+
+    /**
+     * Take the state of the manager from a checkpoint. The nodes of the
+     * checkpoint still have to be attached to this manager. The time and the
+     * random number generator are left to the caller.
+     *
+     * @throws IllegalArgumentException
+     *             If the checkpoint is of another node class
+     */
+    void restoreCheckpoint(Checkpoint cp) throws IllegalArgumentException {
+        if (!cp.nodeClass.equals(nodeImpl.getName())) {
+            throw new IllegalArgumentException("The checkpoint is of "
+                    + cp.nodeClass + " nodes, not " + nodeImpl.getName());
+        }
+        pktsSent = cp.pktsSent;
+        vtimes = cp.vtimes;
+        waitingTOs = cp.waitingTOs;
+        inTransitMsgs = cp.inTransitMsgs;
+        operations = cp.operations;
+        metrics = cp.metrics;
+        packetCounters = new MetricsRegistry.Counter[PACKET_COUNTER_NAMES.length][MAX_ADDRESS + 1][];
+    }
+
+    /**
+     * Count a packet in one of the per-protocol packet counters of a node. A
+     * counter is only looked up by name the first time, the way
+     * ReliableInOrderMsgLayer does, so it still only shows up in the metrics
+     * once a packet is counted in it.
+     * 
+     * @param kind
+     *            The counter, such as PACKETS_SENT
+     * @param addr
+     *            The address of the node to count the packet for
+     * @param protocol
+     *            The protocol of the packet
+     */
+    protected void countPacket(int kind, int addr, int protocol) {
+        MetricsRegistry.Counter[] counters = packetCounters[kind][addr];
+        if (counters == null) {
+            counters = new MetricsRegistry.Counter[PACKET_COUNTER_NAMES[kind].length];
+            packetCounters[kind][addr] = counters;
+        }
+        int i = protocol & 0xff;
+        if (counters[i] == null) {
+            counters[i] = metricsFor(addr).counter(PACKET_COUNTER_NAMES[kind][i]);
+        }
+        counters[i].inc();
+    }
+
+    private static String[] packetCounterNames(String what) {
+        String[] names = new String[256];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "packets." + what + "." + i;
+        }
+        return names;
+    }
+
+    /**
+     * Called by a node that starts an operation, see Node.beginOperation.
+     * 
+     * @return The id of the operation
+     */
+    int beginOperation(Node node, String name) {
+        int operation = operations.begin(name, now(), pktsSent);
+        if (trace != null) {
+            tracedOperations.put(operation, trace.beginOperation(node.addr,
+                    now(), traceCause, name));
+        }
+        return operation;
+    }
+
+    /**
+     * Called by a node that is done with an operation, see Node.endOperation.
+     */
+    void endOperation(Node node, int operation, boolean succeeded) {
+        operations.end(operation, succeeded, now(), pktsSent);
+        if (trace != null) {
+            Long begin = tracedOperations.remove(operation);
+            if (begin != null) {
+                trace.endOperation(node.addr, now(), traceCause, begin,
+                        succeeded);
+            }
+        }
+    }
+
+    /**
+     * Open the trace file given by the traceFile option, if any.
+     */
+    protected void startTrace() {
+        if (MessageLayer.traceFile.equals("")) {
+            return;
+        }
+        try {
+            trace = new TraceWriter(MessageLayer.traceFile);
+            tracedOperations = new HashMap<Integer, Long>();
+        } catch (IOException e) {
+            System.err.println("Warning: unable to open trace file '"
+                    + MessageLayer.traceFile + "' for writing: " + e);
+        }
+    }
+
+    /**
+     * Write out the rest of the trace and close it.
+     */
+    protected void stopTrace() {
+        if (trace != null) {
+            trace.close();
+            trace = null;
+        }
+    }
+
+    /**
+     * Write an event to the trace.
+     * 
+     * @param type
+     *            One of the event types of TraceWriter
+     * @param parent
+     *            The trace number of the event that caused this one
+     * @return The trace number of the event, or 0 if there is no trace
+     */
+    protected long traceEvent(int type, int node, long parent) {
+        if (trace == null) {
+            return 0;
+        }
+        return trace.event(type, node, now(), parent);
+    }
+
     /**
      * Create a packet and put it on the channel. Crashes in the middle of a
      * broadcast can be modeled by a post-send crash, plus a sequence of dropped
@@ -210,6 +462,8 @@ public abstract class Manager {
                     "Either pkt is not valid, address is not valid, or TTL is not valid");
         }
         pktsSent++;
+        countPacket(PACKETS_SENT, from, protocol);
+        FlightEvents.packetSent(from, to, protocol, payload.length);
     }
 
     /**
@@ -222,6 +476,29 @@ public abstract class Manager {
         this.parser = parser;
     }
 
+    /**
+     * Open the command script: the command generator if one is set with the
+     * commandGenerator option, the command file otherwise.
+     * 
+     * @param fileParser
+     *            The parser for the lines of the script
+     * @param commandFile
+     *            The command file
+     * @return The events of the script
+     * @throws IllegalArgumentException
+     *             If the command generator cannot be instantiated
+     * @throws FileNotFoundException
+     *             If the command file does not exist
+     */
+    protected EventSource openCommands(CommandsParser fileParser,
+            String commandFile) throws IllegalArgumentException,
+            FileNotFoundException {
+        if (!MessageLayer.commandGenerator.equals("")) {
+            return fileParser.parseGenerator(MessageLayer.commandGenerator);
+        }
+        return fileParser.parseFile(commandFile);
+    }
+
     /**
      * Add a timer interrupt that will execute in a particular timestep.
      * 
@@ -233,7 +510,11 @@ public abstract class Manager {
      *            The callback to call when the timer fires
      */
     protected void addTimeout(Node node, long timeout, Callback cb) {
-        waitingTOs.add(new Timeout(node, now() + timeout, cb));
+        // a node that is still waiting on storage sets its timers from the
+        // time its storage operations complete
+        Timeout to = new Timeout(node, now() + node.drift + timeout, cb);
+        to.traceCause = traceCause;
+        waitingTOs.add(to);
     }
 
     /**
@@ -265,6 +546,10 @@ public abstract class Manager {
      */
     protected void setTime(long time) {
         this.time = time;
+        // the replay output is forced to disk between time steps
+        if (Replay.replayOut != null) {
+            Replay.replayOut.endStep(time);
+        }
     }
 
     /**
@@ -275,8 +560,11 @@ public abstract class Manager {
      *            The node that is trying to write
      * @param description
      *            The description of the write
+     * @param bytes
+     *            The number of bytes written
      */
-    protected abstract void storageWriteEvent(Node node, String description);
+    protected abstract void storageWriteEvent(Node node, String description,
+            int bytes);
 
     /**
      * Triggered whenever the node attempts to read from the local storage
@@ -286,8 +574,21 @@ public abstract class Manager {
      *            The node that is trying to read
      * @param description
      *            The description of the read
+     * @param bytes
+     *            The number of bytes read
      */
-    protected abstract void storageReadEvent(Node node, String description);
+    protected abstract void storageReadEvent(Node node, String description,
+            int bytes);
+
+    /**
+     * Whether any synoptic log is being written. Building event strings can be
+     * skipped when this is false.
+     * 
+     * @return true if logged events end up in a log
+     */
+    protected boolean isSynopticLogging() {
+        return synPartialOrderLogger.isActive();
+    }
 
     /**
      * Logs an event string for a node to synoptic partial log without a node
@@ -300,12 +601,16 @@ public abstract class Manager {
      *            the event string
      */
     protected void logEvent(Node node, String eventStr) {
+        if (!synPartialOrderLogger.isActive()) {
+            // vector times are only kept for the partial order log
+            return;
+        }
         // step() comes before logging because on communication, we've updated
         // the destination vtime to be at least the source, but it needs to be
         // strictly greater than the source.
         int nodeAddr = node.addr;
         VectorTime vtime = vtimes.get(nodeAddr);
         vtime.step(nodeAddr);
-        synPartialOrderLogger.logEvent("" + vtime.toString(), eventStr);
+        synPartialOrderLogger.logEvent(vtime.toString(), eventStr);
     }
 }
@@ -0,0 +1,103 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream that reads a file through a memory-mapped window, and can
+ * seek anywhere in the file. The window moves along as the stream is read, so
+ * that files of any size can be read.
+ */
+class MappedFileInputStream extends InputStream {
+	private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long size;
+
+	private MappedByteBuffer window;
+	// file offset of the start of the window
+	private long windowStart;
+
+	public MappedFileInputStream(String filename) throws IOException {
+		file = new RandomAccessFile(filename, "r");
+		channel = file.getChannel();
+		size = channel.size();
+		map(0);
+	}
+
+	/**
+	 * @return The offset in the file of the next byte read
+	 */
+	public long position() {
+		return windowStart + window.position();
+	}
+
+	/**
+	 * Continue reading at an offset in the file.
+	 */
+	public void seek(long offset) throws IOException {
+		if (offset < 0 || offset > size) {
+			throw new IOException("Offset " + offset + " is outside of the file");
+		}
+		if (offset >= windowStart && offset <= windowStart + window.limit()) {
+			window.position((int) (offset - windowStart));
+		} else {
+			map(offset);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!window.hasRemaining() && !next()) {
+			return -1;
+		}
+		return window.get() & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!window.hasRemaining() && !next()) {
+			return -1;
+		}
+		len = Math.min(len, window.remaining());
+		window.get(b, off, len);
+		return len;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, size - position());
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Move the window past its end.
+	 *
+	 * @return false if the file is at its end
+	 */
+	private boolean next() throws IOException {
+		long end = windowStart + window.limit();
+		if (end >= size) {
+			return false;
+		}
+		map(end);
+		return true;
+	}
+
+	private void map(long offset) throws IOException {
+		windowStart = offset;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+				Math.min(WINDOW_SIZE, size - offset));
+	}
+}
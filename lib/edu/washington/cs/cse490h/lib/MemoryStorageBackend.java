@@ -0,0 +1,163 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Storage backend that keeps the files of every node in memory, so that large
+ * simulations do not hit the filesystem and leave nothing behind.
+ *
+ * Output streams buffer what is written and only commit it to the file when
+ * they are flushed or closed. When a node crashes, all of its open streams are
+ * invalidated and whatever they had not committed yet is lost, like data that
+ * never made it out of a process's buffers.
+ */
+class MemoryStorageBackend extends StorageBackend {
+
+    /**
+     * The committed contents of a file. Only ever grows, so a reader can share
+     * the array with later appends.
+     */
+    private static class MemoryFile {
+        byte[] data = new byte[0];
+        int length = 0;
+
+        void append(byte[] b, int off, int len) {
+            if (length + len > data.length) {
+                byte[] bigger = new byte[Math.max(length + len,
+                        data.length * 2)];
+                System.arraycopy(data, 0, bigger, 0, length);
+                data = bigger;
+            }
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+        }
+    }
+
+    /**
+     * Output stream that commits to its file on flush. It stops committing
+     * once its node has crashed.
+     */
+    private class MemoryOutputStream extends OutputStream {
+        private final int nodeAddr;
+        private final MemoryFile file;
+        private final int generation;
+        private byte[] buf = new byte[64];
+        private int count = 0;
+
+        MemoryOutputStream(int nodeAddr, MemoryFile file) {
+            this.nodeAddr = nodeAddr;
+            this.file = file;
+            this.generation = generation(nodeAddr);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+            if (generation == generation(nodeAddr)) {
+                file.append(buf, 0, count);
+            }
+            count = 0;
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        private void ensureCapacity(int len) {
+            if (count + len > buf.length) {
+                byte[] bigger = new byte[Math.max(count + len, buf.length * 2)];
+                System.arraycopy(buf, 0, bigger, 0, count);
+                buf = bigger;
+            }
+        }
+    }
+
+    // Maps: node addr -> filename -> committed contents
+    private final HashMap<Integer, HashMap<String, MemoryFile>> disks;
+    // Maps: node addr -> number of times the node crashed
+    private final HashMap<Integer, Integer> generations;
+
+    MemoryStorageBackend() {
+        disks = new HashMap<Integer, HashMap<String, MemoryFile>>();
+        generations = new HashMap<Integer, Integer>();
+    }
+
+    @Override
+    boolean exists(int nodeAddr, String filename) {
+        return disk(nodeAddr).containsKey(filename);
+    }
+
+    @Override
+    InputStream openInput(int nodeAddr, String filename)
+            throws FileNotFoundException {
+        MemoryFile f = disk(nodeAddr).get(filename);
+        if (f == null) {
+            throw new FileNotFoundException(Utility.realFilename(nodeAddr,
+                    filename) + " (No such file or directory)");
+        }
+        return new ByteArrayInputStream(f.data, 0, f.length);
+    }
+
+    @Override
+    OutputStream openOutput(int nodeAddr, String filename, boolean append)
+            throws IOException {
+        HashMap<String, MemoryFile> disk = disk(nodeAddr);
+        MemoryFile f = disk.get(filename);
+        if (f == null || !append) {
+            // creating or truncating a file is durable right away, like it is
+            // on a real filesystem
+            f = new MemoryFile();
+            disk.put(filename, f);
+        }
+        return new MemoryOutputStream(nodeAddr, f);
+    }
+
+    @Override
+    boolean delete(int nodeAddr, String filename) {
+        return disk(nodeAddr).remove(filename) != null;
+    }
+
+    @Override
+    List<String> list(int nodeAddr) {
+        return new ArrayList<String>(disk(nodeAddr).keySet());
+    }
+
+    @Override
+    void crash(int nodeAddr) {
+        generations.put(nodeAddr, generation(nodeAddr) + 1);
+    }
+
+    private HashMap<String, MemoryFile> disk(int nodeAddr) {
+        HashMap<String, MemoryFile> disk = disks.get(nodeAddr);
+        if (disk == null) {
+            disk = new HashMap<String, MemoryFile>();
+            disks.put(nodeAddr, disk);
+        }
+        return disk;
+    }
+
+    private int generation(int nodeAddr) {
+        Integer generation = generations.get(nodeAddr);
+        return (generation == null) ? 0 : generation;
+    }
+}
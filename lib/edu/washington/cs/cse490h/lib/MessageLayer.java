@@ -31,14 +31,35 @@ import plume.Options;
  *  -t --timestep=<long>                              - Time step, in ms [default 1000]
  *  -r --seed=<long>                                  - Random seed
  *  -c --commandFile=<string>                         - Command file [default ]
+ *  --commandGenerator=<string>                       - Command generator class, instead of a command file [default ]
  *  -f --failureLvlInt=<int>                          - Failure level, a number between 0 and 4 [default 4]
+ *  --latency=<string>                                - Link latency distribution, in time steps [default const:1]
+ *  --latencyFile=<string>                            - Per-link latency distribution file [default ]
+ *  --bandwidth=<int>                                 - Link bandwidth, in bytes per time step, 0 for unlimited [default 0]
+ *  --bandwidthFile=<string>                          - Per-link bandwidth file [default ]
+ *  --diskLatency=<double>                            - Time each storage operation takes, in time steps [default 0]
+ *  --diskThroughput=<int>                            - Storage throughput, in bytes per time step, 0 for unlimited [default 0]
+ *  --memoryStorage=<boolean>                         - Keep simulated node storage in memory [default false]
+ *  --maxTime=<long>                                  - Stop the simulation after this many time steps, 0 for no limit [default 0]
+ *  --resumeFrom=<string>                             - Checkpoint to resume the simulation from [default ]
+ *  --virtualThreads=<boolean>                        - Receive from the router on a virtual thread [default false]
  * 
  * Debugging Options:
  *  -L --synopticTotallyOrderedLogFilename=<string>   - Synoptic totally ordered log filename [default ]
  *  -l --synopticPartiallyOrderedLogFilename=<string> - Synoptic partially ordered log filename [default ]
+ *  --synopticLogBuffer=<int>                         - Synoptic events that can wait to be written, 0 to write right away [default 16384]
+ *  --synopticLogDrop=<boolean>                       - Drop synoptic events rather than wait when the buffer is full [default false]
  *  -o --replayOutputFilename=<string>                - Replay output filename [default ]
  *  --replayInputFilename=<string>                    - Replay input filename [default ]
+ *  --replayCompact=<boolean>                         - Record the replay output file in the compact encoding [default false]
+ *  --replayIndexInterval=<int>                       - Index the replay output file every this many time steps, 0 for no index [default 100]
  *  -F --runForever									  - Run forever
+ *  --benchmarkFile=<string>                          - Benchmark results filename [default ]
+ *  --metricsFile=<string>                            - Filename to dump the node metrics to on exit [default ]
+ *  --traceFile=<string>                              - Filename to write a binary event trace of the simulation to [default ]
+ *  --nodeLogLevel=<string>                           - Lowest level of node log messages printed, such as INFO or FINE [default ALL]
+ *  --nodeLogFile=<string>                            - File to write node log messages to instead of the console [default ]
+ *  --nodeLogBuffer=<int>                             - Node log messages that can wait to be written to the file, 0 to write right away [default 4096]
  *
  * </pre>   
  */
@@ -154,12 +175,99 @@ public class MessageLayer {
     @Option(value = "-c Command file", aliases = { "-command-file" })
     public static String commandFile = "";
 
+    /**
+     * Command generator to use instead of the command file, see
+     * CommandGenerator
+     */
+    @Option(value = "Command generator class, instead of a command file",
+            aliases = { "-command-generator" })
+    public static String commandGenerator = "";
+
     /**
      * Failure level setting
      */
     @Option(value = "-f Failure level, a number between 0 and 4",
             aliases = { "-failure-lvl" })
     public static int failureLvlInt = 4;
+
+    /**
+     * Latency distribution of the links in simulation, see LatencyModel
+     */
+    @Option(value = "Link latency distribution, in time steps",
+            aliases = { "-link-latency" })
+    public static String latency = "const:1";
+
+    /**
+     * File with the latency distributions of individual links in simulation,
+     * see LinkLatencies
+     */
+    @Option(value = "Per-link latency distribution file",
+            aliases = { "-latency-file" })
+    public static String latencyFile = "";
+
+    /**
+     * Capacity of the links in simulation, in bytes per time step. 0 means
+     * unlimited
+     */
+    @Option(value = "Link bandwidth, in bytes per time step, 0 for unlimited",
+            aliases = { "-link-bandwidth" })
+    public static int bandwidth = 0;
+
+    /**
+     * File with the capacities of individual links in simulation, see
+     * LinkBandwidths
+     */
+    @Option(value = "Per-link bandwidth file", aliases = { "-bandwidth-file" })
+    public static String bandwidthFile = "";
+
+    /**
+     * Time each storage operation takes in simulation, in time steps
+     */
+    @Option(value = "Time each storage operation takes, in time steps",
+            aliases = { "-disk-latency" })
+    public static double diskLatency = 0;
+
+    /**
+     * Storage throughput in simulation, in bytes per time step. 0 means
+     * unlimited
+     */
+    @Option(value = "Storage throughput, in bytes per time step, 0 for unlimited",
+            aliases = { "-disk-throughput" })
+    public static int diskThroughput = 0;
+
+    /**
+     * Keep the storage of simulated nodes in memory rather than under
+     * storage/
+     */
+    @Option(value = "Keep simulated node storage in memory",
+            aliases = { "-memory-storage" })
+    public static boolean memoryStorage = false;
+
+    /**
+     * Stop a simulation that takes commands from a file after this many time
+     * steps. 0 means no limit
+     */
+    @Option(value = "Stop the simulation after this many time steps, 0 for no limit",
+            aliases = { "-max-time" })
+    public static long maxTime = 0;
+
+    /**
+     * Checkpoint to resume the simulation from, see Checkpoint and the
+     * checkpoint command. The command file is run from its beginning, at the
+     * time step of the checkpoint. Resuming with a seed other than that of
+     * the checkpoint forks the simulation
+     */
+    @Option(value = "Checkpoint to resume the simulation from",
+            aliases = { "-resume-from" })
+    public static String resumeFrom = "";
+
+    /**
+     * Whether the emulated node receives from the router on a virtual thread,
+     * see ConnectionThreads
+     */
+    @Option(value = "Receive from the router on a virtual thread",
+            aliases = { "-virtual-threads" })
+    public static boolean virtualThreads = false;
     // end option group "Execution Options"
 
     // //////////////////////////////////////////////////
@@ -180,6 +288,22 @@ public class MessageLayer {
     // TODO: specify a sane default
     public static String synopticPartialOrderLogFilename = "";
 
+    /**
+     * How many events each synoptic log buffers for its writer thread. Logs
+     * whose filename ends in .gz are compressed
+     */
+    @Option(value = "Synoptic events that can wait to be written, 0 to write right away",
+            aliases = { "-synoptic-log-buffer" })
+    public static int synopticLogBuffer = 16384;
+
+    /**
+     * Whether the synoptic logs drop events when their writer falls behind,
+     * rather than hold up the simulation
+     */
+    @Option(value = "Drop synoptic events rather than wait when the buffer is full",
+            aliases = { "-synoptic-log-drop" })
+    public static boolean synopticLogDrop = false;
+
     /**
      * The log filename for replay output
      */
@@ -194,6 +318,66 @@ public class MessageLayer {
      */
     @Option(value = "Replay input filename", aliases = { "-replay-infile" })
     public static String replayInputFilename = "";
+
+    /**
+     * Record the replay output file in the compact encoding, see
+     * ReplayRecorder. Replays read either encoding
+     */
+    @Option(value = "Record the replay output file in the compact encoding",
+            aliases = { "-replay-compact" })
+    public static boolean replayCompact = false;
+
+    /**
+     * How often to index the replay output file, in time steps, see
+     * ReplayIndex. Replays can seek to the indexed steps
+     */
+    @Option(value = "Index the replay output file every this many time steps, 0 for no index",
+            aliases = { "-replay-index-interval" })
+    public static int replayIndexInterval = 100;
+
+    /**
+     * The file to write the performance of the operations that the nodes
+     * report to, as JSON
+     */
+    @Option(value = "Benchmark results filename", aliases = { "-benchmark-file" })
+    public static String benchmarkFile = "";
+
+    /**
+     * The file to dump the metrics of the nodes to when the manager stops, as
+     * JSON
+     */
+    @Option(value = "Filename to dump the node metrics to on exit", aliases = { "-metrics-file" })
+    public static String metricsFile = "";
+
+    /**
+     * The file to write the binary event trace of a simulation to, see
+     * TraceWriter. Read it with TraceAnalyzer
+     */
+    @Option(value = "Filename to write a binary event trace of the simulation to", aliases = { "-trace-file" })
+    public static String traceFile = "";
+
+    /**
+     * The lowest level of the messages that nodes log through NodeLogger,
+     * such as SEVERE, INFO or FINE
+     */
+    @Option(value = "Lowest level of node log messages printed, such as INFO or FINE",
+            aliases = { "-node-log-level" })
+    public static String nodeLogLevel = "ALL";
+
+    /**
+     * The file to write the messages that nodes log through NodeLogger to,
+     * rather than the console. Compressed if the filename ends in .gz
+     */
+    @Option(value = "File to write node log messages to instead of the console",
+            aliases = { "-node-log-file" })
+    public static String nodeLogFile = "";
+
+    /**
+     * How many messages the node log file buffers for its writer thread
+     */
+    @Option(value = "Node log messages that can wait to be written to the file, 0 to write right away",
+            aliases = { "-node-log-buffer" })
+    public static int nodeLogBuffer = 4096;
     // end option group "Debugging Options"
 
     /** One line synopsis of usage */
@@ -285,7 +469,7 @@ public class MessageLayer {
                     .loadClass(nodeClass).asSubclass(Node.class);
 
             if (simulate) {
-                if (commandFile.equals("")) {
+                if (commandFile.equals("") && commandGenerator.equals("")) {
                     // Simulation replay only really needs to record user input
                     if (replayOutputFilename.equals("")
                             && replayInputFilename.equals("")) {
@@ -302,7 +486,8 @@ public class MessageLayer {
                 }
 
                 try {
-                    if (!commandFile.equals("")) {
+                    if (!commandFile.equals("")
+                            || !commandGenerator.equals("")) {
                         manager = new Simulator(nodeImpl, failureLvl, seed,
                                 replayOutputFilename, replayInputFilename,
                                 commandFile, suppressOutput);
@@ -346,9 +531,13 @@ public class MessageLayer {
                 } else if (!replayInputFilename.equals("") && seed != null) {
                     printWarning("Both seed and replay input are specified.  Seed will be ignored.");
                 }
+                if (!resumeFrom.equals("")) {
+                    printWarning("Only simulations can be resumed from a checkpoint.  The checkpoint will be ignored.");
+                }
 
                 try {
-                    if (!commandFile.equals("")) {
+                    if (!commandFile.equals("")
+                            || !commandGenerator.equals("")) {
                         manager = new Emulator(nodeImpl, nodeAddr,
                                 routerHostname, routerPort, failureLvl, seed,
                                 timestep, replayOutputFilename,
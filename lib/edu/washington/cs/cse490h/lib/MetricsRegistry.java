@@ -0,0 +1,157 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * Named metrics of one node, see Node.metrics(). There are three kinds:
+ *	- counters, which only go up, such as packets sent
+ *	- gauges, which are read when the metrics are dumped, such as queue depths
+ *	- histograms, such as rounds per Paxos decision
+ *
+ * Metrics are created on first use and live as long as the simulation or
+ * emulation, so that counts add up across crashes and restarts of the node.
+ * Looking a metric up costs a map lookup, so code on a hot path should keep
+ * the metric rather than its name.
+ * </pre>
+ */
+public class MetricsRegistry implements Serializable {
+	private static final long serialVersionUID = -3607107475180274929L;
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static class Counter implements Serializable {
+		private static final long serialVersionUID = -4042254350144723261L;
+
+		private long count = 0;
+
+		public void inc() {
+			count++;
+		}
+
+		public void add(long n) {
+			count += n;
+		}
+
+		public long get() {
+			return count;
+		}
+	}
+
+	/**
+	 * A value that is read when the metrics are dumped. Gauges are part of a
+	 * checkpoint, so whatever they read has to be as well.
+	 */
+	public static interface Gauge extends Serializable {
+		public long value();
+	}
+
+	// sorted by name so that dumps are in a stable order
+	private final TreeMap<String, Counter> counters;
+	private final TreeMap<String, Gauge> gauges;
+	private final TreeMap<String, Histogram> histograms;
+
+	public MetricsRegistry() {
+		counters = new TreeMap<String, Counter>();
+		gauges = new TreeMap<String, Gauge>();
+		histograms = new TreeMap<String, Histogram>();
+	}
+
+	/**
+	 * @return The counter with the given name, created if there is none yet
+	 */
+	public Counter counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			c = new Counter();
+			counters.put(name, c);
+		}
+		return c;
+	}
+
+	/**
+	 * Register a gauge. A gauge registered under a name that is already taken
+	 * replaces the old one, so that a restarted node can register its gauges
+	 * again.
+	 */
+	public void gauge(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * @return The histogram with the given name, created if there is none yet
+	 */
+	public Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			h = new Histogram();
+			histograms.put(name, h);
+		}
+		return h;
+	}
+
+	/**
+	 * @return The current values of all counters and gauges, by name
+	 */
+	public TreeMap<String, Long> snapshot() {
+		TreeMap<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().value());
+		}
+		return values;
+	}
+
+	/**
+	 * @return true if no metric was ever registered
+	 */
+	public boolean isEmpty() {
+		return counters.isEmpty() && gauges.isEmpty() && histograms.isEmpty();
+	}
+
+	/**
+	 * @param indent
+	 *            Indentation of the lines after the first one
+	 * @return The metrics as a JSON object
+	 */
+	public String toJson(String indent) {
+		TreeMap<String, String> values = new TreeMap<String, String>();
+		for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+			values.put(entry.getKey(), String.valueOf(entry.getValue().get()));
+		}
+		StringBuffer sb = new StringBuffer("{\n");
+		appendSection(sb, indent, "counters", values);
+		sb.append(",\n");
+
+		values.clear();
+		for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+			values.put(entry.getKey(), String.valueOf(entry.getValue().value()));
+		}
+		appendSection(sb, indent, "gauges", values);
+		sb.append(",\n");
+
+		values.clear();
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			values.put(entry.getKey(), entry.getValue().toJson());
+		}
+		appendSection(sb, indent, "histograms", values);
+		return sb.append("\n" + indent + "}").toString();
+	}
+
+	private static void appendSection(StringBuffer sb, String indent, String name,
+			Map<String, String> values) {
+		sb.append(indent + "  \"" + name + "\": {");
+		String sep = "\n";
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			sb.append(sep + indent + "    " + OperationStats.quote(entry.getKey()) + ": "
+					+ entry.getValue());
+			sep = ",\n";
+		}
+		sb.append(values.isEmpty() ? "}" : "\n" + indent + "  }");
+	}
+}
@@ -0,0 +1,392 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.logging.Level;
+
+import edu.washington.cs.cse490h.lib.Packet.CorruptPacketException;
+
+/**
+ * <pre>
+ * The Router's end of the connection to an emulated node when the Router runs
+ * event loops, see SelectorLoop. It does what EmulatedNode does without a
+ * thread of its own: its loop reads whatever the socket has into a buffer,
+ * and packets are cut out of the buffer once they are whole. Packets to the
+ * node go on a write queue, which the loop writes out as far as the socket
+ * takes them.
+ *
+ * The first byte from the node is its address, and the node joins the Router
+ * once it arrives. The termination protocol is the one of EmulatedNode: once
+ * the node sent its FIN, the Router answers with its own FIN and shuts its
+ * output down, and the packets that follow until the second FIN are the ones
+ * the node hands back, which go into the queue of its address.
+ * </pre>
+ */
+class NioConnection implements NodeConnection {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// packets written with one call
+	private static final int MAX_GATHER = 64;
+
+	private final Router parent;
+	private final SelectorLoop loop;
+	private final SocketChannel channel;
+	private final InetAddress ipAddress;
+	private final int port;
+	final Runnable flusher;
+
+	// only used by the loop thread
+	private SelectionKey key;
+	private ByteBuffer in;
+	// -1 until the node sent its address
+	private int addr;
+	private Throughput throughput;
+	// the packets the node hands back, non-null once it sent its FIN
+	private LinkedList<Packet> returned;
+	private boolean closed;
+
+	// whether the router removed the connection, see finish()
+	private volatile boolean detached;
+
+	// guarded by this
+	private final ArrayDeque<ByteBuffer> out;
+	private boolean finished;
+	// shut the output down once the write queue is empty
+	private boolean shutdownOutput;
+
+	/**
+	 * Create a connection and register it with its loop.
+	 *
+	 * @param parent
+	 *            The router
+	 * @param loop
+	 *            The loop that serves the connection
+	 * @param channel
+	 *            The channel to the node, in non-blocking mode
+	 * @param ipAddress
+	 *            The IP address of the machine that the node is on
+	 * @param port
+	 *            The port that the node connected from
+	 */
+	NioConnection(Router parent, SelectorLoop loop, SocketChannel channel,
+			InetAddress ipAddress, int port) {
+		this.parent = parent;
+		this.loop = loop;
+		this.channel = channel;
+		this.ipAddress = ipAddress;
+		this.port = port;
+		flusher = new SelectorLoop.ConnectionTask(this) {
+			public void run() {
+				flush();
+			}
+		};
+
+		in = ByteBuffer.allocate(BUFFER_SIZE);
+		addr = -1;
+		closed = false;
+		detached = false;
+		out = new ArrayDeque<ByteBuffer>();
+		finished = false;
+		shutdownOutput = false;
+
+		loop.register(this);
+	}
+
+	/**
+	 * Queue a packet to the node. Called by the loops of other nodes, so it
+	 * only queues the packet and has the loop of this node write it. Once
+	 * Router.outQueueLength packets wait, more are refused.
+	 */
+	public boolean send(Packet pkt) {
+		synchronized (this) {
+			if (finished || out.size() >= Router.outQueueLength) {
+				return false;
+			}
+			out.add(ByteBuffer.wrap(pkt.pack()));
+			if (out.size() > 1) {
+				// an earlier packet is still waiting, and the flush that
+				// writes it writes this one too
+				return true;
+			}
+		}
+		loop.flushLater(this);
+		return true;
+	}
+
+	public synchronized boolean isBacklogged() {
+		return out.size() >= Math.max(1, Router.outQueueLength / 2);
+	}
+
+	/**
+	 * Called by the router to tell the connection to stop and that the router
+	 * has already removed it. The connection is closed by its loop.
+	 */
+	public LinkedList<Packet> finish() {
+		LinkedList<Packet> unwritten;
+		synchronized (this) {
+			finished = true;
+			unwritten = takeUnwritten();
+		}
+		detached = true;
+		loop.execute(new SelectorLoop.ConnectionTask(this) {
+			public void run() {
+				close();
+			}
+		});
+		return unwritten;
+	}
+
+	public InetAddress getIPAddress() {
+		return ipAddress;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String toString() {
+		return "<TCP: " + ipAddress + ":" + port + " Fish: " + addr + ">";
+	}
+
+	/******************** Loop thread ********************/
+
+	void register(Selector selector) {
+		if (closed) {
+			return;
+		}
+		try {
+			key = channel.register(selector, SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			lost(e);
+		}
+	}
+
+	/**
+	 * Read what the socket has and handle the packets that are whole.
+	 */
+	void readable() {
+		try {
+			if (channel.read(in) == -1) {
+				// The other side closed the connection
+				lost(null);
+				return;
+			}
+			in.flip();
+			if (addr == -1 && in.hasRemaining()) {
+				join(in.get() & 0xFF);
+			}
+			while (addr != -1 && in.remaining() >= Packet.HEADER_SIZE) {
+				int length = in.getInt(in.position() + 4);
+				if (length < 0 || length > Packet.MAX_PAYLOAD_SIZE) {
+					throw new CorruptPacketException();
+				}
+				if (in.remaining() < Packet.HEADER_SIZE + length) {
+					break;
+				}
+				received(decode(length));
+				if (closed) {
+					return;
+				}
+			}
+			in.compact();
+			fitBuffer();
+		} catch (IOException e) {
+			lost(e);
+		}
+	}
+
+	/**
+	 * Write as much of the write queue as the socket takes, and wait for the
+	 * socket to take the rest.
+	 */
+	void flush() {
+		if (closed) {
+			return;
+		}
+		boolean empty;
+		try {
+			synchronized (this) {
+				while (!out.isEmpty()) {
+					ByteBuffer[] bufs = new ByteBuffer[Math.min(out.size(), MAX_GATHER)];
+					Iterator<ByteBuffer> queued = out.iterator();
+					for (int i = 0; i < bufs.length; i++) {
+						bufs[i] = queued.next();
+					}
+					channel.write(bufs);
+					while (!out.isEmpty() && !out.peek().hasRemaining()) {
+						ByteBuffer written = out.poll();
+						// our FIN, last once shutdownOutput is set, is not
+						// counted as a packet to the node
+						if (!shutdownOutput || !out.isEmpty()) {
+							throughput.out(written.capacity());
+						}
+					}
+					if (bufs[bufs.length - 1].hasRemaining()) {
+						// the socket is full
+						break;
+					}
+				}
+				empty = out.isEmpty();
+				if (empty && shutdownOutput) {
+					// make sure that we don't send new packets
+					channel.socket().shutdownOutput();
+					shutdownOutput = false;
+				}
+			}
+		} catch (IOException e) {
+			lost(e);
+			return;
+		}
+		key.interestOps(empty ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+	}
+
+	private void join(int address) {
+		addr = address;
+		throughput = parent.throughput(addr);
+		Management.log(Level.INFO, "Connecting to " + ipAddress + ":" + port + " with addr: " + addr);
+		parent.nodeJoin(addr, this);
+	}
+
+	private Packet decode(int length) throws CorruptPacketException {
+		int dest = in.get() & 0xFF;
+		int src = in.get() & 0xFF;
+		int protocol = in.get() & 0xFF;
+		int flags = in.get() & 0xFF;
+		in.getInt();
+		byte[] payload = new byte[length];
+		in.get(payload);
+		try {
+			return new Packet(dest, src, protocol, flags, payload);
+		} catch (IllegalArgumentException e) {
+			throw new CorruptPacketException();
+		}
+	}
+
+	private void received(Packet packet) {
+		throughput.in(packet.getPayload().length + Packet.HEADER_SIZE);
+		boolean fin = (packet.getFlags() & Packet.FIN) != 0;
+
+		if (returned != null) {
+			if (fin) {
+				// if we get the second FIN, everything is done
+				close();
+				if (!detached) {
+					parent.nodeQuit(addr, returned);
+				}
+			} else {
+				returned.add(packet);
+			}
+		} else if (fin) {
+			// start termination protocol: send our FIN packet to signal that
+			// no new packets will arrive, and grab all the undelivered
+			// messages
+			returned = new LinkedList<Packet>();
+			synchronized (this) {
+				out.add(ByteBuffer.wrap(Packet.getFinPacket(addr).pack()));
+				finished = true;
+				shutdownOutput = true;
+			}
+			flush();
+		} else {
+			parent.route(addr, packet);
+		}
+	}
+
+	/**
+	 * Make room in the compacted buffer for the packet it holds the start of,
+	 * or go back to a buffer of the usual size once a big packet is done.
+	 */
+	private void fitBuffer() {
+		int held = in.position();
+		if (held >= Packet.HEADER_SIZE) {
+			int size = Packet.HEADER_SIZE + in.getInt(4);
+			if (size > in.capacity()) {
+				ByteBuffer bigger = ByteBuffer.allocate(size);
+				in.flip();
+				bigger.put(in);
+				in = bigger;
+			}
+		} else if (in.capacity() > BUFFER_SIZE) {
+			ByteBuffer usual = ByteBuffer.allocate(BUFFER_SIZE);
+			in.flip();
+			usual.put(in);
+			in = usual;
+		}
+	}
+
+	/**
+	 * The loop could not handle the connection. It is closed, and the node
+	 * goes down as if the connection was lost, unless that happened already.
+	 */
+	void fail(RuntimeException e) {
+		if (!closed) {
+			lost(e);
+		}
+	}
+
+	/**
+	 * The connection ended before the termination protocol did.
+	 */
+	private void lost(Exception e) {
+		if (e != null) {
+			e.printStackTrace();
+		}
+		LinkedList<Packet> unwritten;
+		synchronized (this) {
+			unwritten = takeUnwritten();
+		}
+		close();
+		if (addr != -1 && !detached) {
+			parent.nodeQuit(addr, unwritten);
+		}
+	}
+
+	/**
+	 * Empty the write queue. Called with the lock held.
+	 *
+	 * @return The packets on it that were not written at all, oldest first
+	 */
+	private LinkedList<Packet> takeUnwritten() {
+		LinkedList<Packet> unwritten = new LinkedList<Packet>();
+		for (ByteBuffer buf : out) {
+			// not the one that was partly written, which is lost with the
+			// connection, or our FIN
+			if (buf.position() > 0) {
+				throughput.dropped();
+				continue;
+			}
+			try {
+				Packet pkt = Packet.unpack(buf.array());
+				if ((pkt.getFlags() & Packet.FIN) == 0) {
+					unwritten.add(pkt);
+				}
+			} catch (CorruptPacketException e) {
+				// we packed it ourselves
+			}
+		}
+		out.clear();
+		return unwritten;
+	}
+
+	private void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		synchronized (this) {
+			finished = true;
+			out.clear();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing left to do with it
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 
 /**
@@ -13,7 +13,9 @@ import java.lang.reflect.InvocationTargetException;
  * This code must be written as a state machine -- each upcall must do its work
  * and return so that other upcalls can be delivered
  */
-public abstract class Node {
+public abstract class Node implements Serializable {
+	private static final long serialVersionUID = -3202663577309312666L;
+
 	/**
 	 * Failure rate functions that designate probability of an event happening.
 	 * The student may hide these by implementing static methods with the same
@@ -40,7 +42,8 @@ public abstract class Node {
 	// A node's local vector clock -- one per node.
 	// public VectorTime vtime = null;
 
-	private Manager manager;
+	// not part of a checkpoint, see resume()
+	private transient Manager manager;
 	public int addr;
 
 	// TODO: timeout, deliver caused by to, timeout
@@ -48,6 +51,8 @@ public abstract class Node {
 	// 1. be able to deliver messages in the same round that they are sent
 	// 2. include a drift event, which pushes back all subsequent time-based
 	// events (timers and commands)
+	// The number of time steps until the node's storage operations complete.
+	// Sends and timers are pushed back by this much
 	long drift;
 
 	/**
@@ -68,6 +73,18 @@ public abstract class Node {
 		// this.vtime = new VectorTime(Manager.MAX_ADDRESS);
 	}
 
+	/**
+	 * Called by the manager to attach a node that was restored from a
+	 * checkpoint to the manager of the resumed simulation. Unlike init(), the
+	 * state of the node is kept.
+	 * 
+	 * @param manager
+	 *            The manager of the resumed simulation
+	 */
+	final void resume(Manager manager) {
+		this.manager = manager;
+	}
+
 	/**
 	 * Called by the manager to start this node up.
 	 */
@@ -175,6 +192,58 @@ public abstract class Node {
 		}
 	}
 
+	/**
+	 * @return The current time step of the simulation/emulation
+	 */
+	public long now() {
+		return manager.now();
+	}
+
+	/**
+	 * @return The time step in which the packets that this node sends now
+	 *         leave it. This is later than now() while the node is still busy
+	 *         with storage operations
+	 */
+	public long sendTime() {
+		return manager.now() + drift;
+	}
+
+	/**
+	 * Report the start of an operation, such as a request or a round of a
+	 * protocol, so that its latency and cost show up in the benchmark results.
+	 *
+	 * @param name
+	 *            The kind of operation. Operations are grouped by name
+	 * @return The id to pass to endOperation
+	 */
+	public int beginOperation(String name) {
+		return manager.beginOperation(this, name);
+	}
+
+	/**
+	 * Report the end of an operation. Operations that are never ended, for
+	 * example because the node crashed, are counted as unfinished.
+	 *
+	 * @param operation
+	 *            The id that beginOperation returned
+	 * @param succeeded
+	 *            Whether the operation succeeded
+	 */
+	public void endOperation(int operation, boolean succeeded) {
+		manager.endOperation(this, operation, succeeded);
+	}
+
+	/**
+	 * The metrics of this node, which are dumped when the simulation or
+	 * emulation stops, and by the metrics command. They survive crashes, so a
+	 * restarted node keeps counting where it left off.
+	 *
+	 * @return The metrics registry of this node
+	 */
+	public MetricsRegistry metrics() {
+		return manager.metricsFor(addr);
+	}
+
 	/**
 	 * Gets a PersistentStorageReader object for the filename specified.
 	 * 
@@ -221,9 +290,7 @@ public abstract class Node {
 			handleDiskWriteEvent("creation of " + filename, "create:"
 					+ filename);
 		}
-		Utility.mkdirs(addr);
-		File f = new File(Utility.realFilename(addr, filename));
-		return new PersistentStorageWriter(this, f, append);
+		return new PersistentStorageWriter(this, filename, append);
 	}
 
 	/**
@@ -244,9 +311,7 @@ public abstract class Node {
 			handleDiskWriteEvent("creation of " + filename, "create:"
 					+ filename);
 		}
-		Utility.mkdirs(addr);
-		File f = new File(Utility.realFilename(addr, filename));
-		return new PersistentStorageOutputStream(this, f, append);
+		return new PersistentStorageOutputStream(this, filename, append);
 	}
 
 	/**
@@ -259,10 +324,38 @@ public abstract class Node {
 	 *            Synoptic string to use for this event
 	 */
 	void handleDiskWriteEvent(String description, String synDescription) {
+		handleDiskWriteEvent(description, synDescription, 0);
+	}
+
+	/**
+	 * Called before any modification of persistent storage.
+	 * 
+	 * @param description
+	 *            Helpful description of the operation that is being attempted.
+	 *            This is mostly to aid in debugging and user-specified crashes.
+	 * @param synDescription
+	 *            Synoptic string to use for this event
+	 * @param bytes
+	 *            The number of bytes that the operation writes
+	 */
+	void handleDiskWriteEvent(String description, String synDescription,
+			int bytes) {
 		// Ask the manager to check whether we should crash or not.
 		manager.checkWriteCrash(this, description);
 		// Since we didn't crash, notify manager of this write event.
-		manager.storageWriteEvent(this, synDescription);
+		manager.storageWriteEvent(this, synDescription, bytes);
+	}
+
+	/**
+	 * Called before a modification of persistent storage that is part of one
+	 * that handleDiskWriteEvent was called for already. It can crash the node
+	 * like any other, but is not another storage operation.
+	 * 
+	 * @param description
+	 *            Helpful description of the operation that is being attempted
+	 */
+	void checkDiskWriteCrash(String description) {
+		manager.checkWriteCrash(this, description);
 	}
 
 	/**
@@ -273,8 +366,28 @@ public abstract class Node {
 	 *            This is mostly to aid in debugging and user-specified crashes.
 	 */
 	public void handleDiskReadEvent(String synDescription) {
+		handleDiskReadEvent(synDescription, 0);
+	}
+
+	/**
+	 * Called before any retrieval of state from persistent storage.
+	 * 
+	 * @param synDescription
+	 *            Synoptic string to use for this event
+	 * @param bytes
+	 *            The number of bytes that the operation reads
+	 */
+	public void handleDiskReadEvent(String synDescription, int bytes) {
 		// Notify manager of this read event.
-		manager.storageReadEvent(this, synDescription);
+		manager.storageReadEvent(this, synDescription, bytes);
+	}
+
+	/**
+	 * Whether storage operations of this node end up in a synoptic log. The
+	 * storage classes skip describing the data they move when this is false.
+	 */
+	boolean synopticLogging() {
+		return manager.isSynopticLogging();
 	}
 
 	/**
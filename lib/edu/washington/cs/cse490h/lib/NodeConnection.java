@@ -0,0 +1,48 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.net.InetAddress;
+import java.util.LinkedList;
+
+/**
+ * The Router's end of the connection to an emulated node, either an
+ * EmulatedNode with a thread of its own, or a NioConnection served by an event
+ * loop. A NodeContainer only talks to its node through this.
+ */
+interface NodeConnection {
+	/**
+	 * Send a packet to the node. Must not block on other nodes.
+	 *
+	 * @param pkt
+	 *            The packet to send
+	 * @return true if the packet is on its way, false if the node is going
+	 *         down or too many packets wait for it, and the packet should be
+	 *         queued
+	 */
+	public boolean send(Packet pkt);
+
+	/**
+	 * @return true if so many packets wait to be written to the node that the
+	 *         router should hold back the ones it can, see
+	 *         NodeContainer.drain()
+	 */
+	public boolean isBacklogged();
+
+	/**
+	 * Called by the router to tell the connection to stop and that the router
+	 * has already removed it
+	 *
+	 * @return The packets sent to the node that were not written to it yet,
+	 *         oldest first
+	 */
+	public LinkedList<Packet> finish();
+
+	/**
+	 * @return The IP address of the machine that the node is on
+	 */
+	public InetAddress getIPAddress();
+
+	/**
+	 * @return The port that the node connected from
+	 */
+	public int getPort();
+}
@@ -0,0 +1,165 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.logging.Level;
+
+/**
+ * <pre>
+ * Levelled logging for node implementations. Each node class keeps a logger
+ * with its own colours, and logs through error(), info() and debug():
+ *
+ *   logger.debug("JUST RECEIVED: ", pkt);
+ *
+ * A message is given in parts, which are only turned into a string if the
+ * message is logged at all: objects through toString(), byte arrays through
+ * Utility.byteArrayToString() and Messages through get(). Callers should pass
+ * what they have rather than concatenate it themselves.
+ *
+ * Messages below the nodeLogLevel option are dropped. Messages go to the
+ * console unless the nodeLogFile option is set, in which case they go to that
+ * file, without colours and after their level, through an AsyncLogWriter,
+ * which writes them from a background thread. The nodeLogBuffer option is the
+ * number of messages that can wait for it.
+ * </pre>
+ */
+public class NodeLogger implements Serializable {
+	private static final long serialVersionUID = 3866163396483653203L;
+
+	/**
+	 * A part of a message that is only built if the message is logged. Like
+	 * MetricsRegistry.Gauge, it is an interface of our own that callers
+	 * implement with an anonymous class, as the rest of the code does, rather
+	 * than a java.util.function.Supplier given as a lambda.
+	 */
+	public interface Message {
+		public String get();
+	}
+
+	private static volatile Level level = Level.ALL;
+	// null unless the messages go to a file. Guarded by the class
+	private static AsyncLogWriter file = null;
+
+	private final Node node;
+	private final String outputColor;
+	private final String errorColor;
+
+	/**
+	 * @param node
+	 *            The node that logs
+	 * @param outputColor
+	 *            The ANSI colour of the messages on the standard output, such
+	 *            as "0;32", or null for none
+	 * @param errorColor
+	 *            The ANSI colour of the messages on the standard error, or
+	 *            null for none
+	 */
+	public NodeLogger(Node node, String outputColor, String errorColor) {
+		this.node = node;
+		this.outputColor = outputColor;
+		this.errorColor = errorColor;
+	}
+
+	/**
+	 * Set the level and output of all the node loggers. Called by the manager
+	 * when it starts.
+	 *
+	 * @param levelName
+	 *            The lowest level logged, such as FINE or INFO
+	 * @param filename
+	 *            The file to log to, or "" for the console
+	 */
+	static void start(String levelName, String filename) {
+		try {
+			level = Level.parse(levelName.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			MessageLayer.printWarning("unknown node log level '" + levelName + "', logging everything.");
+			level = Level.ALL;
+		}
+
+		if (filename == null || filename.equals("")) {
+			return;
+		}
+		AsyncLogWriter logger = new AsyncLogWriter("node log", MessageLayer.nodeLogBuffer, false);
+		logger.start(filename);
+		synchronized (NodeLogger.class) {
+			file = logger.isActive() ? logger : null;
+		}
+	}
+
+	/**
+	 * Write out the messages still waiting for the log file and close it.
+	 */
+	static void stop() {
+		AsyncLogWriter logger;
+		synchronized (NodeLogger.class) {
+			logger = file;
+			file = null;
+		}
+		if (logger != null) {
+			logger.stop();
+		}
+	}
+
+	/**
+	 * @return Whether messages at this level are logged
+	 */
+	public boolean isLoggable(Level l) {
+		return l.intValue() >= level.intValue();
+	}
+
+	/**
+	 * Log a failure, at level SEVERE. On the console, warnings and failures go
+	 * to the standard error.
+	 */
+	public void error(Object... parts) {
+		log(Level.SEVERE, parts);
+	}
+
+	/**
+	 * Log what the user should see, at level INFO.
+	 */
+	public void info(Object... parts) {
+		log(Level.INFO, parts);
+	}
+
+	/**
+	 * Log the details of what the node does, at level FINE.
+	 */
+	public void debug(Object... parts) {
+		log(Level.FINE, parts);
+	}
+
+	public void log(Level l, Object... parts) {
+		if (!isLoggable(l)) {
+			return;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("Node ").append(node.addr).append(": ");
+		for (Object part : parts) {
+			if (part instanceof byte[]) {
+				sb.append(Utility.byteArrayToString((byte[]) part));
+			} else if (part instanceof Message) {
+				sb.append(((Message) part).get());
+			} else {
+				sb.append(part);
+			}
+		}
+
+		synchronized (NodeLogger.class) {
+			if (file != null) {
+				file.log(l.getName(), sb.toString());
+				return;
+			}
+		}
+
+		boolean isError = l.intValue() >= Level.WARNING.intValue();
+		PrintStream stream = isError ? System.err : System.out;
+		String color = isError ? errorColor : outputColor;
+		if (color != null) {
+			sb.insert(0, (char) 27 + "[" + color + "m").append((char) 27).append("[m");
+		}
+		stream.println(sb);
+	}
+}
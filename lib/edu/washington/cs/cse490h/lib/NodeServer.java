@@ -2,6 +2,7 @@ package edu.washington.cs.cse490h.lib;
 
 import java.lang.Thread;
 import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 import java.net.Socket;
 import java.io.IOException;
 import java.io.InputStream;
@@ -14,6 +15,9 @@ import java.io.OutputStream;
 public class NodeServer implements Runnable {
 	private Socket socket;
 	private ArrayList<Packet> packetsReceived;
+	// guards packetsReceived. Not a monitor, which would pin a virtual thread
+	// while close() sends them back
+	private final ReentrantLock receivedLock = new ReentrantLock();
 	private InputStream in;
 	private OutputStream out;
 	private int address;
@@ -50,8 +54,7 @@ public class NodeServer implements Runnable {
 		out.write(nodeAddr);
 		out.flush();
 		
-		Thread t = new Thread(this);
-		t.start();
+		ConnectionThreads.start(this, "NodeServer " + nodeAddr, MessageLayer.virtualThreads);
 	}
 
 	public void run() {
@@ -95,11 +98,14 @@ public class NodeServer implements Runnable {
 	 * @return The first packet stored
 	 */
 	protected Packet getPacket() {
-		synchronized (packetsReceived) {
+		receivedLock.lock();
+		try {
 			if (packetsReceived.isEmpty()) {
 				return null;
 			}
 			return packetsReceived.remove(0);
+		} finally {
+			receivedLock.unlock();
 		}
 	}
 
@@ -126,8 +132,11 @@ public class NodeServer implements Runnable {
 	 *            The packet to store
 	 */
 	private void storePacket(Packet packet) {
-		synchronized (packetsReceived) {
+		receivedLock.lock();
+		try {
 			packetsReceived.add(packet);
+		} finally {
+			receivedLock.unlock();
 		}
 	}
 	
@@ -151,10 +160,13 @@ public class NodeServer implements Runnable {
 			}
 
 			// send back all the in-transit messages
-			synchronized (packetsReceived) {
+			receivedLock.lock();
+			try {
 				for (Packet pkt : packetsReceived) {
 					send(pkt.pack());
 				}
+			} finally {
+				receivedLock.unlock();
 			}
 			for (Packet pkt : parent.inTransitMsgs) {
 				send(pkt.pack());
@@ -0,0 +1,198 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * Performance of the operations that nodes report with Node.beginOperation and
+ * Node.endOperation, grouped by operation name. For every kind of operation we
+ * record:
+ *	- how many were started, succeeded, failed, or never ended
+ *	- how many completed in every time step
+ *	- their latency, in time steps
+ *	- their cost, as the number of packets sent in the whole network while
+ *	  they were in flight. This is exact when operations do not overlap
+ * </pre>
+ */
+class OperationStats implements Serializable {
+	private static final long serialVersionUID = 836040616753691016L;
+
+	private static class InFlight implements Serializable {
+		private static final long serialVersionUID = 1469374246271312963L;
+
+		final Kind kind;
+		final long startTime;
+		final long startPackets;
+
+		InFlight(Kind kind, long startTime, long startPackets) {
+			this.kind = kind;
+			this.startTime = startTime;
+			this.startPackets = startPackets;
+		}
+	}
+
+	private static class Kind implements Serializable {
+		private static final long serialVersionUID = 2729513882363736870L;
+
+		long started = 0;
+		long succeeded = 0;
+		long failed = 0;
+		final Histogram latency = new Histogram();
+		final Histogram messages = new Histogram();
+		// completions per time step, indexed by time step
+		long[] completions = new long[64];
+
+		void complete(long time) {
+			if (time >= completions.length) {
+				long[] bigger = new long[(int) Math.max(time + 1, completions.length * 2)];
+				System.arraycopy(completions, 0, bigger, 0, completions.length);
+				completions = bigger;
+			}
+			completions[(int) time]++;
+		}
+	}
+
+	// sorted by name so that the results are in a stable order
+	private final TreeMap<String, Kind> kinds;
+	private final HashMap<Integer, InFlight> inFlight;
+	private int nextId;
+
+	OperationStats() {
+		kinds = new TreeMap<String, Kind>();
+		inFlight = new HashMap<Integer, InFlight>();
+		nextId = 0;
+	}
+
+	/**
+	 * @return true if no operation was ever started
+	 */
+	boolean isEmpty() {
+		return kinds.isEmpty();
+	}
+
+	/**
+	 * Record the start of an operation.
+	 *
+	 * @param name
+	 *            The kind of operation
+	 * @param now
+	 *            The current time step
+	 * @param packetsSent
+	 *            The number of packets sent so far in the whole network
+	 * @return The id to end the operation with
+	 */
+	int begin(String name, long now, long packetsSent) {
+		Kind kind = kinds.get(name);
+		if (kind == null) {
+			kind = new Kind();
+			kinds.put(name, kind);
+		}
+		kind.started++;
+		int id = nextId++;
+		inFlight.put(id, new InFlight(kind, now, packetsSent));
+		return id;
+	}
+
+	/**
+	 * Record the end of an operation. Ending an operation that already ended,
+	 * or an unknown one, is ignored.
+	 *
+	 * @param id
+	 *            The id that begin returned
+	 * @param succeeded
+	 *            Whether the operation succeeded
+	 * @param now
+	 *            The current time step
+	 * @param packetsSent
+	 *            The number of packets sent so far in the whole network
+	 */
+	void end(int id, boolean succeeded, long now, long packetsSent) {
+		InFlight op = inFlight.remove(id);
+		if (op == null) {
+			return;
+		}
+		Kind kind = op.kind;
+		if (succeeded) {
+			kind.succeeded++;
+		} else {
+			kind.failed++;
+		}
+		kind.latency.record(now - op.startTime);
+		kind.messages.record(packetsSent - op.startPackets);
+		kind.complete(now);
+	}
+
+	/**
+	 * Write the results as a JSON object.
+	 *
+	 * @param filename
+	 *            The file to write to
+	 * @param header
+	 *            Fields describing the run, written at the top of the object
+	 * @param steps
+	 *            The number of time steps that the run took
+	 * @throws IOException
+	 *             If the file cannot be written
+	 */
+	void writeJson(String filename, Map<String, String> header, long steps) throws IOException {
+		StringBuffer sb = new StringBuffer("{\n");
+		for (Map.Entry<String, String> field : header.entrySet()) {
+			sb.append("  \"" + field.getKey() + "\": " + field.getValue() + ",\n");
+		}
+		sb.append("  \"steps\": " + steps + ",\n");
+		sb.append("  \"operations\": {");
+
+		String sep = "\n";
+		for (Map.Entry<String, Kind> entry : kinds.entrySet()) {
+			Kind kind = entry.getValue();
+			long completed = kind.succeeded + kind.failed;
+			sb.append(sep + "    " + quote(entry.getKey()) + ": {\n");
+			sb.append("      \"started\": " + kind.started + ",\n");
+			sb.append("      \"succeeded\": " + kind.succeeded + ",\n");
+			sb.append("      \"failed\": " + kind.failed + ",\n");
+			sb.append("      \"unfinished\": " + (kind.started - completed) + ",\n");
+			sb.append("      \"throughput\": "
+					+ Math.round(completed * 10000.0 / Math.max(1, steps)) / 10000.0 + ",\n");
+			sb.append("      \"latencySteps\": " + kind.latency.toJson() + ",\n");
+			sb.append("      \"messages\": " + kind.messages.toJson() + ",\n");
+			sb.append("      \"completedPerStep\": [");
+			for (int t = 0; t <= steps; t++) {
+				sb.append((t == 0 ? "" : ", ")
+						+ ((t < kind.completions.length) ? kind.completions[t] : 0));
+			}
+			sb.append("]\n    }");
+			sep = ",\n";
+		}
+		sb.append("\n  }\n}\n");
+
+		FileWriter out = new FileWriter(filename);
+		try {
+			out.write(sb.toString());
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return The string as a JSON string literal
+	 */
+	static String quote(String s) {
+		StringBuffer sb = new StringBuffer("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < ' ') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"').toString();
+	}
+}
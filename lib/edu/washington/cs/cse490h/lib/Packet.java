@@ -6,13 +6,16 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 
 /**
  * <pre>   
  * Packet defines the MessageLayer packet headers and some constants.
  * </pre>   
  */
-public class Packet {
+public class Packet implements Serializable {
+	private static final long serialVersionUID = -3874522530380904327L;
+
 	public static final int HEADER_SIZE = 8;
 	public static final int MAX_PACKET_SIZE = 3000000;  // bytes
 	public static final int MAX_PAYLOAD_SIZE = MAX_PACKET_SIZE - HEADER_SIZE;  // bytes
@@ -27,6 +30,10 @@ public class Packet {
 	
 	private byte[] payload;
 
+	// trace number of the SEND of this packet, see TraceWriter. Not sent,
+	// and not part of a checkpoint
+	transient long traceId;
+
 	static class CorruptPacketException extends IOException {
 		private static final long serialVersionUID = -8471415959243642433L;
 	}
@@ -73,7 +80,7 @@ public class Packet {
 	 *            The payload of the packet.
 	 * @throws IllegalArgumentException
 	 */
-	private Packet(int dest, int src, int protocol, int flags, byte[] payload) throws IllegalArgumentException {
+	Packet(int dest, int src, int protocol, int flags, byte[] payload) throws IllegalArgumentException {
 		if (!isValid(dest, src, payload.length + Packet.HEADER_SIZE)) {
 			throw new IllegalArgumentException("Arguments passed to constructor of Packet are invalid");
 		}
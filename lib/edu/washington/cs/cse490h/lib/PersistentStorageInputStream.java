@@ -1,7 +1,7 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 
 /**
@@ -9,12 +9,12 @@ import java.io.IOException;
  * will store things in the correct place. Students should only use the provided
  * classes to access the disc.
  */
-public class PersistentStorageInputStream extends FileInputStream {
+public class PersistentStorageInputStream extends FilterInputStream {
     private final Node n;
 
     PersistentStorageInputStream(Node n, String filename)
             throws FileNotFoundException {
-        super(Utility.realFilename(n.addr, filename));
+        super(Utility.storage.openInput(n.addr, filename));
         this.n = n;
     }
 
@@ -22,22 +22,25 @@ public class PersistentStorageInputStream extends FileInputStream {
     public int read() throws IOException {
         int ret = super.read();
         byte[] bytes = new byte[] { (byte) ret };
-        n.handleDiskReadEvent("b:" + n.storageBytesToString(bytes));
+        n.handleDiskReadEvent("b:" + describe(bytes),
+                (ret < 0) ? 0 : 1);
         return ret;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int ret = super.read(b, off, len);
-        n.handleDiskReadEvent("b:" + n.storageBytesToString(b) + " offset:"
-                + off + " len:" + len);
+        int ret = in.read(b, off, len);
+        n.handleDiskReadEvent("b:" + describe(b) + " offset:"
+                + off + " len:" + len, Math.max(ret, 0));
         return ret;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        int ret = super.read(b);
-        n.handleDiskReadEvent("b:" + n.storageBytesToString(b));
+        // straight to the backend, FilterInputStream would log this twice
+        int ret = in.read(b, 0, b.length);
+        n.handleDiskReadEvent("b:" + describe(b),
+                Math.max(ret, 0));
         return ret;
     }
 
@@ -46,4 +49,11 @@ public class PersistentStorageInputStream extends FileInputStream {
         n.handleDiskReadEvent("skipN:" + skipN);
         return super.skip(skipN);
     }
+
+    /**
+     * Describe bytes for the synoptic log, but only if there is a log.
+     */
+    private String describe(byte[] b) {
+        return n.synopticLogging() ? n.storageBytesToString(b) : "";
+    }
 }
@@ -1,7 +1,6 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 
 /**
@@ -14,48 +13,66 @@ import java.io.IOException;
  * write('a'); write('b'); write('c'); newLine(); has a higher chance of causing
  * a crash than write("abc\n");
  */
-public class PersistentStorageOutputStream extends FileOutputStream {
-    private final File f;
+public class PersistentStorageOutputStream extends FilterOutputStream {
+    private final String filename;
     private final Node n;
 
-    PersistentStorageOutputStream(Node n, File f, boolean append)
+    PersistentStorageOutputStream(Node n, String filename, boolean append)
             throws IOException {
-        super(f, append);
+        super(Utility.storage.openOutput(n.addr, filename, append));
         this.n = n;
-        this.f = f;
+        this.filename = filename;
     }
 
     // methods for the file writer
     @Override
     public void write(byte[] b) throws IOException {
-        n.handleDiskWriteEvent("write(b)", "b:" + n.storageBytesToString(b));
+        n.handleDiskWriteEvent("write(b)", "b:" + describe(b),
+                b.length);
 
-        super.write(b);
-        super.flush();
+        // straight to the backend, FilterOutputStream would go byte by byte
+        out.write(b, 0, b.length);
+        flushToStorage(b.length);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
         n.handleDiskWriteEvent("write(b, " + off + ", " + len + ")", "b:"
-                + n.storageBytesToString(b) + " offset:" + off + " len:" + len);
+                + describe(b) + " offset:" + off + " len:" + len,
+                len);
 
-        super.write(b, off, len);
-        super.flush();
+        out.write(b, off, len);
+        flushToStorage(len);
     }
 
     @Override
     public void write(int b) throws IOException {
-        n.handleDiskWriteEvent("write(" + b + ")", "buf:" + b);
+        n.handleDiskWriteEvent("write(" + b + ")", "buf:" + b, 1);
 
-        super.write(b);
-        super.flush();
+        out.write(b);
+        flushToStorage(1);
     }
 
     public boolean delete() throws IOException {
-        n.handleDiskWriteEvent("delete of" + f.getName(), "delete:"
-                + f.getName());
+        n.handleDiskWriteEvent("delete of" + filename, "delete:" + filename);
 
         close();
-        return f.delete();
+        return Utility.storage.delete(n.addr, filename);
+    }
+
+    /**
+     * Flush the write through to the storage backend.
+     */
+    private void flushToStorage(int bytes) throws IOException {
+        Object flight = FlightEvents.beginStorageFlush();
+        out.flush();
+        FlightEvents.endStorageFlush(flight, n.addr, filename, bytes);
+    }
+
+    /**
+     * Describe bytes for the synoptic log, but only if there is a log.
+     */
+    private String describe(byte[] b) {
+        return n.synopticLogging() ? n.storageBytesToString(b) : "";
     }
 }
@@ -2,8 +2,8 @@ package edu.washington.cs.cse490h.lib;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
 /**
  * File reader abstraction. This is basically a wrapped BufferedReader except it
@@ -15,7 +15,8 @@ public class PersistentStorageReader extends BufferedReader {
 
     PersistentStorageReader(Node n, String filename)
             throws FileNotFoundException {
-        super(new FileReader(Utility.realFilename(n.addr, filename)));
+        super(new InputStreamReader(Utility.storage.openInput(n.addr,
+                filename)));
         this.n = n;
     }
 
@@ -23,29 +24,43 @@ public class PersistentStorageReader extends BufferedReader {
     public int read() throws IOException {
         int ret = super.read();
         char[] chars = new char[] { (char) ret };
-        n.handleDiskReadEvent("cbuf:" + Utility.logEscape(new String(chars)));
+        n.handleDiskReadEvent("cbuf:" + escape(chars),
+                (ret < 0) ? 0 : 1);
         return ret;
     }
 
     @Override
     public int read(char[] cbuf, int off, int len) throws IOException {
         int ret = super.read(cbuf, off, len);
-        n.handleDiskReadEvent("cbuf:" + Utility.logEscape(new String(cbuf))
-                + " offset:" + off + " len:" + len);
+        n.handleDiskReadEvent("cbuf:" + escape(cbuf)
+                + " offset:" + off + " len:" + len, Math.max(ret, 0));
         return ret;
     }
 
     @Override
     public String readLine() throws IOException {
         String ret = super.readLine();
-        n.handleDiskReadEvent("readline: " + Utility.logEscape(ret));
+        n.handleDiskReadEvent("readline: " + escape(ret),
+                (ret == null) ? 0 : ret.length() + 1);
         return ret;
     }
     
     @Override
     public int read(char[] buf) throws IOException {
     	int numChars = super.read(buf);
-        n.handleDiskReadEvent("read: " + Utility.logEscape("" + numChars));
+        n.handleDiskReadEvent("read: " + Utility.logEscape("" + numChars),
+                Math.max(numChars, 0));
         return numChars;
     }
-}
\ No newline at end of file
+
+    /**
+     * Escape text for the synoptic log, but only if there is a log.
+     */
+    private String escape(String s) {
+        return n.synopticLogging() ? Utility.logEscape(s) : "";
+    }
+
+    private String escape(char[] cbuf) {
+        return n.synopticLogging() ? Utility.logEscape(new String(cbuf)) : "";
+    }
+}
@@ -1,9 +1,8 @@
 package edu.washington.cs.cse490h.lib;
 
 import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 /**
@@ -18,109 +17,190 @@ import java.io.Writer;
  */
 // TODO: byte stream rather than character stream
 public class PersistentStorageWriter extends BufferedWriter {
-    private final File f;
+    private static final String LINE_SEPARATOR = System.getProperty(
+            "line.separator");
+
+    private final String filename;
     private final Node n;
 
-    PersistentStorageWriter(Node n, File f, boolean append) throws IOException {
-        super(new FileWriter(f, append));
+    PersistentStorageWriter(Node n, String filename, boolean append)
+            throws IOException {
+        super(new OutputStreamWriter(Utility.storage.openOutput(n.addr,
+                filename, append)));
         this.n = n;
-        this.f = f;
+        this.filename = filename;
     }
 
+    // how many of the methods below the current call is inside of. Writer
+    // implements its convenience methods through the other write methods,
+    // which are overridden here too, see diskWrite()
+    private int nested = 0;
+
     // methods for the file writer
     @Override
     public void write(int c) throws IOException {
-        n.handleDiskWriteEvent("write(" + c + ")", "buf:"
-                + Utility.logEscape("" + c));
+        diskWrite("write(" + c + ")", "buf:"
+                + Utility.logEscape("" + c), 1);
 
         super.write(c);
-        super.flush();
+        flushToStorage(1);
     }
 
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
-        n.handleDiskWriteEvent("write(cbuf, " + off + ", " + len + ")", "buf:"
-                + Utility.logEscape(new String(cbuf)) + " offset:" + off
-                + " len:" + len);
+        diskWrite("write(cbuf, " + off + ", " + len + ")", "buf:"
+                + escape(cbuf) + " offset:" + off
+                + " len:" + len, len);
 
         super.write(cbuf, off, len);
-        super.flush();
+        flushToStorage(len);
     }
 
     @Override
     public void write(String s, int off, int len) throws IOException {
-        n.handleDiskWriteEvent("write(s, " + off + ", " + len + ")", "buf:"
-                + Utility.logEscape(s) + " offset:" + off + " len:" + len);
+        diskWrite("write(s, " + off + ", " + len + ")", "buf:"
+                + escape(s) + " offset:" + off + " len:" + len, len);
 
         super.write(s, off, len);
-        super.flush();
+        flushToStorage(len);
     }
 
     @Override
     public void newLine() throws IOException {
-        n.handleDiskWriteEvent("newLine()", "newline");
-
-        super.newLine();
-        super.flush();
+        diskWrite("newLine()", "newline", LINE_SEPARATOR.length());
+
+        nested++;
+        try {
+            super.newLine();
+        } finally {
+            nested--;
+        }
+        flushToStorage(LINE_SEPARATOR.length());
     }
 
     @Override
     public void write(char[] cbuf) throws IOException {
-        n.handleDiskWriteEvent("write(cbuf)", "buf:"
-                + Utility.logEscape(new String(cbuf)));
-
-        super.write(cbuf);
-        super.flush();
+        diskWrite("write(cbuf)", "buf:"
+                + escape(cbuf), cbuf.length);
+
+        nested++;
+        try {
+            super.write(cbuf);
+        } finally {
+            nested--;
+        }
+        flushToStorage(cbuf.length);
     }
 
     @Override
     public Writer append(CharSequence csq) throws IOException {
-        n.handleDiskWriteEvent("append(csq)", "append buf:"
-                + Utility.logEscape("" + csq));
-
-        Writer ret = super.append(csq);
-        super.flush();
-
-        return ret;
+        String s = String.valueOf(csq);
+        diskWrite("append(csq)", "append buf:" + escape(s),
+                s.length());
+
+        nested++;
+        try {
+            super.append(csq);
+        } finally {
+            nested--;
+        }
+        flushToStorage(s.length());
+
+        return this;
     }
 
     @Override
     public Writer append(CharSequence csq, int start, int end)
             throws IOException {
-        n.handleDiskWriteEvent("append(csq, " + start + ", " + end + ")",
-                "append buf:" + Utility.logEscape("" + csq) + " start:" + start
-                        + " end:" + end);
-
-        Writer ret = super.append(csq, start, end);
-        super.flush();
-
-        return ret;
+        diskWrite("append(csq, " + start + ", " + end + ")",
+                "append buf:" + escape("" + csq) + " start:" + start
+                        + " end:" + end, end - start);
+
+        nested++;
+        try {
+            super.append(csq, start, end);
+        } finally {
+            nested--;
+        }
+        flushToStorage(end - start);
+
+        return this;
     }
 
     @Override
     public Writer append(char c) throws IOException {
-        n.handleDiskWriteEvent("append(" + c + ")", "append buf:"
-                + Utility.logEscape(String.valueOf(c)));
-
-        Writer ret = super.append(c);
-        super.flush();
-
-        return ret;
+        diskWrite("append(" + c + ")", "append buf:"
+                + Utility.logEscape(String.valueOf(c)), 1);
+
+        nested++;
+        try {
+            super.append(c);
+        } finally {
+            nested--;
+        }
+        flushToStorage(1);
+
+        return this;
     }
 
     @Override
     public void write(String str) throws IOException {
-        n.handleDiskWriteEvent("write(str)", "buf:" + Utility.logEscape(str));
-
-        super.write(str);
-        super.flush();
+        diskWrite("write(str)", "buf:" + escape(str),
+                str.length());
+
+        nested++;
+        try {
+            super.write(str);
+        } finally {
+            nested--;
+        }
+        flushToStorage(str.length());
     }
 
     public boolean delete() throws IOException {
-        n.handleDiskWriteEvent("delete of" + f.getName(), "delete:"
-                + f.getName());
+        n.handleDiskWriteEvent("delete of" + filename, "delete:" + filename);
 
         close();
-        return f.delete();
+        return Utility.storage.delete(n.addr, filename);
+    }
+
+    /**
+     * Check whether the node crashes before a modification, and charge it as
+     * a storage operation unless it is part of one that was charged already.
+     * A write(str) comes through write(s, off, len) as well, and that nested
+     * call still checks for a crash, as it always did, so that a seeded run
+     * draws the same random numbers as before storage was charged.
+     */
+    private void diskWrite(String description, String synDescription,
+            int bytes) {
+        if (nested == 0) {
+            n.handleDiskWriteEvent(description, synDescription, bytes);
+        } else {
+            n.checkDiskWriteCrash(description);
+        }
+    }
+
+    /**
+     * Flush the buffered write through to the storage backend, once the
+     * outermost call is done with it.
+     */
+    private void flushToStorage(int bytes) throws IOException {
+        if (nested > 0) {
+            return;
+        }
+        Object flight = FlightEvents.beginStorageFlush();
+        super.flush();
+        FlightEvents.endStorageFlush(flight, n.addr, filename, bytes);
+    }
+
+    /**
+     * Escape text for the synoptic log, but only if there is a log.
+     */
+    private String escape(String s) {
+        return n.synopticLogging() ? Utility.logEscape(s) : "";
+    }
+
+    private String escape(char[] cbuf) {
+        return n.synopticLogging() ? Utility.logEscape(new String(cbuf)) : "";
     }
 }
@@ -2,7 +2,6 @@ package edu.washington.cs.cse490h.lib;
 
 import java.io.BufferedReader;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -17,6 +16,9 @@ import edu.washington.cs.cse490h.lib.Packet.CorruptPacketException;
  * This utility is meant to provide an opportunity to output more debugging
  * information about a previous execution. In the emulator environment
  * particularly, the execution may not be valid if the implementation changes.
+ * 
+ * Replay files are read through a memory-mapped file. If the replay file has
+ * an index, see ReplayIndex, a replay can seek to the indexed time steps.
  */
 public class Replay {
 	static class ReplayException extends RuntimeException {
@@ -28,8 +30,14 @@ public class Replay {
 
 	protected static Manager parent;
 
+	private static MappedFileInputStream mappedIn;
 	private static DataInputStream replayIn;
-	protected static DataOutputStream replayOut;
+	// whether replayIn uses the compact encoding, see ReplayRecorder
+	private static boolean compactIn;
+	private static String replayInFilename;
+	// read when a replay first seeks
+	private static ReplayIndex index;
+	protected static ReplayRecorder replayOut;
 	private static BufferedReader keyboard;
 	private static boolean controlInput;	//TODO: enable replay without user input
 
@@ -41,26 +49,67 @@ public class Replay {
 	/**
 	 * Initialize the replay.
 	 * 
-	 * @param in
-	 *            The datastream for the replay input file, or null if this is
-	 *            not a replay execution
+	 * @param filename
+	 *            The replay input file, or null if this is not a replay
+	 *            execution
 	 * @return The seed for the replay if this is a replay execution, -1
 	 *         otherwise
 	 * @throws IOException
-	 *             If there is a problem with the keyboard BufferedReader
+	 *             If there is a problem with the replay input file or the
+	 *             keyboard BufferedReader
 	 */
-	protected static long init(DataInputStream in, boolean controlInput) throws IOException {
-		replayIn = in;
+	protected static long init(String filename, boolean controlInput) throws IOException {
 		Replay.controlInput = controlInput;
+		replayInFilename = filename;
+		index = null;
 
-		if (in != null) {
-			return Replay.replayIn.readLong();
+		if (filename != null) {
+			mappedIn = new MappedFileInputStream(filename);
+			replayIn = new DataInputStream(mappedIn);
+			long seed = Replay.replayIn.readLong();
+			compactIn = (seed == ReplayRecorder.COMPACT_MAGIC);
+			if (compactIn) {
+				seed = Replay.replayIn.readLong();
+			}
+			return seed;
 		} else {
+			mappedIn = null;
+			replayIn = null;
 			keyboard = new BufferedReader(new InputStreamReader(System.in));
 			return -1;
 		}
 	}
 
+	/**
+	 * Continue the replay at the beginning of a time step, or of the last
+	 * indexed step before it.
+	 * 
+	 * @param step
+	 *            The time step to seek to
+	 * @return The time step the replay continues at
+	 * @throws ReplayException
+	 *             If this is not a replay execution, the replay file has no
+	 *             index, or the index has no step at or before the given one
+	 */
+	protected static long seek(long step) {
+		if (mappedIn == null) {
+			throw new ReplayException("Cannot seek, this is not a replay execution");
+		}
+		try {
+			if (index == null) {
+				index = new ReplayIndex(replayInFilename);
+			}
+			int entry = index.floor(step);
+			if (entry < 0) {
+				throw new ReplayException("The replay index has no time step at or before " + step);
+			}
+			mappedIn.seek(index.offset(entry));
+			return index.step(entry);
+		} catch (IOException e) {
+			throw new ReplayException("Cannot seek in replay file " + replayInFilename + ": " + e);
+		}
+	}
+
 	/**
 	 * Test if this is a replay execution
 	 * 
@@ -150,7 +199,7 @@ public class Replay {
 		Packet pkt;
 		
 		do {
-			pkt = Packet.unpack(replayIn);
+			pkt = compactIn ? ReplayRecorder.readCompact(replayIn) : Packet.unpack(replayIn);
 			if (pkt == null) {
 				System.out.println("Reached end of deterministic replay.  Stopping...");
 				parent.stop();
@@ -197,17 +246,24 @@ public class Replay {
 
 		if (replayOut != null) {
 			// record the user input to the replay output file
-			try {
-				if (input != null) {
-					replayOut.write(Replay.getUserPacket(input).pack());
-				} else {
-					replayOut.write(Replay.getUserPacket("").pack());
-				}
-			} catch (IOException e) {
-				throw new ReplayException("Error while writing replay file");
+			if (input != null) {
+				replayOut.record(Replay.getUserPacket(input));
+			} else {
+				replayOut.record(Replay.getUserPacket(""));
 			}
 		}
 
 		return input;
 	}
+
+	/**
+	 * Write out the rest of the replay output file, if there is one, and
+	 * close it.
+	 */
+	protected static void close() {
+		if (replayOut != null) {
+			replayOut.close();
+			replayOut = null;
+		}
+	}
 }
@@ -0,0 +1,95 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <pre>
+ * The index of a replay file, which ReplayRecorder writes next to it with the
+ * suffix SUFFIX. It maps time steps to the offset in the replay file where
+ * the records of the step begin:
+ *
+ *   header:  MAGIC (8 bytes)
+ *   entry:   time step (8 bytes), offset (8 bytes)
+ *
+ * Entries are in the order of their steps. The recorder writes an entry every
+ * replayIndexInterval steps, and for the steps it is asked to, such as the
+ * ones that have a checkpoint. An entry is only written once the records
+ * before its offset are on disk, so the index never points past the end of
+ * the replay file.
+ *
+ * The index is read through a memory-mapped file, and searched in place.
+ * </pre>
+ */
+class ReplayIndex {
+	/** Suffix of the index filename, after the replay filename */
+	public static final String SUFFIX = ".idx";
+	/** First long of an index file, "490RIDX1" */
+	public static final long MAGIC = 0x3439305249445831L;
+
+	private final LongBuffer entries;
+	private final int count;
+
+	/**
+	 * Open the index of a replay file.
+	 *
+	 * @throws IOException
+	 *             If the index cannot be read or is not an index
+	 */
+	public ReplayIndex(String replayFilename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(replayFilename + SUFFIX, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if (size < 8) {
+				throw new IOException("Not a replay index");
+			}
+			// an entry cut off by a crash is left out
+			count = (int) ((size - 8) / 16);
+			entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8 + 16L * count).asLongBuffer();
+			if (entries.get(0) != MAGIC) {
+				throw new IOException("Not a replay index");
+			}
+		} finally {
+			// the mapping stays valid
+			file.close();
+		}
+	}
+
+	/**
+	 * @return The number of entries
+	 */
+	public int size() {
+		return count;
+	}
+
+	public long step(int entry) {
+		return entries.get(1 + 2 * entry);
+	}
+
+	public long offset(int entry) {
+		return entries.get(2 + 2 * entry);
+	}
+
+	/**
+	 * @return The last entry of a step at or before the given one, or -1 if
+	 *         there is none
+	 */
+	public int floor(long step) {
+		int lo = 0;
+		int hi = count - 1;
+		int found = -1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (step(mid) <= step) {
+				found = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,395 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.DataInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import edu.washington.cs.cse490h.lib.Packet.CorruptPacketException;
+
+/**
+ * <pre>
+ * Records the replay output file, see Replay. Packets are encoded into a
+ * buffer on the node thread, and a background thread writes the buffer out.
+ * At the end of each time step the buffer is handed to that thread, which
+ * writes it and forces it to disk, so that a crash loses at most the steps
+ * that were not written yet, and a replay file always ends between two
+ * steps. If the disk falls behind, the node waits for it rather than losing
+ * the replay.
+ *
+ * A replay file starts with the seed, followed by the packets as Packet.pack()
+ * writes them. The compact encoding starts with COMPACT_MAGIC instead,
+ * followed by the seed, and each packet is:
+ *
+ *   kind:    1 byte, NULL_PACKET for the null packet that ends the incoming
+ *            messages of a step, or PACKET
+ *   packet:  dest, src, protocol, flags (1 byte each), payload length
+ *            (varint, 7 bits per byte, low bits first), payload
+ *
+ * which saves 7 of the 8 bytes of the null packet the Emulator records every
+ * step.
+ *
+ * Unless the index interval is 0, the recorder also writes the index of the
+ * file, see ReplayIndex.
+ * </pre>
+ */
+class ReplayRecorder {
+	/** First long of a compact replay file, "490RPLY1" */
+	public static final long COMPACT_MAGIC = 0x34393052504C5931L;
+
+	private static final int NULL_PACKET = 0;
+	private static final int PACKET = 1;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * Records handed to the flusher thread, and the index entries that point
+	 * into them or before them
+	 */
+	private static class Chunk {
+		final byte[] data;
+		final byte[] index;
+
+		Chunk(byte[] data, byte[] index) {
+			this.data = data;
+			this.index = index;
+		}
+	}
+
+	private static final Chunk END = new Chunk(null, null);
+
+	private final String filename;
+	private final boolean compact;
+	private final int indexInterval;
+	private final BlockingQueue<Chunk> chunks;
+	private final Thread flusherThread;
+
+	// guarded by this
+	private byte[] buf;
+	private int pos;
+	// bytes recorded so far, including those handed off
+	private long recorded;
+	private byte[] indexBuf;
+	private int indexPos;
+	// whether to index the next step even if the interval does not say so
+	private boolean indexNext;
+
+	// set by the flusher thread if the file could not be written
+	private volatile IOException failure;
+
+	/**
+	 * Create a replay file and start the thread that writes it.
+	 *
+	 * @param seed
+	 *            The seed of the execution, the first thing in the file
+	 * @param compact
+	 *            Whether to use the compact encoding
+	 * @param indexInterval
+	 *            Index every this many steps, 0 for no index
+	 * @throws IOException
+	 *             If the file cannot be created
+	 */
+	public ReplayRecorder(String filename, long seed, boolean compact, int indexInterval)
+			throws IOException {
+		this.filename = filename;
+		this.compact = compact;
+		this.indexInterval = Math.max(0, indexInterval);
+		final FileOutputStream out = new FileOutputStream(filename);
+		final FileOutputStream indexOut = (this.indexInterval == 0) ? null
+				: new FileOutputStream(filename + ReplayIndex.SUFFIX);
+		chunks = new LinkedBlockingQueue<Chunk>(64);
+		buf = new byte[CHUNK_SIZE];
+		pos = 0;
+		recorded = 0;
+		indexBuf = new byte[256];
+		indexPos = 0;
+		indexNext = false;
+
+		if (compact) {
+			writeLong(COMPACT_MAGIC);
+		}
+		writeLong(seed);
+		if (indexOut != null) {
+			indexLong(ReplayIndex.MAGIC);
+		}
+
+		flusherThread = new Thread("replay recorder") {
+			@Override
+			public void run() {
+				writeChunks(out, indexOut);
+			}
+		};
+		// stop() closes the recorder, a forgotten one must not keep the JVM up
+		flusherThread.setDaemon(true);
+		flusherThread.start();
+		handOff();
+	}
+
+	/**
+	 * Record a packet.
+	 *
+	 * @throws Replay.ReplayException
+	 *             If the replay file could not be written
+	 */
+	public synchronized void record(Packet pkt) {
+		if (failure != null) {
+			throw new Replay.ReplayException("Error while writing replay file " + filename + ": "
+					+ failure);
+		}
+
+		byte[] payload = pkt.getPayload();
+		if (compact && Replay.isNullPacket(pkt)) {
+			ensureRoom(1);
+			buf[pos++] = NULL_PACKET;
+			recorded++;
+		} else if (compact) {
+			ensureRoom(payload.length + 10);
+			int start = pos;
+			buf[pos++] = PACKET;
+			buf[pos++] = (byte) pkt.getDest();
+			buf[pos++] = (byte) pkt.getSrc();
+			buf[pos++] = (byte) pkt.getProtocol();
+			buf[pos++] = (byte) pkt.getFlags();
+			int length = payload.length;
+			while ((length & ~0x7F) != 0) {
+				buf[pos++] = (byte) ((length & 0x7F) | 0x80);
+				length >>>= 7;
+			}
+			buf[pos++] = (byte) length;
+			System.arraycopy(payload, 0, buf, pos, payload.length);
+			pos += payload.length;
+			recorded += pos - start;
+		} else {
+			byte[] packed = pkt.pack();
+			ensureRoom(packed.length);
+			System.arraycopy(packed, 0, buf, pos, packed.length);
+			pos += packed.length;
+			recorded += packed.length;
+		}
+	}
+
+	/**
+	 * Hand what was recorded during the step to the flusher thread, which
+	 * writes it and forces it to disk. The index gets an entry for the next
+	 * step if it is due one.
+	 *
+	 * @param nextStep
+	 *            The time step that begins
+	 */
+	public synchronized void endStep(long nextStep) {
+		if (indexInterval > 0 && (indexNext || nextStep % indexInterval == 0)) {
+			indexLong(nextStep);
+			indexLong(recorded);
+			indexNext = false;
+		}
+		handOff();
+	}
+
+	/**
+	 * Make sure that the index has an entry for the next time step, so that a
+	 * replay can seek to exactly that step.
+	 */
+	public synchronized void indexNextStep() {
+		indexNext = true;
+	}
+
+	/**
+	 * Write out what is left, wait for the flusher thread to finish and close
+	 * the file.
+	 */
+	public void close() {
+		synchronized (this) {
+			handOff();
+		}
+		put(END);
+		boolean interrupted = false;
+		while (flusherThread.isAlive()) {
+			try {
+				flusherThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			System.err.println("Warning: the replay in " + filename + " is incomplete: " + failure);
+		}
+	}
+
+	/**
+	 * Read a packet of a compact replay file.
+	 *
+	 * @return The packet, or null if the file is at its end
+	 * @throws CorruptPacketException
+	 *             If the file is corrupted
+	 */
+	static Packet readCompact(DataInputStream in) throws CorruptPacketException {
+		try {
+			int kind = in.read();
+			if (kind == -1) {
+				return null;
+			}
+			if (kind == NULL_PACKET) {
+				return Replay.getNullPacket();
+			}
+			if (kind != PACKET) {
+				throw new CorruptPacketException();
+			}
+			int dest = in.readUnsignedByte();
+			int src = in.readUnsignedByte();
+			int protocol = in.readUnsignedByte();
+			int flags = in.readUnsignedByte();
+			int length = 0;
+			for (int shift = 0;; shift += 7) {
+				int b = in.readUnsignedByte();
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+				if (shift > 21) {
+					throw new CorruptPacketException();
+				}
+			}
+			if (length > Packet.MAX_PAYLOAD_SIZE) {
+				throw new CorruptPacketException();
+			}
+			byte[] payload = new byte[length];
+			in.readFully(payload);
+			return new Packet(dest, src, protocol, flags, payload);
+		} catch (IOException e) {
+			throw new CorruptPacketException();
+		} catch (IllegalArgumentException e) {
+			throw new CorruptPacketException();
+		}
+	}
+
+	/**
+	 * Hand the records and index entries so far to the flusher thread.
+	 */
+	private void handOff() {
+		if (pos == 0 && indexPos == 0) {
+			return;
+		}
+		byte[] data = new byte[pos];
+		System.arraycopy(buf, 0, data, 0, pos);
+		byte[] index = null;
+		if (indexPos > 0) {
+			index = new byte[indexPos];
+			System.arraycopy(indexBuf, 0, index, 0, indexPos);
+		}
+		pos = 0;
+		indexPos = 0;
+		put(new Chunk(data, index));
+	}
+
+	private void ensureRoom(int size) {
+		if (pos + size > buf.length) {
+			handOff();
+			if (size > buf.length) {
+				buf = new byte[size];
+			}
+		}
+	}
+
+	private void writeLong(long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			buf[pos++] = (byte) (value >>> shift);
+		}
+		recorded += 8;
+	}
+
+	private void indexLong(long value) {
+		if (indexPos + 8 > indexBuf.length) {
+			byte[] bigger = new byte[2 * indexBuf.length];
+			System.arraycopy(indexBuf, 0, bigger, 0, indexPos);
+			indexBuf = bigger;
+		}
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			indexBuf[indexPos++] = (byte) (value >>> shift);
+		}
+	}
+
+	private void put(Chunk chunk) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				chunks.put(chunk);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Body of the flusher thread. Whatever chunks are waiting are written
+	 * together and forced to disk once, and only then their index entries are
+	 * written. It keeps taking chunks after a failure, so that the node never
+	 * blocks on a dead file.
+	 */
+	private void writeChunks(FileOutputStream out, FileOutputStream indexOut) {
+		ArrayList<byte[]> indexes = new ArrayList<byte[]>();
+		boolean done = false;
+		while (!done) {
+			Chunk chunk;
+			try {
+				chunk = chunks.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			boolean written = false;
+			while (chunk != null) {
+				if (chunk == END) {
+					done = true;
+					break;
+				}
+				if (failure == null) {
+					try {
+						out.write(chunk.data);
+						written = true;
+					} catch (IOException e) {
+						failure = e;
+					}
+				}
+				if (chunk.index != null) {
+					indexes.add(chunk.index);
+				}
+				chunk = chunks.poll();
+			}
+			if (written && failure == null) {
+				try {
+					out.getChannel().force(false);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			if (indexOut != null && failure == null) {
+				try {
+					for (byte[] index : indexes) {
+						indexOut.write(index);
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			indexes.clear();
+		}
+		try {
+			out.close();
+			if (indexOut != null) {
+				indexOut.close();
+			}
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package edu.washington.cs.cse490h.lib;
+
+/**
+ * Management interface of one address on the Router, see Management. Packets
+ * in are the ones the node sent, packets out the ones the Router delivered to
+ * it. Counts go on across reconnects.
+ */
+public interface RoutedNodeMXBean {
+	public int getAddress();
+
+	public boolean isConnected();
+
+	/**
+	 * @return The IP address and port of the node, or null if it is down
+	 */
+	public String getRemoteAddress();
+
+	/**
+	 * @return The number of packets queued until the node comes back up
+	 */
+	public int getDownQueueLength();
+
+	public long getPacketsIn();
+
+	public long getBytesIn();
+
+	public long getPacketsOut();
+
+	public long getBytesOut();
+
+	/**
+	 * @return The number of packets dropped because the queue kept for the
+	 *         node while it was down held too many or too old ones, see
+	 *         DownQueue
+	 */
+	public long getPacketsDropped();
+
+	public double getPacketsInPerSecond();
+
+	public double getBytesInPerSecond();
+
+	public double getPacketsOutPerSecond();
+
+	public double getBytesOutPerSecond();
+
+	/**
+	 * Throw away the packets queued for this node while it is down.
+	 *
+	 * @return The number of packets thrown away
+	 */
+	public int flushDownQueue();
+}
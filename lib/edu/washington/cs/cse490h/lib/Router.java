@@ -1,15 +1,18 @@
 package edu.washington.cs.cse490h.lib;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.InetAddress;
-import java.util.Collections;
+import java.nio.channels.ServerSocketChannel;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.IOException;
 import java.lang.Integer;
+import java.util.logging.Level;
 
 import plume.Option;
 import plume.OptionGroup;
@@ -20,25 +23,39 @@ import plume.Options;
  *
  * Simply routes packets in the network and stores queued packets to failed
  * nodes. It works by listening for new TCP connections. The Router sends the
- * address that the emulated node should use and forks off a new thread to deal
- * with the connection.
+ * address that the emulated node should use and forks off new threads to deal
+ * with the connection, or, with event loops, hands the connection to one of a
+ * few threads that serve all the nodes without blocking, see SelectorLoop.
  *
  * Usage: java Router [options]
  *
  * General Options:
- *   -h --help=<boolean>    - Print usage message [default false]
- *   -v --version=<boolean> - Print program version [default false]
+ *   -h --help=<boolean>        - Print usage message [default false]
+ *   -v --version=<boolean>     - Print program version [default false]
  *
  * Execution Options:
- *   -p --localPort=<int>   - Local UDP port [default -1]
+ *   -p --localPort=<int>       - Local UDP port [default -1]
+ *   --eventLoops=<int>         - Event loops serving the nodes, 0 for a thread per node [default 0]
+ *   --virtualThreads=<boolean> - Serve each node from a virtual thread, with eventLoops 0 [default false]
+ *   --outQueueLength=<int>     - Packets that can wait to be written to a node before more are held back [default 16384]
+ *   --downQueueMemory=<int>    - Packets kept in memory for a failed node before they spill to disk [default 1024]
+ *   --downQueueDir=<string>    - Directory to spill packets for failed nodes to, the temporary directory if empty [default ]
+ *   --downQueueMaxBytes=<long> - Bytes of packets kept for a failed node, 0 for no limit [default 268435456]
+ *   --downQueueMaxAge=<int>    - Seconds a packet is kept for a failed node, 0 for no limit [default 0]
+ *
+ * The Router can be watched and managed over JMX while it runs, see
+ * Management and RouterMXBean.
  *
  * </pre>
  */
-public class Router {
+public class Router implements RouterMXBean {
 	private static Router router = null;
 	private ServerSocket socket;
-	// emulatedNodes is also used as a lock
-	protected Map<Integer, NodeContainer> emulatedNodes;
+	// safe to iterate over without a lock, so that broadcasts from several
+	// nodes go on at once
+	protected ConcurrentHashMap<Integer, NodeContainer> emulatedNodes;
+	// packets in and out of each address, kept across reconnects
+	private Map<Integer, Throughput> throughputs;
 
 	/**
 	 * Construct a new Router
@@ -49,20 +66,40 @@ public class Router {
 	 *             If there is an error creating the socket server
 	 */
 	private Router(int port) throws IOException {
-		socket = new ServerSocket(port);
-		emulatedNodes = Collections.synchronizedMap( new HashMap<Integer, NodeContainer>() ) ;
+		if (eventLoops > 0) {
+			// the event loops need channels, which only come from a channel
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			channel.socket().bind(new InetSocketAddress(port));
+			socket = channel.socket();
+		} else {
+			socket = new ServerSocket(port);
+		}
+		emulatedNodes = new ConcurrentHashMap<Integer, NodeContainer>();
+		throughputs = new HashMap<Integer, Throughput>();
 	}
 
 	/**
 	 * Start up the Router. It sits and listens for new connections, and spawns
-	 * a new thread for each one.
+	 * a new thread for each one, or hands them to the event loops in turn.
 	 */
 	protected void start() {
-		System.out.println("Router awaiting nodes...");
+		SelectorLoop[] loops = new SelectorLoop[eventLoops];
+		for (int i = 0; i < loops.length; i++) {
+			try {
+				loops[i] = new SelectorLoop("event loop " + i);
+			} catch (IOException e) {
+				System.err.println("Router could not start its event loops. Exception: " + e);
+				return;
+			}
+		}
+		int nextLoop = 0;
+
+		Management.log(Level.INFO, "Router awaiting nodes...");
 
 		while(true) {
 			try {
-				Socket nodeSocket = socket.accept();
+				Socket nodeSocket = (loops.length == 0) ? socket.accept()
+						: socket.getChannel().accept().socket();
 
 				InetAddress ipAddress = nodeSocket.getInetAddress();
 				int port = nodeSocket.getPort();
@@ -76,13 +113,21 @@ public class Router {
 						old.quit(null);
 					}
 
-					// find a virtual address to assign to the new node
-					int address = nodeSocket.getInputStream().read();
-					
 					// Disable Nagle
 					nodeSocket.setTcpNoDelay(true);
 
-					System.out.println("Connecting to " + ipAddress + ":" + port + " with addr: " + address);
+					if (loops.length > 0) {
+						// the node joins once its loop has read its address
+						nodeSocket.getChannel().configureBlocking(false);
+						new NioConnection(this, loops[nextLoop], nodeSocket.getChannel(), ipAddress, port);
+						nextLoop = (nextLoop + 1) % loops.length;
+						continue;
+					}
+
+					// find a virtual address to assign to the new node
+					int address = nodeSocket.getInputStream().read();
+
+					Management.log(Level.INFO, "Connecting to " + ipAddress + ":" + port + " with addr: " + address);
 
 					EmulatedNode newNode = new EmulatedNode(this, nodeSocket, address, ipAddress, port);
 					nodeJoin(address, newNode);
@@ -97,7 +142,7 @@ public class Router {
 	 * Stop the Router
 	 */
 	protected void exit() {
-		System.out.println("Router exiting...");
+		Management.log(Level.INFO, "Router exiting...");
 		System.exit(0);
 	}
 
@@ -108,28 +153,84 @@ public class Router {
 	 *            The virtual address of the node that is quitting
 	 * @param queue
 	 *            The queue of in-transit packets gotten from the termination
-	 *            protocol.  Can be empty.
+	 *            protocol, or the packets that were not written to the node
+	 *            before its connection broke.  Can be empty.
 	 */
 	protected void nodeQuit(int address, LinkedList<Packet> queue) {
 		emulatedNodes.get(address).quit(queue);
 	}
 
 	/**
-	 * Called by the start thread to create a new emulated node
+	 * Called by the start thread, or an event loop, to create a new emulated
+	 * node
 	 *
 	 * @param address
 	 *            The virtual address of the new node
 	 * @param newNode
-	 *            The new emulated node object
+	 *            The connection to the new emulated node
 	 */
-	private void nodeJoin(int address, EmulatedNode newNode) {
-		if (emulatedNodes.containsKey(address)) {
-			emulatedNodes.get(address).restart(newNode);
+	void nodeJoin(int address, NodeConnection newNode) {
+		NodeContainer container = emulatedNodes.get(address);
+		if (container != null) {
+			container.restart(newNode);
+			return;
+		}
+		container = new NodeContainer(address, newNode, throughput(address));
+		NodeContainer raced = emulatedNodes.putIfAbsent(address, container);
+		if (raced != null) {
+			// another event loop got there first
+			raced.restart(newNode);
 		} else {
-			emulatedNodes.put(address, new NodeContainer(newNode));
+			Management.register("type=Router,node=" + address, container);
 		}
 	}
 
+	/**
+	 * Called by an emulated node to route a packet it sent, to its
+	 * destination or, if it is a broadcast, to every other node
+	 *
+	 * @param from
+	 *            The virtual address of the node that sent the packet
+	 * @param packet
+	 *            The packet
+	 */
+	void route(int from, Packet packet) {
+		if (packet.getDest() == Manager.BROADCAST_ADDRESS) {
+			Management.log(Level.FINE, "Broadcasting: " + packet);
+
+			for (NodeContainer node : emulatedNodes.values()) {
+				if (node.getAddress() != from) {
+					node.send(packet);
+				}
+			}
+		} else {
+			NodeContainer node = emulatedNodes.get(packet.getDest());
+			if (node == null) {
+				Management.log(Level.WARNING, "Dropping packet to an address that never joined: " + packet);
+			} else {
+				node.send(packet);
+			}
+		}
+	}
+
+	/**
+	 * Get the counts of packets in and out of an address, which outlive the
+	 * connections of the nodes at that address.
+	 *
+	 * @param address
+	 *            The virtual address of the node
+	 * @return The throughput of the address
+	 */
+	synchronized Throughput throughput(int address) {
+		Throughput t = throughputs.get(address);
+		if (t == null) {
+			t = new Throughput();
+			throughputs.put(address, t);
+			Management.sample(t);
+		}
+		return t;
+	}
+
 	/**
 	 * Check if there is already a node using a specific IP and port.
 	 *
@@ -141,14 +242,52 @@ public class Router {
 	 *         does not exist
 	 */
 	private NodeContainer portConflict(InetAddress ipAddress, int port) {
-		synchronized(emulatedNodes) {
-			for (NodeContainer node : emulatedNodes.values()) {
-				if (node.hasConflict(ipAddress, port)) {
-					return node;
-				}
+		for (NodeContainer node : emulatedNodes.values()) {
+			if (node.hasConflict(ipAddress, port)) {
+				return node;
 			}
-			return null;
 		}
+		return null;
+	}
+
+	/******************** Management ********************/
+
+	public int getNodeCount() {
+		return emulatedNodes.size();
+	}
+
+	public int getNodesUp() {
+		int up = 0;
+		for (NodeContainer node : emulatedNodes.values()) {
+			if (node.isUp()) {
+				up++;
+			}
+		}
+		return up;
+	}
+
+	public int getQueuedPackets() {
+		int queued = 0;
+		for (NodeContainer node : emulatedNodes.values()) {
+			queued += node.getDownQueueLength();
+		}
+		return queued;
+	}
+
+	public String getLogLevel() {
+		return Management.getLogLevel();
+	}
+
+	public void setLogLevel(String level) {
+		Management.setLogLevel(level);
+	}
+
+	public int flushQueues() {
+		int flushed = 0;
+		for (NodeContainer node : emulatedNodes.values()) {
+			flushed += node.flushDownQueue();
+		}
+		return flushed;
 	}
 
 	/**
@@ -180,6 +319,54 @@ public class Router {
 	@Option(value="-p Local port", aliases={"-local-port"})
 	// TODO: specify a sane default
 	public static int localPort = -1;
+
+	/**
+	 * Number of threads that serve the nodes with non-blocking IO, or 0 for a
+	 * thread per node
+	 */
+	@Option(value="Event loops serving the nodes, 0 for a thread per node", aliases={"-event-loops"})
+	public static int eventLoops = 0;
+
+	/**
+	 * Whether the thread of each node is a virtual thread, see
+	 * ConnectionThreads
+	 */
+	@Option(value="Serve each node from a virtual thread, with eventLoops 0", aliases={"-virtual-threads"})
+	public static boolean virtualThreads = false;
+
+	/**
+	 * Packets that can wait to be written to a node, past which packets to
+	 * it go into the queue of the node, as if it were down, rather than hold
+	 * up the nodes that send them
+	 */
+	@Option(value="Packets that can wait to be written to a node before more are held back", aliases={"-out-queue-length"})
+	public static int outQueueLength = 16384;
+
+	/**
+	 * Packets kept in memory for a failed node, past which they spill to
+	 * disk, see DownQueue
+	 */
+	@Option(value="Packets kept in memory for a failed node before they spill to disk", aliases={"-down-queue-memory"})
+	public static int downQueueMemory = 1024;
+
+	/**
+	 * Directory to spill packets for failed nodes to
+	 */
+	@Option(value="Directory to spill packets for failed nodes to, the temporary directory if empty", aliases={"-down-queue-dir"})
+	public static String downQueueDir = "";
+
+	/**
+	 * Bytes of packets kept for a failed node, past which the oldest are
+	 * dropped
+	 */
+	@Option(value="Bytes of packets kept for a failed node, 0 for no limit", aliases={"-down-queue-max-bytes"})
+	public static long downQueueMaxBytes = 256L * 1024 * 1024;
+
+	/**
+	 * Seconds a packet is kept for a failed node before it is dropped
+	 */
+	@Option(value="Seconds a packet is kept for a failed node, 0 for no limit", aliases={"-down-queue-max-age"})
+	public static int downQueueMaxAge = 0;
 	// end option group "Execution Options"
 
 
@@ -234,6 +421,7 @@ public class Router {
 
 		try {
 			router = new Router(localPort);
+			Management.register("type=Router", router);
 			router.start();
 		}catch(IOException e) {
 			System.err.println("Invalid port given to Router. Exception: " + e);
@@ -244,65 +432,243 @@ public class Router {
 }
 
 /**
- * A container that represents an address. It either wraps an emulated node, or
- * a queue of messages to a failed node.
+ * A container that represents an address. It either wraps the connection to an
+ * emulated node, or a queue of messages to a failed node. When the node comes
+ * back, the queue goes out to it a few packets at a time, see drain().
  */
-class NodeContainer {
+class NodeContainer implements RoutedNodeMXBean {
+	// packets handed to the node per turn of drain()
+	private static final int DRAIN_BATCH = 256;
+	// how long drain() waits for a backlogged node, in ms
+	private static final int DRAIN_PAUSE = 10;
+
+	private final int address;
+	private final Throughput throughput;
 	private boolean up;
-	private EmulatedNode node;
-	private List<Packet> downQueue;
-
-	NodeContainer(EmulatedNode node) {
+	private NodeConnection node;
+	private DownQueue downQueue;
+	// whether a thread runs drain()
+	private boolean draining;
+	// guards all of the above. Not a monitor, which would pin a virtual
+	// thread
+	private final ReentrantLock lock = new ReentrantLock();
+
+	NodeContainer(int address, NodeConnection node, Throughput throughput) {
+		this.address = address;
+		this.throughput = throughput;
 		up = true;
 		this.node = node;
-		downQueue = new LinkedList<Packet>();
+		downQueue = new DownQueue(address, throughput);
+		draining = false;
 	}
 
-	synchronized void quit(LinkedList<Packet> queue) {
-		if(node != null) {
-			node.finish();
+	void quit(LinkedList<Packet> queue) {
+		lock.lock();
+		try {
+			LinkedList<Packet> unwritten = null;
+			if(node != null) {
+				unwritten = node.finish();
+			}
+			up = false;
+			node = null;
+
+			if(queue != null) {
+				downQueue.addAll(queue);
+			}
+			if(unwritten != null) {
+				downQueue.addAll(unwritten);
+			}
+		} finally {
+			lock.unlock();
 		}
-		up = false;
-		node = null;
+	}
 
-		if(queue != null) {
-			downQueue.addAll(queue);
+	void restart(NodeConnection node) {
+		lock.lock();
+		try {
+			if(this.node != null) {
+				downQueue.addAll(this.node.finish());
+			}
+			up = true;
+			this.node = node;
+
+			startDrain();
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	synchronized void restart(EmulatedNode node) {
-		if(this.node != null) {
-			this.node.finish();
+	boolean isUp() {
+		lock.lock();
+		try {
+			return up;
+		} finally {
+			lock.unlock();
 		}
-		up = true;
-		this.node = node;
+	}
 
-		for (Packet pkt : downQueue) {
-			send(pkt);
+	boolean hasConflict(InetAddress ipAddress, int port) {
+		lock.lock();
+		try {
+			if (up == false) {
+				return false;
+			}
+			return ipAddress.equals(node.getIPAddress()) && port == node.getPort();
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	synchronized boolean isUp() {
-		return up;
+	void send(Packet p) {
+		lock.lock();
+		try {
+			if (up && !downQueue.isEmpty()) {
+				// the packets queued while the node was down go first
+				Management.log(Level.FINE, "Queueing behind the packets from while the node was down: " + p);
+				downQueue.add(p);
+			} else if (up) {
+				Management.log(Level.FINE, "Sending: " + p);
+				// the node counts the packet out once it is written
+				if (!node.send(p)) {
+					Management.log(Level.FINE, "Failed to send because node is going down or backlogged.  Queueing: " + p);
+					downQueue.add(p);
+					startDrain();
+				}
+			} else {
+				Management.log(Level.FINE, "Queueing to failed node: " + p);
+				downQueue.add(p);
+			}
+		} finally {
+			lock.unlock();
+		}
 	}
 
-	synchronized boolean hasConflict(InetAddress ipAddress, int port) {
-		if (up == false) {
-			return false;
+	/**
+	 * Start a thread that runs drain(), unless one runs already or there is
+	 * nothing to drain. Called with the lock held.
+	 */
+	private void startDrain() {
+		if (!draining && up && !downQueue.isEmpty()) {
+			draining = true;
+			ConnectionThreads.start(new Runnable() {
+				public void run() {
+					drain();
+				}
+			}, "NodeContainer " + address + " drain", Router.virtualThreads);
 		}
-		return ipAddress.equals(node.getIPAddress()) && port == node.getPort();
 	}
 
-	synchronized void send(Packet p) {
-		if (up) {
-			System.out.println("Sending: " + p);
-			if (!node.send(p)) {
-				System.out.println("Failed to send because node is going down.  Queueing: " + p);
-				downQueue.add(p);
+	/**
+	 * Hand the packets queued while the node was down, or while it was
+	 * backlogged, to the node, a batch at a time so that the lock is not held
+	 * for long, and only while the node is not backlogged. Stops once the
+	 * queue is empty or the node goes down.
+	 */
+	private void drain() {
+		while (true) {
+			boolean backlogged = false;
+			lock.lock();
+			try {
+				for (int i = 0; i < DRAIN_BATCH; i++) {
+					Packet pkt = up ? downQueue.peek() : null;
+					if (pkt == null) {
+						draining = false;
+						return;
+					}
+					// a node that is going down refuses packets as well, and
+					// the drain waits until quit() takes the node away
+					if (node.isBacklogged() || !node.send(pkt)) {
+						backlogged = true;
+						break;
+					}
+					downQueue.remove();
+				}
+			} finally {
+				lock.unlock();
 			}
-		} else {
-			System.out.println("Queueing to failed node: " + p);
-			downQueue.add(p);
+			if (backlogged) {
+				try {
+					Thread.sleep(DRAIN_PAUSE);
+				} catch (InterruptedException e) {
+					// try again now
+				}
+			}
+		}
+	}
+
+	/******************** Management ********************/
+
+	public int getAddress() {
+		return address;
+	}
+
+	public boolean isConnected() {
+		return isUp();
+	}
+
+	public String getRemoteAddress() {
+		lock.lock();
+		try {
+			if (!up) {
+				return null;
+			}
+			return node.getIPAddress() + ":" + node.getPort();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getDownQueueLength() {
+		lock.lock();
+		try {
+			return downQueue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getPacketsIn() {
+		return throughput.getPacketsIn();
+	}
+
+	public long getBytesIn() {
+		return throughput.getBytesIn();
+	}
+
+	public long getPacketsOut() {
+		return throughput.getPacketsOut();
+	}
+
+	public long getBytesOut() {
+		return throughput.getBytesOut();
+	}
+
+	public long getPacketsDropped() {
+		return throughput.getPacketsDropped();
+	}
+
+	public double getPacketsInPerSecond() {
+		return throughput.getPacketsInPerSecond();
+	}
+
+	public double getBytesInPerSecond() {
+		return throughput.getBytesInPerSecond();
+	}
+
+	public double getPacketsOutPerSecond() {
+		return throughput.getPacketsOutPerSecond();
+	}
+
+	public double getBytesOutPerSecond() {
+		return throughput.getBytesOutPerSecond();
+	}
+
+	public int flushDownQueue() {
+		lock.lock();
+		try {
+			return downQueue.clear();
+		} finally {
+			lock.unlock();
 		}
 	}
 }
@@ -0,0 +1,38 @@
+package edu.washington.cs.cse490h.lib;
+
+/**
+ * Management interface of the Router, see Management. Each address that ever
+ * connected also has a RoutedNodeMXBean.
+ */
+public interface RouterMXBean {
+	/**
+	 * @return The number of addresses that ever connected
+	 */
+	public int getNodeCount();
+
+	/**
+	 * @return The number of nodes that are connected right now
+	 */
+	public int getNodesUp();
+
+	/**
+	 * @return The number of packets queued for failed nodes, over all nodes
+	 */
+	public int getQueuedPackets();
+
+	public String getLogLevel();
+
+	/**
+	 * @param level
+	 *            A java.util.logging level name. FINE and below print every
+	 *            packet routed, INFO only connections
+	 */
+	public void setLogLevel(String level);
+
+	/**
+	 * Throw away the packets queued for all failed nodes.
+	 *
+	 * @return The number of packets thrown away
+	 */
+	public int flushQueues();
+}
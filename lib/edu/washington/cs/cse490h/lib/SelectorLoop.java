@@ -0,0 +1,176 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * <pre>
+ * One event loop of the Router, see the eventLoops option. It owns a Selector
+ * and does all the reads and writes of the connections registered with it on
+ * its own thread, so that the Router needs a few threads in all rather than
+ * one per node.
+ *
+ * Other threads hand work to the loop with execute(), which wakes the
+ * selector up. Connections that the loop itself sent packets to while it
+ * handled the ready keys are flushed once they are all handled, so that the
+ * packets routed between the nodes of one loop go out together.
+ *
+ * A connection that throws while the loop handles it is closed, and the node
+ * goes down as if the connection was lost, so that the other connections of
+ * the loop carry on. If the selector fails, the loop waits longer each time
+ * before it selects again.
+ * </pre>
+ */
+class SelectorLoop implements Runnable {
+	// ms to wait at most before selecting again after the selector failed
+	private static final long MAX_BACKOFF = 1000;
+
+	/**
+	 * Work on one connection. If it throws, the loop closes the connection.
+	 */
+	static abstract class ConnectionTask implements Runnable {
+		final NioConnection conn;
+
+		ConnectionTask(NioConnection conn) {
+			this.conn = conn;
+		}
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+	// loop thread only: connections to flush once the ready keys are handled
+	private final ArrayList<NioConnection> dirty;
+
+	/**
+	 * Open a selector and start the loop thread.
+	 *
+	 * @throws IOException
+	 *             If the selector cannot be opened
+	 */
+	SelectorLoop(String name) throws IOException {
+		selector = Selector.open();
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		dirty = new ArrayList<NioConnection>();
+		thread = new Thread(this, name);
+		thread.start();
+	}
+
+	/**
+	 * Run a task on the loop thread.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != thread) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Have a connection registered with the selector of this loop.
+	 */
+	void register(final NioConnection conn) {
+		execute(new ConnectionTask(conn) {
+			public void run() {
+				conn.register(selector);
+			}
+		});
+	}
+
+	/**
+	 * Have a connection flushed on the loop thread. The loop thread itself
+	 * flushes it once it has handled the ready keys.
+	 */
+	void flushLater(NioConnection conn) {
+		if (Thread.currentThread() == thread) {
+			dirty.add(conn);
+		} else {
+			execute(conn.flusher);
+		}
+	}
+
+	public void run() {
+		long backoff = 0;
+		while (true) {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					if (task instanceof ConnectionTask) {
+						failed(((ConnectionTask) task).conn, e);
+					} else {
+						Management.log(Level.SEVERE, "Event loop " + thread.getName() + " task failed: " + e);
+						e.printStackTrace();
+					}
+				}
+			}
+			flushDirty();
+
+			try {
+				selector.select();
+				backoff = 0;
+			} catch (IOException e) {
+				// a selector that keeps failing would have the loop spin
+				backoff = Math.min(Math.max(1, backoff * 2), MAX_BACKOFF);
+				Management.log(Level.SEVERE, "Event loop " + thread.getName() + " could not select: " + e
+						+ ", trying again in " + backoff + "ms");
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e1) {
+					// select again early
+				}
+				continue;
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				NioConnection conn = (NioConnection) key.attachment();
+				try {
+					// reading may close the connection and cancel the key
+					if (key.isValid() && key.isReadable()) {
+						conn.readable();
+					}
+					if (key.isValid() && key.isWritable()) {
+						conn.flush();
+					}
+				} catch (RuntimeException e) {
+					failed(conn, e);
+				}
+			}
+			flushDirty();
+		}
+	}
+
+	private void flushDirty() {
+		for (NioConnection conn : dirty) {
+			try {
+				conn.flush();
+			} catch (RuntimeException e) {
+				failed(conn, e);
+			}
+		}
+		dirty.clear();
+	}
+
+	/**
+	 * Close a connection that threw, and keep the loop going whatever
+	 * closing it throws.
+	 */
+	private void failed(NioConnection conn, RuntimeException e) {
+		Management.log(Level.SEVERE, "Event loop " + thread.getName() + " closing " + conn + " after: " + e);
+		try {
+			conn.fail(e);
+		} catch (RuntimeException e1) {
+			Management.log(Level.SEVERE, "Event loop " + thread.getName() + " could not close " + conn + ": " + e1);
+			e1.printStackTrace();
+		}
+	}
+}
@@ -4,6 +4,18 @@ package edu.washington.cs.cse490h.lib;
  * Parser for the Simulator commands.
  */
 public class SimulationCommandsParser extends CommandsParser {
+	@Override
+	protected Event parseCommonCmds(String[] cmd) {
+		if(cmd[0].equals("checkpoint")) {
+			if(cmd.length != 2) {
+				System.err.println("checkpoint takes a filename");
+				return null;
+			}
+			return Event.getCheckpoint(cmd[1]);
+		}
+		return super.parseCommonCmds(cmd);
+	}
+
 	protected Event parseNodeCmd(String[] cmd) {
 		if(cmd.length < 2) {
 			System.err.println("Command is too short: " + cmd);
@@ -21,9 +21,11 @@ public class Simulator extends Manager {
 
 	public static final int MAX_NODES_TO_SIMULATE = Manager.MAX_ADDRESS - 1;
 
-	private final HashMap<Integer, Node> nodes;
+	// not final, nor are crashedNodes and deferredEvents, so that a checkpoint can put back the
+	// very same collections, which iterate in the same order
+	private HashMap<Integer, Node> nodes;
 
-	private final HashSet<Integer> crashedNodes;
+	private HashSet<Integer> crashedNodes;
 
 	// the global logical time ordering which increments by 1 on each
 	// event in the simulated system.
@@ -31,7 +33,28 @@ public class Simulator extends Manager {
 
 	private final SynopticLogger synTotalOrderLogger = new SynopticLogger();
 
-	private HashSet<Timeout> currentTimeouts;
+	private final HashSet<Timeout> currentTimeouts;
+
+	// the events of the current round, reused from round to round
+	private final ArrayList<Event> currentRoundEvents;
+
+	// whether the synoptic loggers are writing anywhere, set when the simulation starts
+	private boolean synopticLogging = false;
+
+	// how many time steps packets spend in transit on each link
+	private final LinkLatencies latencies;
+
+	// how many bytes per time step each link can carry
+	private final LinkBandwidths bandwidths;
+
+	// how long storage operations take
+	private final StorageCostModel storageCosts;
+
+	// events for nodes that were still waiting on storage, to be retried in the next time step
+	private ArrayList<Event> deferredEvents;
+
+	// file to write a checkpoint to at the end of the time step, null if none was asked for
+	private String pendingCheckpoint = null;
 
 	/**
 	 * Base constructor for the Simulator. Does most of the work, but the command input method and
@@ -42,25 +65,39 @@ public class Simulator extends Manager {
 	 *            seed
 	 * @param replayOutputFilename The log file for future relays of the current execution
 	 * @param replayInputFilename The log file to replay
-	 * @throws IllegalArgumentException If the arguments provided to the program are invalid
+	 * @throws IllegalArgumentException If the arguments provided to the program are invalid, or
+	 *             the checkpoint given by the resumeFrom option cannot be resumed
 	 * @throws IOException If creating the user input reader fails
 	 */
 	public Simulator(Class<? extends Node> nodeImpl, Long seed, String replayOutputFilename,
 			String replayInputFilename,   boolean suppressOutput) throws IllegalArgumentException, IOException {
-		super(nodeImpl, seed, replayOutputFilename, replayInputFilename);
+		super(nodeImpl, resumeSeed(seed), replayOutputFilename, replayInputFilename);
 
 		setParser(new SimulationCommandsParser());
 
 		System.out.println("Starting simulation with seed: " + this.seed);
 		Utility.randNumGen = new Random(this.seed);
+		if (MessageLayer.memoryStorage) {
+			Utility.storage = new MemoryStorageBackend();
+		}
 
 		nodes = new HashMap<Integer, Node>();
 		vtimes = new HashMap<Integer, VectorTime>();
 		crashedNodes = new HashSet<Integer>();
+		latencies = LinkLatencies.fromOptions(MessageLayer.latency, MessageLayer.latencyFile);
+		bandwidths = LinkBandwidths.fromOptions(MessageLayer.bandwidth, MessageLayer.bandwidthFile);
+		storageCosts = new StorageCostModel(MessageLayer.diskLatency, MessageLayer.diskThroughput);
+		deferredEvents = new ArrayList<Event>();
+		currentTimeouts = new HashSet<Timeout>();
+		currentRoundEvents = new ArrayList<Event>();
 
 		cleanOutput = suppressOutput;
 		
-		setTime(0);
+		if (MessageLayer.resumeFrom.equals("")) {
+			setTime(0);
+		} else {
+			resume(MessageLayer.resumeFrom);
+		}
 		// NOTE: cannot produce a TIMESTEP event here as the nodes haven't
 		// been created yet and we must associate TIMESTEP events with nodes
 	}
@@ -73,7 +110,7 @@ public class Simulator extends Manager {
 	 * @param seed Seed for the RNG. This can be null.
 	 * @param replayOutputFilename The log file for future relays of the current execution
 	 * @param replayInputFilename The log file to replay
-	 * @param commandfile File containing the list of commands
+	 * @param commandfile File containing the list of commands. Ignored if a command generator is set
 	 * @throws IllegalArgumentException If the arguments provided to the program are invalid
 	 * @throws FileNotFoundException If the command file does not exist
 	 * @throws IOException If creating the user input reader fails
@@ -88,8 +125,7 @@ public class Simulator extends Manager {
 		
 		cleanOutput = suppressOutput;
 
-		SimulationCommandsParser commandFileParser = new SimulationCommandsParser();
-		sortedEvents = commandFileParser.parseFile(commandFile);
+		commandEvents = openCommands(new SimulationCommandsParser(), commandFile);
 	}
 
 	/**
@@ -121,23 +157,29 @@ public class Simulator extends Manager {
 		// start the synoptic loggers
 		synTotalOrderLogger.start(MessageLayer.synopticTotalOrderLogFilename);
 		synPartialOrderLogger.start(MessageLayer.synopticPartialOrderLogFilename);
+		synopticLogging = synTotalOrderLogger.isActive() || synPartialOrderLogger.isActive();
+		NodeLogger.start(MessageLayer.nodeLogLevel, MessageLayer.nodeLogFile);
+		startTrace();
 
 		if (cmdInputType == InputType.FILE) {
-			while (!inTransitMsgs.isEmpty() || !sortedEvents.isEmpty() || !waitingTOs.isEmpty() || MessageLayer.runForever) {
+			while ((!inTransitMsgs.isEmpty() || commandEvents.hasNext() || !waitingTOs.isEmpty()
+					|| !deferredEvents.isEmpty() || MessageLayer.runForever)
+					&& (MessageLayer.maxTime <= 0 || now() < MessageLayer.maxTime)) {
 				if (!cleanOutput) {
 					System.out.println("\nTime: " + now());
 				}
 
-				ArrayList<Event> currentRoundEvents = new ArrayList<Event>();
-
 				boolean advance = false;
 				do {
-					if (sortedEvents.isEmpty()) {
+					if (!commandEvents.hasNext()) {
 						advance = true;
 					} else {
-						Event ev = sortedEvents.remove(0);
+						Event ev = commandEvents.next();
 						if (ev.t == Event.EventType.TIME) {
+							ev.recycle();
 							advance = true;
+						} else if (ev.t == Event.EventType.CHECKPOINT) {
+							requestCheckpoint(ev);
 						} else {
 							currentRoundEvents.add(ev);
 						}
@@ -153,8 +195,6 @@ public class Simulator extends Manager {
 					System.out.println("\nTime: " + now());
 				}
 
-				ArrayList<Event> currentRoundEvents = new ArrayList<Event>();
-
 				Event ev;
 				boolean advance = false;
 				if (!cleanOutput) {
@@ -185,6 +225,8 @@ public class Simulator extends Manager {
 					} else {
 						if (ev.t == Event.EventType.TIME) {
 							advance = true;
+						} else if (ev.t == Event.EventType.CHECKPOINT) {
+							requestCheckpoint(ev);
 						} else {
 							currentRoundEvents.add(ev);
 						}
@@ -205,6 +247,14 @@ public class Simulator extends Manager {
 	 * @param currentRoundEvents
 	 */
 	private void doTimestep(ArrayList<Event> currentRoundEvents) {
+		if (!deferredEvents.isEmpty()) {
+			for (Event ev : deferredEvents) {
+				ev.deferred = false;
+			}
+			currentRoundEvents.addAll(0, deferredEvents);
+			deferredEvents.clear();
+		}
+
 		// The order we check doesn't matter that much
 		checkInTransit(currentRoundEvents);
 
@@ -214,13 +264,158 @@ public class Simulator extends Manager {
 
 		executeEvents(currentRoundEvents);
 
+		// hand the round's events back to the pool, except the ones that were put off until the
+		// next round
+		for (int i = 0; i < currentRoundEvents.size(); i++) {
+			Event ev = currentRoundEvents.get(i);
+			if (!ev.deferred) {
+				ev.recycle();
+			}
+		}
+		currentRoundEvents.clear();
+
 		setTime(now() + 1);
-		logSimulatorEvent("TIMESTEP time:" + now());
+		if (synopticLogging) {
+			logSimulatorEvent("TIMESTEP time:" + now());
+		}
+
+		if (pendingCheckpoint != null) {
+			writeCheckpoint(pendingCheckpoint);
+			pendingCheckpoint = null;
+		}
+	}
+
+	/********************* Methods for checkpoints *********************/
+
+	/**
+	 * Handle a checkpoint command. The checkpoint is only written at the end of the time step, once
+	 * all of its events are handled, so that the command does not take part in the order of the
+	 * events.
+	 * 
+	 * @param ev The CHECKPOINT event, which is recycled
+	 */
+	private void requestCheckpoint(Event ev) {
+		pendingCheckpoint = ev.command;
+		ev.recycle();
+		// so that a replay can seek to the step the checkpoint resumes at
+		if (Replay.replayOut != null) {
+			Replay.replayOut.indexNextStep();
+		}
+	}
+
+	/**
+	 * Write a checkpoint of the simulation, see Checkpoint. A checkpoint that cannot be written is
+	 * reported, and the simulation goes on.
+	 * 
+	 * @param filename The file to write the checkpoint to
+	 */
+	private void writeCheckpoint(String filename) {
+		Checkpoint cp = new Checkpoint();
+		saveCheckpoint(cp);
+		cp.globalLogicalTime = globalLogicalTime;
+		cp.nodes = nodes;
+		cp.crashedNodes = crashedNodes;
+		cp.deferredEvents = deferredEvents;
+
+		HashSet<Integer> addrs = new HashSet<Integer>(nodes.keySet());
+		addrs.addAll(crashedNodes);
+		try {
+			cp.saveStorage(addrs);
+			cp.write(filename);
+			System.out.println("Wrote checkpoint of time " + now() + " to " + filename);
+		} catch (IOException e) {
+			System.err.println("Could not write checkpoint to " + filename + ": " + e);
+		}
+	}
+
+	/**
+	 * @param seed The seed given to the simulator, null if none was
+	 * @return The seed to start with: the given one, or the one of the checkpoint that the
+	 *         simulation resumes from if none was given, so that the simulation continues exactly
+	 *         where the checkpoint left off
+	 * @throws IllegalArgumentException If the checkpoint cannot be read
+	 */
+	private static Long resumeSeed(Long seed) throws IllegalArgumentException {
+		if (seed != null) {
+			return seed;
+		}
+		try {
+			return Checkpoint.readSeed(MessageLayer.resumeFrom);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read checkpoint " + MessageLayer.resumeFrom
+					+ ": " + e);
+		}
+	}
+
+	/**
+	 * Restore the simulation from a checkpoint, at the time step the checkpoint was taken. With
+	 * the seed of the checkpoint, the simulation keeps the random number generator of the
+	 * checkpoint and continues exactly where it left off. With any other seed it is a fork of the
+	 * checkpoint, with a generator of its own.
+	 * 
+	 * @param filename The checkpoint file
+	 * @throws IllegalArgumentException If the checkpoint cannot be read or restored, or the replay
+	 *             cannot seek to the time step of the checkpoint
+	 */
+	private void resume(String filename) throws IllegalArgumentException {
+		Checkpoint cp;
+		try {
+			cp = Checkpoint.read(filename);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot read checkpoint " + filename + ": " + e);
+		}
+
+		restoreCheckpoint(cp);
+		nodes = cp.nodes;
+		crashedNodes = cp.crashedNodes;
+		deferredEvents = cp.deferredEvents;
+		globalLogicalTime = cp.globalLogicalTime;
+		for (Node n : nodes.values()) {
+			n.resume(this);
+		}
+		try {
+			cp.restoreStorage();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot restore the storage of checkpoint "
+					+ filename + ": " + e);
+		}
+
+		if (seed == cp.seed) {
+			Utility.randNumGen = cp.rng;
+			System.out.println("Resuming checkpoint " + filename + " at time " + cp.time);
+		} else {
+			System.out.println("Resuming checkpoint " + filename + " at time " + cp.time
+					+ ", forked from seed " + cp.seed);
+		}
+
+		if (Replay.isReplaying()) {
+			long step;
+			try {
+				step = Replay.seek(cp.time);
+			} catch (Replay.ReplayException e) {
+				throw new IllegalArgumentException(e.getMessage());
+			}
+			if (step != cp.time) {
+				throw new IllegalArgumentException("The replay index has no entry for time step "
+						+ cp.time + " of the checkpoint");
+			}
+		}
+		if (Replay.replayOut != null) {
+			// so that a replay of this simulation can seek to where it resumed
+			Replay.replayOut.indexNextStep();
+		}
+		setTime(cp.time);
 	}
 
 	@Override
 	protected void stop() {
 		System.out.println(stopString());
+		if (bandwidths.isLimited()) {
+			System.out.println(bandwidths.report(now()));
+		}
+		if (storageCosts.isEnabled()) {
+			System.out.println(storageCosts.report());
+		}
 		for (Integer i : nodes.keySet()) {
 			System.out.println(i + ": " + nodes.get(i).toString());
 			logEventWithNodeField(nodes.get(i), "STOPPED");
@@ -233,6 +428,11 @@ public class Simulator extends Manager {
 		// stop the synoptic logger
 		synTotalOrderLogger.stop();
 		synPartialOrderLogger.stop();
+		NodeLogger.stop();
+		Replay.close();
+		stopTrace();
+		writeBenchmarkResults();
+		writeMetrics(MessageLayer.metricsFile);
 		System.exit(0);
 	}
 
@@ -271,11 +471,13 @@ public class Simulator extends Manager {
 		vtimes.put(node, new VectorTime(MAX_ADDRESS));
 		logEventWithNodeField(newNode, "START");
 
+		traceCause = traceEvent(TraceWriter.START, node, 0);
 		try {
 			newNode.start();
 		} catch (NodeCrashException e) {
 			failNode(newNode.addr);
 		}
+		traceCause = 0;
 	}
 
 	/**
@@ -298,15 +500,19 @@ public class Simulator extends Manager {
 			}
 
 			logEventWithNodeField(crashingNode, "FAILURE");
+			traceEvent(TraceWriter.FAILURE, node, traceCause);
 
 			nodes.remove(node);
 			crashedNodes.add(node);
+			storageCosts.reset(node);
+			Utility.storage.crash(node);
 
 			Iterator<Timeout> iter = waitingTOs.iterator();
 			while (iter.hasNext()) {
 				Timeout to = iter.next();
 				if (to.node.addr == node) {
 					iter.remove();
+					FlightEvents.timeoutCancelled(node, to.cb, to.fireTime);
 				}
 			}
 			iter = currentTimeouts.iterator();
@@ -314,6 +520,7 @@ public class Simulator extends Manager {
 				Timeout to = iter.next();
 				if (to.node.addr == node) {
 					iter.remove();
+					FlightEvents.timeoutCancelled(node, to.cb, to.fireTime);
 				}
 			}
 		}
@@ -349,13 +556,23 @@ public class Simulator extends Manager {
 	}
 
 	@Override
-	protected void storageWriteEvent(Node node, String description) {
-		logEventWithNodeField(node, "WRITE " + description);
+	protected void storageWriteEvent(Node node, String description, int bytes) {
+		if (synopticLogging) {
+			logEventWithNodeField(node, "WRITE " + description);
+		}
+		if (storageCosts.isEnabled()) {
+			node.drift = storageCosts.charge(node.addr, bytes, now());
+		}
 	}
 
 	@Override
-	protected void storageReadEvent(Node node, String description) {
-		logEventWithNodeField(node, "READ " + description);
+	protected void storageReadEvent(Node node, String description, int bytes) {
+		if (synopticLogging) {
+			logEventWithNodeField(node, "READ " + description);
+		}
+		if (storageCosts.isEnabled()) {
+			node.drift = storageCosts.charge(node.addr, bytes, now());
+		}
 	}
 
 	/****************** Methods to check and handle events ******************/
@@ -364,6 +581,9 @@ public class Simulator extends Manager {
 	 * Logs an in transit event -- a DROP or a DELAY event.
 	 */
 	private void logInTransit(Packet p, String netEvent) {
+		if (!synopticLogging) {
+			return;
+		}
 		Node destNode = nodes.get(p.getDest());
 		if (destNode == null) {
 			// Node failed while the packet was in transit.
@@ -383,29 +603,30 @@ public class Simulator extends Manager {
 			return;
 		}
 
-		// See what we should do with all the in-transit messages
-		ArrayList<Packet> currentPackets = inTransitMsgs;
-		inTransitMsgs = new ArrayList<Packet>();
+		// See what we should do with all the in-transit messages. Dropped and
+		// delayed packets are taken out of the round by index and the holes
+		// are compacted away afterwards.
+		int numPackets = inTransitMsgs.beginRound(now());
 
 		if (userControl.compareTo(FailureLvl.DROP) < 0) { // userControl < DROP
 			// Figure out if we need to drop the packet.
-			Iterator<Packet> iter = currentPackets.iterator();
-			while (iter.hasNext()) {
-				Packet p = iter.next();
+			for (int i = 0; i < numPackets; i++) {
 				double rand = Utility.getRNG().nextDouble();
 				if (rand < dropRate) {
+					Packet p = inTransitMsgs.drop(i);
+					countPacket(PACKETS_DROPPED, p.getSrc(), p.getProtocol());
+					traceEvent(TraceWriter.DROP, p.getDest(), p.traceId);
 					if (!cleanOutput) {
 						System.out.println("Randomly dropping: " + p.toString());
 					}
 					logInTransit(p, "DROP");
-					iter.remove();
 				}
 			}
 		} else {
 			if (!cleanOutput) {
 				System.out.println("The following messages are in transit: ");
-				for (int i = 0; i < currentPackets.size(); ++i) {
-					System.out.println(i + ": " + currentPackets.get(i).toString());
+				for (int i = 0; i < numPackets; ++i) {
+					System.out.println(i + ": " + inTransitMsgs.current(i).toString());
 				}
 			}
 
@@ -413,23 +634,19 @@ public class Simulator extends Manager {
 				System.out
 						.println("Which should be dropped? (space delimited list or just press enter to drop none)");
 				String input = Replay.getLine().trim();
-				// hash set so we don't have to deal with duplicates
-				HashSet<Packet> toBeRemoved = new HashSet<Packet>();
+				// flags rather than removing right away, since a delay of the
+				// same packet takes precedence over the drop
+				boolean[] toBeDropped = new boolean[numPackets];
 
 				if (!input.equals("")) {
 					String[] dropList = input.split("\\s+");
-					Packet p;
 					for (String s : dropList) {
-						p = currentPackets.get(Integer.parseInt(s));
-						toBeRemoved.add(p);
-						logInTransit(p, "DROP");
+						int i = Integer.parseInt(s);
+						toBeDropped[i] = true;
+						logInTransit(inTransitMsgs.current(i), "DROP");
 					}
 				}
 
-				if (toBeRemoved.size() == currentPackets.size()) {
-					return;
-				}
-
 				// If user drops and delays the same packet, result is undefined
 				// In current implementation, delay takes precedence
 				if (userControl.compareTo(FailureLvl.DELAY) >= 0) { // userControl
@@ -440,50 +657,60 @@ public class Simulator extends Manager {
 
 					if (!input.equals("")) {
 						String[] delayList = input.split("\\s+");
-						Packet p;
 						for (String s : delayList) {
-							p = currentPackets.get(Integer.parseInt(s));
-							inTransitMsgs.add(p);
-							toBeRemoved.add(p);
-							logInTransit(p, "DELAY");
+							Packet p = inTransitMsgs.defer(Integer.parseInt(s));
+							if (p != null) {
+								countPacket(PACKETS_DELAYED, p.getSrc(), p.getProtocol());
+								traceEvent(TraceWriter.DELAY, p.getDest(), p.traceId);
+								logInTransit(p, "DELAY");
+							}
 						}
 					}
+				}
 
-					if (toBeRemoved.size() == currentPackets.size()) {
-						return;
+				for (int i = 0; i < numPackets; i++) {
+					if (toBeDropped[i]) {
+						Packet p = inTransitMsgs.drop(i);
+						if (p != null) {
+							countPacket(PACKETS_DROPPED, p.getSrc(), p.getProtocol());
+							traceEvent(TraceWriter.DROP, p.getDest(), p.traceId);
+						}
 					}
 				}
-
-				currentPackets.removeAll(toBeRemoved);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
 
+		numPackets = inTransitMsgs.compact();
+
 		if (userControl.compareTo(FailureLvl.DELAY) < 0) { // userControl <
 															// DELAY
-			Iterator<Packet> iter = currentPackets.iterator();
-			while (iter.hasNext()) {
-				Packet p = iter.next();
+			// adjust the probability since these are not independent events
+			// Ex: 50% drop rate and 50% delay rate should mean that nothing
+			// gets through
+			double adjustedDelay = delayRate / (1 - dropRate);
+			for (int i = 0; i < numPackets; i++) {
 				double rand = Utility.getRNG().nextDouble();
-				// adjust the probability since these are not independent events
-				// Ex: 50% drop rate and 50% delay rate should mean that nothing
-				// gets through
-				double adjustedDelay = delayRate / (1 - dropRate);
 				if (rand < adjustedDelay) {
+					Packet p = inTransitMsgs.defer(i);
+					countPacket(PACKETS_DELAYED, p.getSrc(), p.getProtocol());
+					traceEvent(TraceWriter.DELAY, p.getDest(), p.traceId);
 					if (!cleanOutput) {
 						System.out.println("Randomly Delaying: " + p.toString());
 					}
-					iter.remove();
-					inTransitMsgs.add(p);
 					logInTransit(p, "DELAY");
 				}
 			}
 		}
 
-		for (Packet p : currentPackets) {
-			currentRoundEvents.add(Event.getDelivery(p));
+		for (int i = 0; i < numPackets; i++) {
+			Packet p = inTransitMsgs.current(i);
+			if (p != null) {
+				currentRoundEvents.add(Event.getDelivery(p));
+			}
 		}
+		inTransitMsgs.endRound();
 	}
 
 	/**
@@ -495,18 +722,16 @@ public class Simulator extends Manager {
 		// Failures specified in the file are deprecated
 		if (userControl.compareTo(FailureLvl.CRASH) < 0) { // userControl <
 															// CRASH
-			// make a copy so we don't have concurrent modification exceptions
-			Integer[] addrCopy = nodes.keySet().toArray(new Integer[0]);
-
-			for (Integer i : addrCopy) {
+			// the failures and restarts only happen once the events are executed, so the node sets
+			// can be walked directly
+			for (Integer i : nodes.keySet()) {
 				double rand = Utility.getRNG().nextDouble();
 				if (rand < failureRate && i != 1) {
 					currentRoundEvents.add(Event.getFailure(i));
 				}
 			}
 
-			addrCopy = crashedNodes.toArray(new Integer[0]);
-			for (Integer i : addrCopy) {
+			for (Integer i : crashedNodes) {
 				double rand = Utility.getRNG().nextDouble();
 				if (rand < recoveryRate) {
 					currentRoundEvents.add(Event.getStart(i));
@@ -554,7 +779,7 @@ public class Simulator extends Manager {
 	 * @param currentRoundEvents The list of the current round's events that we should add to
 	 */
 	private void checkTimeouts(ArrayList<Event> currentRoundEvents) {
-		currentTimeouts = new HashSet<Timeout>();
+		currentTimeouts.clear();
 
 		Iterator<Timeout> iter = waitingTOs.iterator();
 		while (iter.hasNext()) {
@@ -634,6 +859,9 @@ public class Simulator extends Manager {
 	 * @param ev The event that should be processed
 	 */
 	private void handleEvent(Event ev) {
+		if (storageCosts.isEnabled() && deferForStorage(ev)) {
+			return;
+		}
 
 		switch (ev.t) {
 		case FAILURE:
@@ -654,6 +882,9 @@ public class Simulator extends Manager {
 			// synoptic
 			parser.printStrArray(ev.msg, System.out);
 			break;
+		case METRICS:
+			writeMetrics(ev.command);
+			break;
 		case DELIVERY:
 			deliverPkt(ev.p);
 			break;
@@ -662,11 +893,13 @@ public class Simulator extends Manager {
 				break;
 			}
 			
-			if (!cleanOutput) {
+			if (!cleanOutput && synopticLogging) {
 				logEventWithNodeField(ev.to.node, "TIMEOUT fire-time:" + ev.to.fireTime + " "
 					+ ev.to.cb.toSynopticString());
 			}
 
+			traceCause = traceEvent(TraceWriter.TIMEOUT, ev.to.node.addr, ev.to.traceCause);
+			Object flight = FlightEvents.beginTimeout();
 			try {
 				ev.to.cb.invoke();
 			} catch (InvocationTargetException e) {
@@ -681,12 +914,57 @@ public class Simulator extends Manager {
 			} catch (IllegalAccessException e) {
 				e.printStackTrace();
 			}
+			FlightEvents.endTimeout(flight, ev.to.node.addr, ev.to.cb, ev.to.fireTime, now());
+			traceCause = 0;
 			break;
 		default:
 			System.err.println("Shouldn't happen. TIME here?");
 		}
 	}
 
+	/**
+	 * Check whether an event is for a node that is still waiting on its storage operations, and if
+	 * so put the event off until the next time step. Timeouts go back to the waiting timeouts so
+	 * that they can still be cancelled by a crash.
+	 * 
+	 * @param ev The event that is about to be processed
+	 * @return true if the event was put off
+	 */
+	private boolean deferForStorage(Event ev) {
+		Node n;
+		switch (ev.t) {
+		case COMMAND:
+			n = nodes.get(ev.node);
+			break;
+		case DELIVERY:
+			n = nodes.get(ev.p.getDest());
+			break;
+		case TIMEOUT:
+			n = ev.to.node;
+			break;
+		default:
+			return false;
+		}
+		if (n == null) {
+			return false;
+		}
+
+		n.drift = storageCosts.drift(n.addr, now());
+		if (n.drift == 0) {
+			return false;
+		}
+
+		if (ev.t == Event.EventType.TIMEOUT) {
+			if (currentTimeouts.remove(ev.to)) {
+				waitingTOs.add(ev.to);
+			}
+		} else {
+			ev.deferred = true;
+			deferredEvents.add(ev);
+		}
+		return true;
+	}
+
 	/**
 	 * Create a packet and put it on the channel. Crashes in the middle of a broadcast can be
 	 * modeled by a post-send crash, plus a sequence of dropped messages
@@ -715,20 +993,48 @@ public class Simulator extends Manager {
 			for (Integer i : nodes.keySet()) {
 				if (i != from) {
 					Packet newPacket = new Packet(i, from, protocol, payload);
-					logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
-					inTransitMsgs.add(newPacket);
+					if (synopticLogging) {
+						logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
+					}
+					putInTransit(newPacket, fromNode.drift);
 				}
 			}
 			for (Integer i : crashedNodes) {
 				Packet newPacket = new Packet(i, from, protocol, payload);
-				logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
-				inTransitMsgs.add(newPacket);
+				if (synopticLogging) {
+					logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
+				}
+				putInTransit(newPacket, fromNode.drift);
 			}
 		} else {
 			Packet newPacket = new Packet(to, from, protocol, payload);
-			logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
-			inTransitMsgs.add(newPacket);
+			if (synopticLogging) {
+				logEvent(fromNode, "SEND " + newPacket.toSynopticString(fromNode));
+			}
+			putInTransit(newPacket, fromNode.drift);
+		}
+	}
+
+	/**
+	 * Put a packet in transit for as many time steps as the latency of its link says, plus however
+	 * long it has to wait for the link to have the capacity to send it.
+	 * 
+	 * @param pkt The packet that was sent
+	 * @param drift How many time steps the sender is still waiting on storage. The packet only
+	 *            leaves once the sender is done
+	 */
+	private void putInTransit(Packet pkt, long drift) {
+		int src = pkt.getSrc();
+		int dest = pkt.getDest();
+		long sendTime = now() + drift;
+		int latency = latencies.sample(src, dest, Utility.getRNG());
+		int queued = bandwidths.transmit(src, dest, Packet.HEADER_SIZE + pkt.getPayload().length,
+				sendTime);
+		if (trace != null) {
+			pkt.traceId = trace.send(src, now(), traceCause, dest, pkt.getProtocol(),
+					pkt.getPayload().length, drift, queued);
 		}
+		inTransitMsgs.add(pkt, sendTime + latency + queued);
 	}
 
 	/**
@@ -747,15 +1053,22 @@ public class Simulator extends Manager {
 		}
 
 		Node destNode = nodes.get(destAddr);
-		vtimes.get(destAddr).updateTo(vtimes.get(srcAddr));
-
-		logEvent(destNode, "RECVD " + pkt.toSynopticString(destNode));
+		countPacket(PACKETS_RECEIVED, destAddr, pkt.getProtocol());
+		if (synopticLogging) {
+			vtimes.get(destAddr).updateTo(vtimes.get(srcAddr));
+			logEvent(destNode, "RECVD " + pkt.toSynopticString(destNode));
+		}
 
+		traceCause = traceEvent(TraceWriter.RECEIVE, destAddr, pkt.traceId);
+		Object flight = FlightEvents.beginDelivery();
 		try {
 			destNode.onReceive(srcAddr, pkt.getProtocol(), pkt.getPayload());
 		} catch (NodeCrashException e) {
 			failNode(destAddr);
 		}
+		traceCause = 0;
+		FlightEvents.endDelivery(flight, destAddr, srcAddr, pkt.getProtocol(),
+				pkt.getPayload().length);
 	}
 
 	/**
@@ -771,13 +1084,17 @@ public class Simulator extends Manager {
 
 		Node n = nodes.get(nodeAddr);
 
-		logEventWithNodeField(n, "COMMAND " + msg);
+		if (synopticLogging) {
+			logEventWithNodeField(n, "COMMAND " + msg);
+		}
 
+		traceCause = traceEvent(TraceWriter.COMMAND, nodeAddr, 0);
 		try {
 			n.onCommand(msg);
 		} catch (NodeCrashException e) {
 			failNode(n.addr);
 		}
+		traceCause = 0;
 	}
 
 	/**
@@ -844,6 +1161,11 @@ public class Simulator extends Manager {
 		}
 	}
 
+	@Override
+	protected boolean isSynopticLogging() {
+		return synopticLogging;
+	}
+
 	/**
 	 * Log the event in the synoptic log using the simulator's global logical ordering with a node
 	 * field.
@@ -868,6 +1190,9 @@ public class Simulator extends Manager {
 	 */
 	@Override
 	public void logEvent(Node node, String eventStr) {
+		if (!synopticLogging) {
+			return;
+		}
 		// The Simulator implicitly totally orders events (because it is single
 		// threaded) so we also output a globally total order (in addition to
 		// the partial order that is implemented in super).
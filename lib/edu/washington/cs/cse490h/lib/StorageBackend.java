@@ -0,0 +1,63 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Where the persistent storage of nodes actually lives. Every node has its own
+ * flat namespace of files. The PersistentStorage classes are layered on top of
+ * the streams that a backend hands out, so crash injection and synoptic logging
+ * work the same way whatever the backend is.
+ *
+ * Data that was written to an output stream is durable once the stream is
+ * flushed or closed. Data that was not flushed when the node crashes may be
+ * lost.
+ */
+abstract class StorageBackend {
+
+    /**
+     * @return true if the node has a file with that name
+     */
+    abstract boolean exists(int nodeAddr, String filename);
+
+    /**
+     * Open a file for reading.
+     *
+     * @throws FileNotFoundException
+     *             If the file does not exist
+     */
+    abstract InputStream openInput(int nodeAddr, String filename)
+            throws FileNotFoundException;
+
+    /**
+     * Open a file for writing, creating it if it does not exist.
+     *
+     * @param append
+     *            Whether to append to the end of the file, or truncate it
+     * @throws IOException
+     *             If the file cannot be opened for writing
+     */
+    abstract OutputStream openOutput(int nodeAddr, String filename,
+            boolean append) throws IOException;
+
+    /**
+     * Delete a file.
+     *
+     * @return true if the file existed and was deleted
+     */
+    abstract boolean delete(int nodeAddr, String filename);
+
+    /**
+     * @return The names of all of the node's files
+     */
+    abstract List<String> list(int nodeAddr);
+
+    /**
+     * Called when a node crashes. Anything that the node wrote but did not
+     * flush is lost.
+     */
+    abstract void crash(int nodeAddr);
+}
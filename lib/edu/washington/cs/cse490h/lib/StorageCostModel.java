@@ -0,0 +1,115 @@
+package edu.washington.cs.cse490h.lib;
+
+/**
+ * <pre>
+ * Cost model for the persistent storage of simulated nodes. Every storage
+ * operation takes a fixed latency plus the time to move its bytes at the disk's
+ * throughput. A node's operations are performed one after the other, so the
+ * disk of a node is busy until all of its operations are done.
+ *
+ * Whatever a node does after a storage operation can only happen once the
+ * operation is done. The number of whole time steps until then is the node's
+ * drift: the simulator pushes the node's sends and timeouts back by the drift
+ * and holds any event for the node until its drift is back to 0.
+ *
+ * A latency of 0 and a throughput of 0 (unlimited) means that storage is free,
+ * which is the behavior of a simulator without a storage cost model.
+ * </pre>
+ */
+class StorageCostModel {
+	private static final int NUM_ADDRESSES = Manager.MAX_ADDRESS + 1;
+
+	private final double latency;
+	private final int throughput;
+
+	// the time, in fractional steps, at which a node's disk is done with all
+	// of its queued operations. Indexed by node address
+	private final double[] busyUntil;
+	private final double[] busySteps;
+	private final long[] ops;
+	private final long[] bytes;
+
+	/**
+	 * @param latency
+	 *            The time each storage operation takes, in time steps
+	 * @param throughput
+	 *            The bytes per time step the disk can move, or 0 for unlimited
+	 */
+	StorageCostModel(double latency, int throughput) {
+		if (latency < 0 || throughput < 0) {
+			throw new IllegalArgumentException("Invalid storage cost model: latency " + latency
+					+ ", throughput " + throughput);
+		}
+		this.latency = latency;
+		this.throughput = throughput;
+		this.busyUntil = new double[NUM_ADDRESSES];
+		this.busySteps = new double[NUM_ADDRESSES];
+		this.ops = new long[NUM_ADDRESSES];
+		this.bytes = new long[NUM_ADDRESSES];
+	}
+
+	/**
+	 * @return true if storage operations cost anything
+	 */
+	boolean isEnabled() {
+		return latency > 0 || throughput > 0;
+	}
+
+	/**
+	 * Charge a node for a storage operation.
+	 *
+	 * @param addr
+	 *            The node that performs the operation
+	 * @param numBytes
+	 *            The number of bytes that the operation moves
+	 * @param now
+	 *            The current time step
+	 * @return The node's drift once the operation is done
+	 */
+	long charge(int addr, int numBytes, long now) {
+		double cost = latency;
+		if (throughput > 0) {
+			cost += (double) numBytes / throughput;
+		}
+
+		busyUntil[addr] = Math.max(now, busyUntil[addr]) + cost;
+		busySteps[addr] += cost;
+		ops[addr]++;
+		bytes[addr] += numBytes;
+
+		return drift(addr, now);
+	}
+
+	/**
+	 * @return The number of whole time steps until the node's disk is done
+	 *         with all of its operations
+	 */
+	long drift(int addr, long now) {
+		return (long) Math.max(0, Math.floor(busyUntil[addr] - now));
+	}
+
+	/**
+	 * Forget about the queued operations of a node, for example when it
+	 * crashes.
+	 */
+	void reset(int addr) {
+		busyUntil[addr] = 0;
+	}
+
+	/**
+	 * Summarize how the nodes used their disks.
+	 *
+	 * @return One line per node that performed storage operations
+	 */
+	String report() {
+		StringBuffer sb = new StringBuffer("Storage usage:");
+		for (int addr = 0; addr < NUM_ADDRESSES; addr++) {
+			if (ops[addr] == 0) {
+				continue;
+			}
+			sb.append("\n" + addr + ": " + ops[addr] + " operations, " + bytes[addr]
+					+ " bytes, busy for " + Math.round(busySteps[addr] * 10) / 10.0 + " steps");
+		}
+		return sb.toString();
+	}
+}
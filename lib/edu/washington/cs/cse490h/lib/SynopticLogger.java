@@ -1,36 +1,48 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.io.Writer;
 
 /**
+ * <pre>
  * Class to handle logging of Synoptic events. This class is used in both
  * simulation and emulation modes.
+ *
+ * Events are written from a background thread by an AsyncLogWriter, so that
+ * the simulation does not wait on the disk, and are in the order they were
+ * logged. When its buffer is full, the logging thread either waits for room
+ * or drops the event, see the synopticLogBuffer and synopticLogDrop options.
+ * A buffer size of 0 writes on the logging thread.
+ *
+ * Logs whose filename ends in .gz are compressed.
+ * </pre>
  */
 public class SynopticLogger {
-	private Writer writer = null;
-	private String filename = "";
+	private final AsyncLogWriter log;
 
 	/**
-	 * Opens the log file and sets up logging state.
+	 * A logger that uses the synopticLogBuffer and synopticLogDrop options.
 	 */
-	public void start(String filename) {
-		if (filename == null) {
-			return;
-		}
+	public SynopticLogger() {
+		this(MessageLayer.synopticLogBuffer, MessageLayer.synopticLogDrop);
+	}
 
-		this.filename = filename;
+	/**
+	 * @param capacity
+	 *            The number of events that can wait to be written, 0 to write
+	 *            them right away
+	 * @param dropWhenFull
+	 *            Whether to drop events when the buffer is full, rather than
+	 *            wait for room
+	 */
+	public SynopticLogger(int capacity, boolean dropWhenFull) {
+		log = new AsyncLogWriter("synoptic log", capacity, dropWhenFull);
+	}
 
-		try {
-			// TODO: fail if the file exists
-			this.writer = new BufferedWriter(new FileWriter(filename));
-		} catch (IOException e) {
-			System.out.println("Warning: unable to open logfile '" + this.filename+ "' for writing.");
-			//e.printStackTrace();
-			System.out.println("...continuing");
-		}
+	/**
+	 * Opens the log file and sets up logging state.
+	 */
+	public void start(String filename) {
+		log.start(filename);
 	}
 
 	/**
@@ -39,29 +51,25 @@ public class SynopticLogger {
 	 * @param writer custom writer instance
 	 */
 	public void start(Writer writer) {
-		this.writer = writer;
+		log.start(writer);
 	}
 
-
+	/**
+	 * @return true if events that are logged actually end up somewhere. Callers
+	 *         can skip building event strings when this is false.
+	 */
+	public boolean isActive() {
+		return log.isActive();
+	}
 
 	/**
-	 * Closes the log file and tears down logging state.
+	 * Writes out the events that are still waiting, then closes the log file
+	 * and tears down logging state.
 	 */
 	public void stop() {
-		if (this.writer == null) {
-			return;
-		}
-
-		try {
-			this.writer.close();
-		} catch (IOException e) {
-			System.out.println("Warning: unable to close logfile '" + this.filename + "'.");
-			e.printStackTrace();
-			System.out.println("...continuing");
-		}
+		log.stop();
 	}
 
-
 	/**
 	 * Logs a single event to the synoptic log.
 	 *
@@ -70,17 +78,6 @@ public class SynopticLogger {
 	 * @param eventString
 	 */
 	public void logEvent(String timeStr, String eventStr) {
-		if (this.writer == null) {
-			return;
-		}
-
-		try {
-			this.writer.write(timeStr + " " + eventStr + "\n");
-		} catch (IOException e) {
-			System.out.println("Warning: unable to write to the synoptic log.");
-			e.printStackTrace();
-			System.out.println("...continuing");
-		}
+		log.log(timeStr, eventStr);
 	}
-
 }
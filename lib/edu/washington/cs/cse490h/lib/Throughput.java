@@ -0,0 +1,110 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <pre>
+ * Packets and bytes going in and out of a node, for the management beans. The
+ * counts are totals. The rates are per second over the last sampling period,
+ * see Management.sample().
+ *
+ * Counting is safe from any thread, so the Router can count on the thread of
+ * each connection.
+ * </pre>
+ */
+public class Throughput {
+	private final AtomicLong packetsIn = new AtomicLong();
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong packetsOut = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicLong packetsDropped = new AtomicLong();
+
+	// totals and time of the last sample, only touched by the sampler
+	private long lastNanos = System.nanoTime();
+	private final long[] last = new long[4];
+	private volatile double[] rates = new double[4];
+
+	/**
+	 * Count a packet that came in.
+	 *
+	 * @param size
+	 *            The size of the packet on the wire, header included
+	 */
+	public void in(int size) {
+		packetsIn.incrementAndGet();
+		bytesIn.addAndGet(size);
+	}
+
+	/**
+	 * Count a packet that went out.
+	 *
+	 * @param size
+	 *            The size of the packet on the wire, header included
+	 */
+	public void out(int size) {
+		packetsOut.incrementAndGet();
+		bytesOut.addAndGet(size);
+	}
+
+	/**
+	 * Count a packet that was dropped on its way out.
+	 */
+	public void dropped() {
+		packetsDropped.incrementAndGet();
+	}
+
+	public long getPacketsIn() {
+		return packetsIn.get();
+	}
+
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	public long getPacketsOut() {
+		return packetsOut.get();
+	}
+
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	public long getPacketsDropped() {
+		return packetsDropped.get();
+	}
+
+	public double getPacketsInPerSecond() {
+		return rates[0];
+	}
+
+	public double getBytesInPerSecond() {
+		return rates[1];
+	}
+
+	public double getPacketsOutPerSecond() {
+		return rates[2];
+	}
+
+	public double getBytesOutPerSecond() {
+		return rates[3];
+	}
+
+	/**
+	 * Compute the rates since the last sample.
+	 */
+	synchronized void sample() {
+		long nanos = System.nanoTime();
+		long[] now = { getPacketsIn(), getBytesIn(), getPacketsOut(), getBytesOut() };
+		double seconds = (nanos - lastNanos) / 1e9;
+		if (seconds <= 0) {
+			return;
+		}
+		double[] r = new double[now.length];
+		for (int i = 0; i < now.length; i++) {
+			r[i] = (now[i] - last[i]) / seconds;
+			last[i] = now[i];
+		}
+		lastNanos = nanos;
+		rates = r;
+	}
+}
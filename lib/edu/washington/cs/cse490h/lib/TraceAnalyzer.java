@@ -0,0 +1,332 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <pre>
+ * Reads a trace written by TraceWriter and reports where the time went:
+ *
+ *   java edu.washington.cs.cse490h.lib.TraceAnalyzer trace-file
+ *
+ * For the packets of each protocol: how many were sent, delivered, dropped,
+ * delayed or lost with a crashed node, how many were sent by timeouts (the
+ * retransmissions), and their latency from send to delivery, split into the
+ * wait for the storage of the sender, the wait for the link and the time in
+ * flight.
+ *
+ * For each kind of operation that the nodes report, such as RPCs: how many
+ * ended and how, their latency, and the critical path of each operation. That
+ * path goes back from the end of the operation through the events that caused
+ * it, and its time is split into
+ *   - network: packets in flight
+ *   - timers: waits for timeouts, which is how retransmissions wait
+ *   - other: queueing and handling in the nodes, such as requests that wait
+ *     behind others
+ * Retransmissions are the packets on the path that a timeout sent.
+ *
+ * The whole trace is read into memory.
+ * </pre>
+ */
+public class TraceAnalyzer {
+
+	/**
+	 * Packets of one protocol
+	 */
+	private static class MessageTotals {
+		long sent;
+		long bytes;
+		long delivered;
+		long dropped;
+		long delayed;
+		long fromTimeouts;
+		final Histogram latency = new Histogram();
+		long storageWait;
+		long linkQueueing;
+	}
+
+	/**
+	 * Operations of one kind
+	 */
+	private static class OperationTotals {
+		long begun;
+		long succeeded;
+		long failed;
+		final Histogram latency = new Histogram();
+		long network;
+		long timers;
+		long other;
+		long retransmissions;
+	}
+
+	// the events, indexed by trace number. Index 0 is unused
+	private int count = 0;
+	private byte[] type = new byte[1024];
+	private long[] time = new long[1024];
+	private long[] parent = new long[1024];
+	// fields of the type. SEND: dest, protocol, size, storage wait, link
+	// queueing. OP_BEGIN: name. OP_END: OP_BEGIN in a, succeeded in b
+	private int[] a = new int[1024];
+	private int[] b = new int[1024];
+	private int[] c = new int[1024];
+	private int[] d = new int[1024];
+	private int[] e = new int[1024];
+
+	private final ArrayList<String> names = new ArrayList<String>();
+
+	/**
+	 * Read a trace.
+	 *
+	 * @throws IOException
+	 *             If the trace cannot be read or is not a trace
+	 */
+	public TraceAnalyzer(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != TraceWriter.MAGIC) {
+			throw new IOException("Not a trace");
+		}
+		long version = readVarint(data);
+		if (version != TraceWriter.VERSION) {
+			throw new IOException("Unknown trace version " + version);
+		}
+
+		long lastTime = 0;
+		while (true) {
+			int t;
+			try {
+				t = (int) readVarint(data);
+			} catch (EOFException eof) {
+				break;
+			}
+			if (t == TraceWriter.NAME) {
+				byte[] utf8 = new byte[(int) readVarint(data)];
+				data.readFully(utf8);
+				names.add(new String(utf8, "UTF-8"));
+				continue;
+			}
+
+			int i = ++count;
+			if (i == type.length) {
+				grow();
+			}
+			type[i] = (byte) t;
+			readVarint(data); // node
+			long delta = readVarint(data);
+			lastTime += (delta >>> 1) ^ -(delta & 1);
+			time[i] = lastTime;
+			long p = readVarint(data);
+			parent[i] = (p == 0) ? 0 : i - p;
+
+			switch (t) {
+			case TraceWriter.SEND:
+				a[i] = (int) readVarint(data);
+				b[i] = (int) readVarint(data);
+				c[i] = (int) readVarint(data);
+				d[i] = (int) readVarint(data);
+				e[i] = (int) readVarint(data);
+				break;
+			case TraceWriter.OP_BEGIN:
+				a[i] = (int) readVarint(data);
+				break;
+			case TraceWriter.OP_END:
+				a[i] = (int) (i - readVarint(data));
+				b[i] = (int) readVarint(data);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Print the report.
+	 */
+	public void report(PrintStream out) {
+		TreeMap<Integer, MessageTotals> messages = new TreeMap<Integer, MessageTotals>();
+		TreeMap<String, OperationTotals> operations = new TreeMap<String, OperationTotals>();
+
+		for (int i = 1; i <= count; i++) {
+			long p = parent[i];
+			switch (type[i]) {
+			case TraceWriter.SEND:
+				MessageTotals m = messageTotals(messages, b[i]);
+				m.sent++;
+				m.bytes += c[i];
+				if (p != 0 && type[(int) p] == TraceWriter.TIMEOUT) {
+					m.fromTimeouts++;
+				}
+				break;
+			case TraceWriter.RECEIVE:
+				m = messageTotals(messages, b[(int) p]);
+				m.delivered++;
+				m.latency.record(time[i] - time[(int) p]);
+				m.storageWait += d[(int) p];
+				m.linkQueueing += e[(int) p];
+				break;
+			case TraceWriter.DROP:
+				messageTotals(messages, b[(int) p]).dropped++;
+				break;
+			case TraceWriter.DELAY:
+				messageTotals(messages, b[(int) p]).delayed++;
+				break;
+			case TraceWriter.OP_BEGIN:
+				operationTotals(operations, names.get(a[i])).begun++;
+				break;
+			case TraceWriter.OP_END:
+				int begin = a[i];
+				OperationTotals o = operationTotals(operations, names.get(a[begin]));
+				if (b[i] != 0) {
+					o.succeeded++;
+				} else {
+					o.failed++;
+				}
+				long latency = time[i] - time[begin];
+				o.latency.record(latency);
+				addCriticalPath(o, begin, i, latency);
+				break;
+			default:
+				break;
+			}
+		}
+
+		out.println("Trace: " + count + " events, time " + (count == 0 ? 0 : time[1]) + " to "
+				+ time[count]);
+
+		out.println("\nMessages by protocol:");
+		for (Map.Entry<Integer, MessageTotals> entry : messages.entrySet()) {
+			MessageTotals m = entry.getValue();
+			long lost = m.sent - m.delivered - m.dropped;
+			out.println(entry.getKey() + ": " + m.sent + " sent (" + m.bytes + " bytes), "
+					+ m.delivered + " delivered, " + m.dropped + " dropped, " + m.delayed
+					+ " delays, " + lost + " lost or in flight, " + m.fromTimeouts
+					+ " sent by timeouts");
+			if (m.delivered > 0) {
+				out.println("    latency " + m.latency);
+				double storageWait = mean(m.storageWait, m.delivered);
+				double linkQueueing = mean(m.linkQueueing, m.delivered);
+				out.println("    mean storage wait " + storageWait + ", link queueing "
+						+ linkQueueing + ", in flight "
+						+ round(m.latency.getMean() - storageWait - linkQueueing));
+			}
+		}
+
+		out.println("\nOperations:");
+		for (Map.Entry<String, OperationTotals> entry : operations.entrySet()) {
+			OperationTotals o = entry.getValue();
+			long ended = o.succeeded + o.failed;
+			out.println(entry.getKey() + ": " + o.begun + " begun, " + o.succeeded + " succeeded, "
+					+ o.failed + " failed, " + (o.begun - ended) + " unfinished");
+			if (ended > 0) {
+				out.println("    latency " + o.latency);
+				out.println("    mean critical path: network " + mean(o.network, ended)
+						+ ", timers " + mean(o.timers, ended) + ", other " + mean(o.other, ended)
+						+ ", retransmissions " + mean(o.retransmissions, ended));
+			}
+		}
+	}
+
+	/**
+	 * Walk back from the end of an operation to its beginning through the
+	 * events that caused each other, and add up where the time went.
+	 */
+	private void addCriticalPath(OperationTotals o, int begin, int end, long latency) {
+		long network = 0;
+		long timers = 0;
+		int i = (int) parent[end];
+		while (i > begin) {
+			int p = (int) parent[i];
+			if (p == 0) {
+				break;
+			}
+			// only the part of each wait after the operation began counts
+			long waited = time[i] - Math.max(time[p], time[begin]);
+			if (type[i] == TraceWriter.RECEIVE) {
+				network += waited;
+			} else if (type[i] == TraceWriter.TIMEOUT) {
+				timers += waited;
+			} else if (type[i] == TraceWriter.SEND && type[p] == TraceWriter.TIMEOUT) {
+				o.retransmissions++;
+			}
+			i = p;
+		}
+		o.network += network;
+		o.timers += timers;
+		o.other += Math.max(0, latency - network - timers);
+	}
+
+	private static MessageTotals messageTotals(TreeMap<Integer, MessageTotals> messages, int protocol) {
+		MessageTotals m = messages.get(protocol);
+		if (m == null) {
+			m = new MessageTotals();
+			messages.put(protocol, m);
+		}
+		return m;
+	}
+
+	private static OperationTotals operationTotals(TreeMap<String, OperationTotals> operations,
+			String name) {
+		OperationTotals o = operations.get(name);
+		if (o == null) {
+			o = new OperationTotals();
+			operations.put(name, o);
+		}
+		return o;
+	}
+
+	private static double mean(long total, long n) {
+		return round((double) total / n);
+	}
+
+	private static double round(double d) {
+		return Math.round(d * 100) / 100.0;
+	}
+
+	private void grow() {
+		int size = type.length * 2;
+		type = Arrays.copyOf(type, size);
+		time = Arrays.copyOf(time, size);
+		parent = Arrays.copyOf(parent, size);
+		a = Arrays.copyOf(a, size);
+		b = Arrays.copyOf(b, size);
+		c = Arrays.copyOf(c, size);
+		d = Arrays.copyOf(d, size);
+		e = Arrays.copyOf(e, size);
+	}
+
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt varint");
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: java edu.washington.cs.cse490h.lib.TraceAnalyzer trace-file");
+			System.exit(1);
+		}
+		try {
+			InputStream in = new FileInputStream(args[0]);
+			TraceAnalyzer analyzer = new TraceAnalyzer(in);
+			in.close();
+			analyzer.report(System.out);
+		} catch (IOException e) {
+			System.err.println("Could not read trace " + args[0] + ": " + e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package edu.washington.cs.cse490h.lib;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * <pre>
+ * Writes the binary event trace of a simulation, see the traceFile option and
+ * TraceAnalyzer. Unlike the synoptic logs, the trace carries no vector times
+ * or strings, only what it takes to rebuild where the time went:
+ *
+ *   header:  MAGIC (4 bytes), VERSION (varint)
+ *   event:   type, node, time, parent, then the fields of the type
+ *
+ * All numbers are varints, 7 bits per byte, low bits first. Events are
+ * numbered from 1 in the order they are written, and refer to other events by
+ * the difference of their numbers, 0 meaning none:
+ *   - time is the difference to the time of the previous event, zigzag
+ *     encoded so that it may be negative
+ *   - parent is the event that caused this one: the event the node was
+ *     handling for SEND, OP_BEGIN, OP_END, FAILURE; the SEND of the packet for
+ *     RECEIVE, DROP and DELAY; the event that set the timer for TIMEOUT
+ *
+ * The fields of the types are:
+ *   SEND:     dest, protocol, payload size, storage wait, link queueing
+ *   OP_BEGIN: name, an index into the names defined so far
+ *   OP_END:   the OP_BEGIN, succeeded (0 or 1)
+ *   NAME:     length, UTF-8 bytes. Not an event, it takes no number and has
+ *             no node, time or parent
+ *
+ * Events are encoded on the simulator thread into chunks, which a background
+ * thread writes out. If the disk falls behind, the simulation waits for it
+ * rather than losing events.
+ * </pre>
+ */
+public class TraceWriter {
+	public static final int MAGIC = 0x34393054; // "490T"
+	public static final int VERSION = 1;
+
+	public static final int START = 0;
+	public static final int FAILURE = 1;
+	public static final int COMMAND = 2;
+	public static final int SEND = 3;
+	public static final int RECEIVE = 4;
+	public static final int DROP = 5;
+	public static final int DELAY = 6;
+	public static final int TIMEOUT = 7;
+	public static final int OP_BEGIN = 8;
+	public static final int OP_END = 9;
+	public static final int NAME = 10;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	// the most an event other than NAME takes: 10 varints of at most 10 bytes
+	private static final int MAX_EVENT_SIZE = 100;
+	private static final byte[] END = new byte[0];
+
+	private final String filename;
+	private final BlockingQueue<byte[]> chunks;
+	private final Thread writerThread;
+
+	private byte[] buf;
+	private int pos;
+
+	// number of the last event written
+	private long lastEvent;
+	private long lastTime;
+	private final HashMap<String, Integer> names;
+
+	// set by the writer thread if the file could not be written
+	private volatile IOException failure;
+
+	/**
+	 * Open a trace file and start the thread that writes it.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be created
+	 */
+	public TraceWriter(String filename) throws IOException {
+		this.filename = filename;
+		final OutputStream out = new FileOutputStream(filename);
+		chunks = new ArrayBlockingQueue<byte[]>(8);
+		names = new HashMap<String, Integer>();
+		buf = new byte[CHUNK_SIZE];
+		pos = 0;
+		lastEvent = 0;
+		lastTime = 0;
+
+		writeInt(MAGIC);
+		writeVarint(VERSION);
+
+		writerThread = new Thread("trace writer") {
+			@Override
+			public void run() {
+				writeChunks(out);
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Write an event.
+	 *
+	 * @param parent
+	 *            The number of the event that caused this one, 0 if none
+	 * @return The number of the event
+	 */
+	public long event(int type, int node, long time, long parent) {
+		ensureRoom(MAX_EVENT_SIZE);
+		lastEvent++;
+		writeVarint(type);
+		writeVarint(node);
+		long delta = time - lastTime;
+		writeVarint((delta << 1) ^ (delta >> 63));
+		lastTime = time;
+		writeVarint(parent == 0 ? 0 : lastEvent - parent);
+		return lastEvent;
+	}
+
+	/**
+	 * Write a SEND event.
+	 *
+	 * @param wait
+	 *            Time steps the packet waits for the storage of the sender
+	 * @param queued
+	 *            Time steps the packet waits for its link
+	 * @return The number of the event, which identifies the packet
+	 */
+	public long send(int node, long time, long parent, int dest, int protocol, int size,
+			long wait, long queued) {
+		long id = event(SEND, node, time, parent);
+		writeVarint(dest);
+		writeVarint(protocol);
+		writeVarint(size);
+		writeVarint(wait);
+		writeVarint(queued);
+		return id;
+	}
+
+	/**
+	 * Write an OP_BEGIN event.
+	 *
+	 * @return The number of the event, which identifies the operation
+	 */
+	public long beginOperation(int node, long time, long parent, String name) {
+		int index = name(name);
+		long id = event(OP_BEGIN, node, time, parent);
+		writeVarint(index);
+		return id;
+	}
+
+	/**
+	 * Write an OP_END event.
+	 *
+	 * @param begin
+	 *            The number of the OP_BEGIN event of the operation
+	 */
+	public long endOperation(int node, long time, long parent, long begin, boolean succeeded) {
+		long id = event(OP_END, node, time, parent);
+		writeVarint(id - begin);
+		writeVarint(succeeded ? 1 : 0);
+		return id;
+	}
+
+	/**
+	 * Write out what is left and wait for the writer thread to finish.
+	 */
+	public void close() {
+		flushChunk();
+		put(END);
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			System.err.println("Warning: the trace in " + filename + " is incomplete: " + failure);
+		}
+	}
+
+	/**
+	 * @return The index of a name, defined in the trace if it is new
+	 */
+	private int name(String name) {
+		Integer index = names.get(name);
+		if (index != null) {
+			return index;
+		}
+		byte[] utf8;
+		try {
+			utf8 = name.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		ensureRoom(utf8.length + 20);
+		writeVarint(NAME);
+		writeVarint(utf8.length);
+		System.arraycopy(utf8, 0, buf, pos, utf8.length);
+		pos += utf8.length;
+		names.put(name, names.size());
+		return names.size() - 1;
+	}
+
+	private void ensureRoom(int size) {
+		if (pos + size > buf.length) {
+			flushChunk();
+			if (size > buf.length) {
+				buf = new byte[size];
+			}
+		}
+	}
+
+	private void flushChunk() {
+		if (pos == 0) {
+			return;
+		}
+		byte[] chunk = new byte[pos];
+		System.arraycopy(buf, 0, chunk, 0, pos);
+		pos = 0;
+		put(chunk);
+	}
+
+	private void put(byte[] chunk) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				chunks.put(chunk);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[pos++] = (byte) value;
+	}
+
+	private void writeInt(int value) {
+		buf[pos++] = (byte) (value >>> 24);
+		buf[pos++] = (byte) (value >>> 16);
+		buf[pos++] = (byte) (value >>> 8);
+		buf[pos++] = (byte) value;
+	}
+
+	/**
+	 * Body of the writer thread. It keeps taking chunks after a failure, so
+	 * that the simulation never blocks on a dead file.
+	 */
+	private void writeChunks(OutputStream out) {
+		while (true) {
+			byte[] chunk;
+			try {
+				chunk = chunks.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (chunk == END) {
+				break;
+			}
+			if (failure == null) {
+				try {
+					out.write(chunk);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			if (failure == null) {
+				failure = e;
+			}
+		}
+	}
+}
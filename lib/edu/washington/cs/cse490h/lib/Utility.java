@@ -14,6 +14,9 @@ public class Utility {
     private static final String CHARSET = "US-ASCII";
     static Random randNumGen;
 
+    // where the persistent storage of nodes lives
+    static StorageBackend storage = new FileStorageBackend();
+
     public static Random getRNG() {
         return randNumGen;
     }
@@ -84,20 +87,17 @@ public class Utility {
     }
 
     public static boolean fileExists(Node n, String filename) {
-        File f = new File(realFilename(n.addr, filename));
-        return f.exists();
+        return storage.exists(n.addr, filename);
     }
     
     /**
      * Returns all files that start with the given String.
      */
     public static List<File> getMatchingFiles(int nodeAddr, String prefix) {
-    	File directory = new File("storage/" + nodeAddr);
-    	File[] allFiles = directory.listFiles();
     	List<File> matches = new ArrayList<File>();
-    	for (File file : allFiles) {
-    		if (file.getName().startsWith(prefix)) {
-    			matches.add(file);
+    	for (String name : storage.list(nodeAddr)) {
+    		if (name.startsWith(prefix)) {
+    			matches.add(new File(realFilename(nodeAddr, name)));
     		}
     	}
     	
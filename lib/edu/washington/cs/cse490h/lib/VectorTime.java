@@ -1,36 +1,65 @@
 package edu.washington.cs.cse490h.lib;
 
-import java.util.ArrayList;
+import java.io.Serializable;
+import java.util.Arrays;
 
-public class VectorTime {
-	private ArrayList<Integer> vector = null;
+/**
+ * <pre>
+ * A vector clock over a fixed number of nodes.
+ *
+ * Most entries of a clock are usually 0, since few of the addresses are in
+ * use, so the clock keeps track of where the zeros start and merges only up
+ * to there. The synoptic string of the clock is kept between calls and only
+ * rebuilt from the first entry that changed since the last call; the zeros
+ * at the end are copied in one go.
+ * </pre>
+ */
+public class VectorTime implements Serializable {
+	private static final long serialVersionUID = -1808379854458581946L;
+
+	// ",0,0,0...", grown as needed to append runs of zeros
+	private static String zeros = "";
+
+	private final int[] vector;
 	public int vecLength = 0;
+	// all entries from this one on are 0
+	private int used;
+
+	// the last synoptic string, null if there is none yet
+	private String text;
+	// where each entry starts in text, with its comma, up to textUsed
+	private final int[] offsets;
+	// used when text was built
+	private int textUsed;
+	// first entry changed since text was built, vecLength if none
+	private int dirtyFrom;
 
 	/**
 	 * Builds a blank VectorTime
 	 * @param maxNodes the max vector length
 	 */
 	public VectorTime(int maxNodes) {
-		this.vector = new ArrayList<Integer>(maxNodes);
-		for (int i = 0; i < maxNodes; i++) {
-			this.vector.add(0);
-		}
+		this.vector = new int[maxNodes];
 		vecLength = maxNodes;
+		used = 0;
+		offsets = new int[maxNodes + 1];
+		text = null;
+		dirtyFrom = 0;
 	}
-	
+
 	/**
 	 * @return length of the vector time
 	 */
 	public int length() {
 		return vecLength;
 	}
-	
-	
+
+
 	/**
 	 * Returns the clock value at an index
 	 */
 	public int get(int index) {
-		return this.vector.get(index);
+		return vector[index];
 	}
 
 	/**
@@ -41,10 +70,11 @@ public class VectorTime {
 	public boolean lessThan(VectorTime t) {
 		assert(t.vecLength == this.vecLength);
 		boolean foundStrictlyLess = false;
-		for (int i = 0; i < vecLength; ++i) {
-			if (vector.get(i) < t.get(i))
+		int end = Math.max(used, t.used);
+		for (int i = 0; i < end; ++i) {
+			if (vector[i] < t.vector[i])
 				foundStrictlyLess = true;
-			else if (vector.get(i) > t.get(i))
+			else if (vector[i] > t.vector[i])
 				return false;
 		}
 		return foundStrictlyLess;
@@ -55,12 +85,12 @@ public class VectorTime {
 	 */
 	public boolean isOneTime() {
 		boolean sawOne = false;
-		for (int i = 0; i < vecLength; ++i) {
-			if (sawOne && vector.get(i) == 1)
+		for (int i = 0; i < used; ++i) {
+			if (sawOne && vector[i] == 1)
 				return false;
-			if (vector.get(i) == 1)
+			if (vector[i] == 1)
 				sawOne = true;
-			if (vector.get(i) > 0)
+			if (vector[i] > 0)
 				return false;
 		}
 		return true;
@@ -72,15 +102,16 @@ public class VectorTime {
 	public boolean isSingular() {
 		return vecLength == 1;
 	}
-	
+
 	/**
 	 * Increments vtime at an index
 	 * @param index
 	 */
 	public void step(int index) {
-		vector.set(index, vector.get(index) + 1);
+		vector[index]++;
+		changed(index);
 	}
-	
+
 	/**
 	 * Updates to be at least as large as another vtime. Used during message passing
 	 * and other communication between nodes. Usually you would need to call this.step()
@@ -89,35 +120,80 @@ public class VectorTime {
 	 */
 	public void updateTo(VectorTime t) {
 		assert(t.vecLength == this.vecLength);
-		for (int i = 0; i < vecLength; ++i) {
-			if (vector.get(i) < t.get(i))
-				vector.set(i, t.get(i));
+		int[] other = t.vector;
+		for (int i = 0; i < t.used; ++i) {
+			if (vector[i] < other[i]) {
+				vector[i] = other[i];
+				changed(i);
+			}
+		}
+	}
+
+	private void changed(int index) {
+		if (index >= used) {
+			used = index + 1;
+		}
+		if (index < dirtyFrom) {
+			dirtyFrom = index;
 		}
 	}
-	
+
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((vector == null) ? 0 : vector.hashCode());
-		for (int i = 0; i < vecLength; ++i) {
-			result += prime*result + vector.get(i).hashCode();
-		}
-		return result;
+		return Arrays.hashCode(vector);
 	}
-	
+
 	/**
 	 * Returns a Synoptic-string representation for this vector, which
 	 * looks like "1,2,3"
 	 */
 	public String toString() {
-		String ret = "";
-		for (int i = 0; i < vecLength; i++) {
+		if (text != null && dirtyFrom >= vecLength) {
+			return text;
+		}
+
+		// keep what is before the first change
+		int from = (text == null) ? 0 : Math.min(dirtyFrom, textUsed);
+		StringBuilder sb = new StringBuilder(text == null ? 2 * vecLength : text.length() + 8);
+		if (from > 0) {
+			sb.append(text, 0, offsets[from]);
+		}
+
+		for (int i = from; i < used; i++) {
+			offsets[i] = sb.length();
 			if (i != 0) {
-				ret += ",";
+				sb.append(',');
+			}
+			sb.append(vector[i]);
+		}
+		offsets[used] = sb.length();
+
+		int zeroCount = vecLength - used;
+		if (zeroCount > 0) {
+			if (used == 0) {
+				sb.append('0');
+				zeroCount--;
+			}
+			sb.append(zeros(zeroCount), 0, 2 * zeroCount);
+		}
+
+		text = sb.toString();
+		textUsed = used;
+		dirtyFrom = vecLength;
+		return text;
+	}
+
+	/**
+	 * @return A string that starts with count times ",0"
+	 */
+	private static synchronized String zeros(int count) {
+		if (zeros.length() < 2 * count) {
+			StringBuilder sb = new StringBuilder(2 * count);
+			for (int i = 0; i < count; i++) {
+				sb.append(",0");
 			}
-			ret += vector.get(i).toString();
+			zeros = sb.toString();
 		}
-		return ret;
+		return zeros;
 	}
 }
@@ -0,0 +1,64 @@
+package edu.washington.cs.cse490h.tests;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.washington.cs.cse490h.lib.LatencyModel;
+import static org.junit.Assert.*;
+
+public class LatencyModelTests {
+	/**
+	 * Parse every kind of distribution and check that its samples are within
+	 * the bounds of the distribution.
+	 */
+	@Test
+	public void sampleBoundsTest() {
+		Random rng = new Random(0);
+
+		LatencyModel constant = LatencyModel.parse("const:3");
+		LatencyModel uniform = LatencyModel.parse("uniform:2:5");
+		LatencyModel lognormal = LatencyModel.parse("lognormal:4:1.5");
+		LatencyModel hist = LatencyModel.parse("hist:1=3,7=1");
+
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(3, constant.sample(rng));
+
+			int u = uniform.sample(rng);
+			assertTrue(u >= 2 && u <= 5);
+
+			assertTrue(lognormal.sample(rng) >= 1);
+
+			int h = hist.sample(rng);
+			assertTrue(h == 1 || h == 7);
+		}
+	}
+
+	/**
+	 * A constant distribution must not draw from the random number generator,
+	 * so that seeded runs without a latency model stay the same.
+	 */
+	@Test
+	public void constantDoesNotDrawTest() {
+		Random rng = new Random(42);
+		LatencyModel.DEFAULT.sample(rng);
+		assertEquals(new Random(42).nextLong(), rng.nextLong());
+	}
+
+	/**
+	 * Make sure that malformed distributions are rejected.
+	 */
+	@Test
+	public void invalidSpecTest() {
+		String[] specs = { "", "const", "const:0", "const:x", "uniform:5:2", "lognormal:0:1",
+				"hist:1", "hist:1=0", "gaussian:1:2" };
+		for (String spec : specs) {
+			try {
+				LatencyModel.parse(spec);
+				fail("Accepted invalid distribution: " + spec);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package edu.washington.cs.cse490h.tests;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.washington.cs.cse490h.lib.Manager;
+import edu.washington.cs.cse490h.lib.MessageLayer;
+import edu.washington.cs.cse490h.lib.Node;
+import edu.washington.cs.cse490h.lib.PersistentStorageWriter;
+import edu.washington.cs.cse490h.lib.Simulator;
+import static org.junit.Assert.*;
+
+public class PersistentStorageTests {
+	// The global storage settings that the tests change, put back after each
+	private boolean memoryStorage;
+	private Object storage;
+
+	/**
+	 * @return Utility.storage, the backend that a Simulator replaces
+	 */
+	private static Field storageField() throws Exception {
+		Field f = Class.forName("edu.washington.cs.cse490h.lib.Utility").getDeclaredField("storage");
+		f.setAccessible(true);
+		return f;
+	}
+
+	@Before
+	public void saveStorage() throws Exception {
+		memoryStorage = MessageLayer.memoryStorage;
+		storage = storageField().get(null);
+	}
+
+	@After
+	public void restoreStorage() throws Exception {
+		MessageLayer.memoryStorage = memoryStorage;
+		storageField().set(null, storage);
+	}
+
+	/**
+	 * A node that writes "abc" to a new file when it starts.
+	 */
+	public static class WriterNode extends Node {
+		private static final long serialVersionUID = 1L;
+
+		public static double getFailureRate() { return 0; }
+		public static double getRecoveryRate() { return 0; }
+		public static double getDropRate() { return 0; }
+		public static double getDelayRate() { return 0; }
+
+		@Override
+		public void start() {
+			try {
+				PersistentStorageWriter writer = getWriter("file", false);
+				writer.write("abc");
+				writer.close();
+			} catch (IOException e) {
+				// Node has a fail() of its own
+				org.junit.Assert.fail("Could not write: " + e);
+			}
+		}
+
+		@Override
+		public void onReceive(Integer from, int protocol, byte[] msg) {
+		}
+
+		@Override
+		public void onCommand(String command) {
+		}
+	}
+
+	/**
+	 * A simulator that records the bytes of every storage write it is told
+	 * about, and that returns from start() rather than exiting.
+	 */
+	private static class RecordingSimulator extends Simulator {
+		final List<Integer> writes = new ArrayList<Integer>();
+		int crashChecks = 0;
+
+		RecordingSimulator(String commandFile) throws IOException {
+			super(WriterNode.class, Manager.FailureLvl.NOTHING, 0L, "", "", commandFile, true);
+		}
+
+		@Override
+		protected void checkWriteCrash(Node n, String description) {
+			crashChecks++;
+		}
+
+		@Override
+		protected void storageWriteEvent(Node node, String description, int bytes) {
+			writes.add(bytes);
+			super.storageWriteEvent(node, description, bytes);
+		}
+
+		@Override
+		protected void stop() {
+		}
+
+		void run() {
+			start();
+		}
+	}
+
+	/**
+	 * Writing a string must be charged as one operation of as many bytes as
+	 * the string has, and not again for the write() that it is implemented
+	 * with. That write() still checks for a crash, as it did before storage
+	 * was charged, so that seeded runs draw the same random numbers.
+	 */
+	@Test
+	public void writeStringChargedOnceTest() throws IOException {
+		File commands = File.createTempFile("commands", ".txt");
+		commands.deleteOnExit();
+		FileWriter out = new FileWriter(commands);
+		out.write("start 0\n");
+		out.close();
+
+		MessageLayer.memoryStorage = true;
+		RecordingSimulator sim = new RecordingSimulator(commands.getPath());
+		sim.run();
+
+		// the creation of the file, then the write
+		assertEquals("[0, 3]", sim.writes.toString());
+		// the creation, write(str) and the write(s, off, len) it calls
+		assertEquals(3, sim.crashChecks);
+	}
+}
@@ -0,0 +1,73 @@
+package edu.washington.cs.cse490h.tests;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.washington.cs.cse490h.lib.VectorTime;
+import static org.junit.Assert.*;
+
+public class VectorTimeTests {
+	/**
+	 * The synoptic string is rebuilt only from the first entry that changed,
+	 * so check it against one built from scratch after every change.
+	 */
+	@Test
+	public void toStringTest() {
+		Random rng = new Random(0);
+		VectorTime[] clocks = new VectorTime[4];
+		for (int i = 0; i < clocks.length; i++) {
+			clocks[i] = new VectorTime(255);
+		}
+		assertEquals(expected(clocks[0]), clocks[0].toString());
+
+		for (int round = 0; round < 2000; round++) {
+			VectorTime t = clocks[rng.nextInt(clocks.length)];
+			if (rng.nextInt(3) == 0) {
+				t.updateTo(clocks[rng.nextInt(clocks.length)]);
+			}
+			// mostly low addresses, like a small simulation
+			int index = rng.nextInt(4) == 0 ? rng.nextInt(255) : rng.nextInt(8);
+			t.step(index);
+			assertEquals(expected(t), t.toString());
+			// and again, from the cache
+			assertEquals(expected(t), t.toString());
+		}
+	}
+
+	/**
+	 * Merging takes the larger entry of each pair, also where one of the
+	 * clocks has only zeros left.
+	 */
+	@Test
+	public void updateToTest() {
+		VectorTime a = new VectorTime(5);
+		VectorTime b = new VectorTime(5);
+		a.step(0);
+		a.step(0);
+		b.step(0);
+		b.step(3);
+		assertFalse(a.lessThan(b));
+		assertFalse(b.lessThan(a));
+
+		a.updateTo(b);
+		assertEquals("2,0,0,1,0", a.toString());
+		assertTrue(b.lessThan(a));
+
+		b.updateTo(a);
+		b.step(4);
+		assertEquals("2,0,0,1,1", b.toString());
+		assertTrue(a.lessThan(b));
+	}
+
+	private static String expected(VectorTime t) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < t.length(); i++) {
+			if (i != 0) {
+				sb.append(',');
+			}
+			sb.append(t.get(i));
+		}
+		return sb.toString();
+	}
+}
@@ -14,6 +14,7 @@ import java.util.Set;
 import org.apache.commons.lang.StringUtils;
 
 import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.NodeLogger;
 import edu.washington.cs.cse490h.lib.PersistentStorageReader;
 import edu.washington.cs.cse490h.lib.PersistentStorageWriter;
 import edu.washington.cs.cse490h.lib.Utility;
@@ -25,9 +26,12 @@ import edu.washington.cs.cse490h.lib.Utility;
  * @author: Greg Bigelow
  */
 public class FacebookNode extends PaxosNode {
+	private static final long serialVersionUID = -5726365792054186508L;
 
 	private static final String COLOR_PURPLE = "1;35";
 	private static final String COLOR_RED = "0;31";
+	private final NodeLogger facebookLogger = new NodeLogger(this, USE_COLORS ? COLOR_PURPLE : null,
+			USE_COLORS ? COLOR_RED : null);
 
 	// The available facebook commands that can be entered by the user.
 	private static final String CREATE_COMMAND = "create";
@@ -102,7 +106,10 @@ public class FacebookNode extends PaxosNode {
 	public void handlePaxosCommand(int instNum, byte[] value) {
 		
 		if (addr == CLIENT_ID) {
-			// We've learned the command! No need to execute
+			// We've learned the command! No need to execute, but the post is done
+			if (!Arrays.equals(value, PaxosNode.noopMarker)) {
+				doingWork = false;
+			}
 			return;
 		}
 		
@@ -247,13 +254,19 @@ public class FacebookNode extends PaxosNode {
 		printOutput("Client Node Initialized and Accepting Your Commands!");
 	}
 
+	// Whether this is the client and it knows where each user's data is stored. Until then it
+	// cannot run any of the commands.
+	public boolean isInitialized() {
+		return addr == CLIENT_ID && userDataLocations != null;
+	}
+
 	@Override
 	public void onCommand(String command) {
 		// Parse the commands and see if we have any matches to available commands.
 		Scanner commandScanner = new Scanner(command);
 
 		// If we haven't figured out the data locations yet, we can't accept commands.
-		if (userDataLocations == null) {
+		if (!isInitialized()) {
 			printError("System not yet started. Try again later.");
 			return;
 		}
@@ -282,7 +295,7 @@ public class FacebookNode extends PaxosNode {
 			try {
 				createNewUser(userName);
 			} catch (Exception e) {
-				printError("Exception: " + e.toString());
+				printError("Exception: ", e);
 			}
 		}
 
@@ -636,7 +649,7 @@ public class FacebookNode extends PaxosNode {
 	// Prints a message confirming success in creating a new user.
 	public void createSuccess(Integer from, byte[] res, String userName) {
 		doingWork = false;
-		printOutput("Welcome to myface+, " + userName);
+		printOutput("Welcome to myface+, ", userName);
 	}
 
 	// ------------------------ USER LOGIN --------------------------------------//
@@ -646,7 +659,7 @@ public class FacebookNode extends PaxosNode {
 		doingWork = true;
 		// If already logged in.
 		if (loggedInUser != null) {
-			printError("Sorry. Already logged-in as " + loggedInUser);
+			printError("Sorry. Already logged-in as ", loggedInUser);
 			doingWork = false;
 			return;
 		}
@@ -669,13 +682,13 @@ public class FacebookNode extends PaxosNode {
 	// Sets the logged in user to the given string.
 	public void setLoggedInUser(Integer from, byte[] results, String username) {
 		loggedInUser = username;
-		printOutput("Have a nice myface+ session, " + username);
+		printOutput("Have a nice myface+ session, ", username);
 		doingWork = false;
 	}
 
 	public void noSuchUserReport(Integer from, byte[] results, String username) {
 		doingWork = false;
-		printError("Bad move, bro. No such user by the name of " + username);
+		printError("Bad move, bro. No such user by the name of ", username);
 	}
 
 	// ------------------------- USER LOGOUT ------------------------------//
@@ -685,7 +698,7 @@ public class FacebookNode extends PaxosNode {
 		if (loggedInUser == null) {
 			printError("In order to log OUT, young one, you must first log IN.");
 		} else {
-			printOutput("Logging out, " + loggedInUser);
+			printOutput("Logging out, ", loggedInUser);
 		}
 
 		loggedInUser = null;
@@ -721,7 +734,7 @@ public class FacebookNode extends PaxosNode {
 
 	public void reportAlreadyRequested(String user) {
 		doingWork = false;
-		printOutput("There is already a friend request between you and " + user + " in existence.");
+		printOutput("There is already a friend request between you and ", user, " in existence.");
 	}
 
 	// Check to make sure that the person is not already on this user's list of friends.
@@ -746,7 +759,7 @@ public class FacebookNode extends PaxosNode {
 
 	public void reportAlreadyFriend(String userName) {
 		doingWork = false;
-		printError(userName + " is already your buddy. BFF's forever!");
+		printError(userName, " is already your buddy. BFF's forever!");
 	}
 
 	// Adds the name of the currently logged-in user to the requests file for the user specified
@@ -754,7 +767,7 @@ public class FacebookNode extends PaxosNode {
 	public void addToRequestsFile(Integer errorCode, String userName) throws SecurityException,
 			ClassNotFoundException, NoSuchMethodException {
 		if (errorCode != null && errorCode.equals(FILE_TOO_LARGE)) {
-			printError("Sorry, " + userName + " has too many pending friend requests.");
+			printError("Sorry, ", userName, " has too many pending friend requests.");
 			doingWork = false;
 			return;
 		}
@@ -762,7 +775,7 @@ public class FacebookNode extends PaxosNode {
 		// If file doesn't exist, then just say that the person doesn't exist and move on.
 		if (!userDataLocations.containsKey(userName)
 				|| (errorCode != null && errorCode.equals(FILE_NO_EXIST))) {
-			printError("Sorry, there is no such user named " + userName);
+			printError("Sorry, there is no such user named ", userName);
 			doingWork = false;
 			return;
 		}
@@ -790,7 +803,7 @@ public class FacebookNode extends PaxosNode {
 	// Show this message when we've succesfully completed a friend request.
 	public void requestSuccess(Integer from, byte[] result, String userName) {
 		doingWork = false;
-		printOutput("Proposal for intimate, life-long friendship submitted to " + userName);
+		printOutput("Proposal for intimate, life-long friendship submitted to ", userName);
 	}
 
 	// ------------------------------------------ READ POSTS ----------------------- //
@@ -868,7 +881,7 @@ public class FacebookNode extends PaxosNode {
 	 * message to post.
 	 */
 	public Object[] parseArgs(String args) {
-		printError("args: " + args);
+		printError("args: ", args);
 		String[] parts = args.split("\\|\\|");
 		String[] names = parts[0].split(";");
 		List<String> nameList = new ArrayList<String>(Arrays.asList(names));
@@ -957,7 +970,7 @@ public class FacebookNode extends PaxosNode {
 	// Prints a message to let user know that can't accept a non-existent friend request.
 	public void scoldUser(String username) {
 		doingWork = false;
-		printError(username + " don't wanna be yo friend.");
+		printError(username, " don't wanna be yo friend.");
 	}
 
 	// Adds the current user to the list of friends for username. In case of success, control passes
@@ -966,7 +979,7 @@ public class FacebookNode extends PaxosNode {
 			ClassNotFoundException, NoSuchMethodException {
 		// Check to see if appending would make file too large.
 		if (errorCode != null && errorCode.equals(FILE_TOO_LARGE)) {
-			printError("Sorry, but " + username + " has too many friends already.");
+			printError("Sorry, but ", username, " has too many friends already.");
 			doingWork = false;
 			return;
 		}
@@ -1090,7 +1103,7 @@ public class FacebookNode extends PaxosNode {
 
 	public void acceptedFriendSuccess(Integer from, byte[] results, String username) {
 		doingWork = false;
-		printOutput("Happy Day! We've made " + username + " our special friend!");
+		printOutput("Happy Day! We've made ", username, " our special friend!");
 	}
 
 	// ----------------------------------- LIST ALL USERS -------------------------------- //
@@ -1217,12 +1230,14 @@ public class FacebookNode extends PaxosNode {
 		get(serverId, filename, checkForNameCallback, tryAgainCallback);
 	}
 
-	protected void printError(String output) {
-		log(output, System.err, COLOR_RED);
+	// What the user should see is logged at level INFO, see NodeLogger
+
+	protected void printError(Object... parts) {
+		facebookLogger.error(parts);
 	}
 
-	protected void printOutput(String output) {
-		log(output, System.out, COLOR_PURPLE);
+	protected void printOutput(Object... parts) {
+		facebookLogger.info(parts);
 	}
 
 	protected Callback createCallback(String methodName, String[] parameterTypes, Object[] params) {
@@ -1230,8 +1245,8 @@ public class FacebookNode extends PaxosNode {
 		try {
 			m = Callback.getMethod(methodName, this, parameterTypes);
 		} catch (Exception e) {
-			printError("Could not instantiate callback " + methodName + "("
-					+ Arrays.toString(parameterTypes) + ")");
+			printError("Could not instantiate callback ", methodName, "(",
+					Arrays.toString(parameterTypes), ")");
 			e.printStackTrace();
 			printError("***************************");
 			printError("FAILING!");
@@ -8,6 +8,8 @@ import edu.washington.cs.cse490h.lib.Callback;
  * */
 
 public class FacebookTestNode extends FacebookNode {
+	private static final long serialVersionUID = -1523072589351638275L;
+
 	public static double getFailureRate() { return 1/200.0; }
 	public static double getRecoveryRate() { return 50/100.0; }
 	public static double getDropRate() { return 10/100.0; }
@@ -46,7 +48,7 @@ public class FacebookTestNode extends FacebookNode {
 		super.start();
 		printOutput("starting FacebookTestNode " + addr);
 		printOutput("STATE is " + FacebookTestNode.state.name());
-		if (addr != SERVER) {
+		if (addr == CLIENT_ID) {
 			onCommand(BEGIN_COMMAND);
 		}
 		justBooted = true;
@@ -54,8 +56,8 @@ public class FacebookTestNode extends FacebookNode {
 	
 	@Override
 	public void onCommand(String command) {
-		if (addr == SERVER) {
-			printError("You cannot test as the server");
+		if (addr != CLIENT_ID) {
+			printError("You can only test as the client");
 		} else if (command.equals(BEGIN_COMMAND)) {
 			changeState();
 		}
@@ -74,9 +76,10 @@ public class FacebookTestNode extends FacebookNode {
 		}
 	}
 	
-	// Switch state a make a new request if the old one is done
+	// Switch state a make a new request if the old one is done. Requests wait until the client
+	// has fetched the user data locations.
 	public void changeState() {
-		if (!doingWork) {
+		if (isInitialized() && !doingWork) {
 			if (!justBooted) {
 				FacebookTestNode.state = State.values()[Math.min(state.ordinal() + 1, State.END.ordinal())];
 				printOutput("STATE is " + FacebookTestNode.state.name());
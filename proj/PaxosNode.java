@@ -8,6 +8,7 @@ import java.util.Set;
 import java.util.TreeMap;
 
 import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.NodeLogger;
 import edu.washington.cs.cse490h.lib.PersistentStorageReader;
 import edu.washington.cs.cse490h.lib.PersistentStorageWriter;
 import edu.washington.cs.cse490h.lib.Utility;
@@ -19,6 +20,8 @@ import edu.washington.cs.cse490h.lib.Utility;
  * @author Roy McElmurry (roy.miv@gmail.com)
  */
 public abstract class PaxosNode extends RPCNode {
+	private static final long serialVersionUID = 2065635252233187582L;
+
 	private static final int STARTING_BACKOFF = 30;
 	private static final int RANDOM_BACKOFF_MAX = 20;
 	private static final String PAXOS_LOG_FILE = ".paxos";
@@ -27,6 +30,8 @@ public abstract class PaxosNode extends RPCNode {
 	private static final String TEMP_PAXOS_STATE_FILE = PAXOS_STATE_FILE + "_temp";
 	private static final String COLOR_OUTPUT = "0;34";
 	private static final String COLOR_ERROR = "0;31";
+	private final NodeLogger paxosLogger = new NodeLogger(this, USE_COLORS ? COLOR_OUTPUT : null,
+			USE_COLORS ? COLOR_ERROR : null);
 	private static final Random r = new Random();
 	private static final int MAX_NODES = 1000;
 	
@@ -52,9 +57,11 @@ public abstract class PaxosNode extends RPCNode {
 		if (addrs.size() > MAX_NODES) {
 			throw new IllegalArgumentException("This algorithm breaks if you have more than " + MAX_NODES + " replicas.");
 		}
-		noteOutput("About to attempt to replicate! Payload: " + Utility.byteArrayToString(payload));
+		noteOutput("About to attempt to replicate! Payload: ", payload);
 		int instNum = getInstNum();
-		rounds.put(instNum, new PaxosState(instNum, getNextPropNum(0), payload, addrs));
+		PaxosState state = new PaxosState(instNum, getNextPropNum(0), payload, addrs);
+		state.operation = beginOperation("paxos.replicate");
+		rounds.put(instNum, state);
 		proposeCommand(addrs, instNum, payload);
 	}
 
@@ -88,11 +95,12 @@ public abstract class PaxosNode extends RPCNode {
 		// If we don't know what the decision was yet...
 		if (!state.decided) {
 			state.propNum = propNum;
+			state.prepareRounds++;
 			for (Integer nodeAddr : addrs) {
 				PaxosPacket prepare = PaxosPacket.makePrepareMessage(instNum, propNum, payload);
 				
-				noteOutput("Prepare (" + instNum + "," + propNum + ") sent to " + nodeAddr
-							+ " with value: " + (!Arrays.equals(payload, noopMarker) ? Utility.byteArrayToString(payload) : "no-op"));
+				noteOutput("Prepare (", instNum, ",", propNum, ") sent to ", nodeAddr,
+							" with value: ", (Arrays.equals(payload, noopMarker) ? "no-op" : payload));
 				
 				RIOSend(nodeAddr, Protocol.PAXOS_PKT, prepare.pack());
 			}
@@ -106,7 +114,7 @@ public abstract class PaxosNode extends RPCNode {
 						backoff * 2 + r.nextInt() % RANDOM_BACKOFF_MAX });
 				addTimeout(retry, backoff);
 			} catch (Exception e) {
-				noteError("(" + instNum + ") Failed to make callback for proposal retry.");
+				noteError("(", instNum, ") Failed to make callback for proposal retry.");
 				e.printStackTrace();
 				noteError("***************************");
 				noteError("FAILING");
@@ -116,12 +124,12 @@ public abstract class PaxosNode extends RPCNode {
 			
 		// retry if we were a proposer and our value did not win
 		} else if (state.value != null && !Arrays.equals(state.value, noopMarker) && !Arrays.equals(state.value, state.decidedValue)) {
-			noteOutput("(" + instNum + ") Paxos round already decided, but it wasn't my value, retrying");
-			noteOutput("(" + instNum + ") Decided value was: " + Utility.byteArrayToString(state.decidedValue) + 
-					" but my value is " + Utility.byteArrayToString(state.value));
+			noteOutput("(", instNum, ") Paxos round already decided, but it wasn't my value, retrying");
+			noteOutput("(", instNum, ") Decided value was: ", state.decidedValue,
+					" but my value is ", state.value);
 			retryPaxosCommand(state.participants, state.instNum, state.value);
 		} else {
-			noteOutput("(" + instNum + ") Paxos round already decided, and I won, no need to try again");
+			noteOutput("(", instNum, ") Paxos round already decided, and I won, no need to try again");
 		}
 	}
 	
@@ -136,21 +144,21 @@ public abstract class PaxosNode extends RPCNode {
 	private void handlePromiseResponse(int from, int instNum, int highestAccept, byte[] payload) {
 		PaxosState state = this.rounds.get(instNum);
 		state.promised.add(from);
-		noteOutput("(" + instNum + ") recieved promise from " + from + " with highestAccepted = " + highestAccept);
+		noteOutput("(", instNum, ") recieved promise from ", from, " with highestAccepted = ", highestAccept);
 		
 		if (highestAccept > state.highestAcceptedNum) {
-			noteOutput("(" + instNum + ") promise came with a higher acceptance value");
+			noteOutput("(", instNum, ") promise came with a higher acceptance value");
 			state.setHighest(highestAccept, payload);
 		}
 		
 		if (state.quorumPromised() && !state.acceptRequestsSent) {
-			noteOutput("(" + instNum + ") quorum promised");
+			noteOutput("(", instNum, ") quorum promised");
 			for (Integer nodeAddr : state.promised) {
 				PaxosPacket accept =
 						PaxosPacket.makeAcceptMessage(instNum, state.propNum,
 								state.highestAcceptedValue);
-				noteOutput("Accept request (" + instNum + "," + state.propNum + ") sent to "
-						+ nodeAddr + " with value: " + Utility.byteArrayToString(state.highestAcceptedValue));
+				noteOutput("Accept request (", instNum, ",", state.propNum, ") sent to ",
+						nodeAddr, " with value: ", state.highestAcceptedValue);
 				RIOSend(nodeAddr, Protocol.PAXOS_PKT, accept.pack());
 			}
 			state.acceptRequestsSent = true;
@@ -158,17 +166,17 @@ public abstract class PaxosNode extends RPCNode {
 		// If there was a quorom but the accept requests weren't already sent, it can't hurt to send them again.
 		// This will ensure that the result gets executed on all replicas.
 		} else if (state.quorumPromised()) {
-			noteOutput("(" + instNum + ") quorum promised, but accept requests already sent");
+			noteOutput("(", instNum, ") quorum promised, but accept requests already sent");
 			for (Integer nodeAddr : state.promised) {
 				PaxosPacket accept =
 						PaxosPacket.makeAcceptMessage(instNum, state.propNum,
 								state.highestAcceptedValue);
-				noteOutput("Accept request (" + instNum + "," + state.propNum + ") sent to "
-						+ nodeAddr + " with value: " + Utility.byteArrayToString(state.highestAcceptedValue));
+				noteOutput("Accept request (", instNum, ",", state.propNum, ") sent to ",
+						nodeAddr, " with value: ", state.highestAcceptedValue);
 				RIOSend(nodeAddr, Protocol.PAXOS_PKT, accept.pack());
 			}
 		} else {
-			noteOutput("(" + instNum + ") " + state.numPromised() + " out of " + state.participants.size() + " promised");
+			noteOutput("(", instNum, ") ", state.numPromised(), " out of ", state.participants.size(), " promised");
 		}
 	}
 
@@ -177,25 +185,25 @@ public abstract class PaxosNode extends RPCNode {
 		PaxosState state = this.rounds.get(instNum);
 		state.accepted.add(from);
 		if (state.quorumAccepted() && !state.decisionsSent) {
-			noteOutput("(" + instNum + ") quorum accepted value: "
-					+ Utility.byteArrayToString(payload));
+			noteOutput("(", instNum, ") quorum accepted value: ",
+					payload);
 			for (Integer nodeAddr : state.participants) {
 				PaxosPacket decision = PaxosPacket.makeDecisionMessage(instNum, n, payload);
-				noteOutput("(" + instNum + ") sending decision to " + nodeAddr);
+				noteOutput("(", instNum, ") sending decision to ", nodeAddr);
 				RIOSend(nodeAddr, Protocol.PAXOS_PKT, decision.pack());
 			}
 			state.decisionsSent = true;
 		} else if (state.quorumAccepted()) {
-			noteOutput("(" + instNum + ") quorum accepted, but decisions already sent");
-			noteOutput("(" + instNum + ") quorum accepted value: "
-					+ Utility.byteArrayToString(payload));
+			noteOutput("(", instNum, ") quorum accepted, but decisions already sent");
+			noteOutput("(", instNum, ") quorum accepted value: ",
+					payload);
 			for (Integer nodeAddr : state.participants) {
 				PaxosPacket decision = PaxosPacket.makeDecisionMessage(instNum, n, payload);
-				noteOutput("(" + instNum + ") sending decision to " + nodeAddr);
+				noteOutput("(", instNum, ") sending decision to ", nodeAddr);
 				RIOSend(nodeAddr, Protocol.PAXOS_PKT, decision.pack());
 			}
 		} else {
-			noteOutput("(" + instNum + ") " + state.numAccepted() + " out of " + state.participants.size() + " accepted");
+			noteOutput("(", instNum, ") ", state.numAccepted(), " out of ", state.participants.size(), " accepted");
 		}
 	}
 
@@ -206,7 +214,7 @@ public abstract class PaxosNode extends RPCNode {
 	private void handlePrepareRequest(int from, int instNum, int n, byte[] payload) {
 		PaxosState state = this.rounds.get(instNum);
 		if (state == null) {
-			noteOutput("(" + instNum + ") Prepare request for unknown round, creating state for it");
+			noteOutput("(", instNum, ") Prepare request for unknown round, creating state for it");
 			state = new PaxosState(instNum, n, payload, Arrays.asList(REPLICA_ADDRS));
 			this.rounds.put(instNum, state);
 		}
@@ -217,11 +225,11 @@ public abstract class PaxosNode extends RPCNode {
 			PaxosPacket promise =
 					PaxosPacket.makePromiseMessage(state.instNum, state.acceptedPropNum,
 							(state.acceptedValue == null) ? payload : state.acceptedValue);
-			noteOutput("(" + instNum + ") promise not to accept lower than " + n);
+			noteOutput("(", instNum, ") promise not to accept lower than ", n);
 			byte[] packed = promise.pack();
 			RIOSend(from, Protocol.PAXOS_PKT, packed);
 		} else {
-			noteOutput("(" + instNum + ") ignoring prepare request, I already promised higher");
+			noteOutput("(", instNum, ") ignoring prepare request, I already promised higher");
 		}
 	}
 
@@ -239,11 +247,11 @@ public abstract class PaxosNode extends RPCNode {
 			state.acceptedValue = payload;
 			logKnownStates();
 			PaxosPacket accepted = PaxosPacket.makeAcceptedMessage(instNum, n, payload);
-			noteOutput("(" + instNum + ") Accepted prop " + n + " with payload " + Utility.byteArrayToString(payload));
+			noteOutput("(", instNum, ") Accepted prop ", n, " with payload ", payload);
 			RIOSend(from, Protocol.PAXOS_PKT, accepted.pack());
 		} else {
-			noteOutput("(" + instNum + ") I promised not to accept lower than "
-					+ state.promisedPropNum);
+			noteOutput("(", instNum, ") I promised not to accept lower than ",
+					state.promisedPropNum);
 		}
 	}
 
@@ -265,14 +273,14 @@ public abstract class PaxosNode extends RPCNode {
 		
 		// If we didn't know about this state before, make a new state object and store it in our rounds.
 		if (state == null) {
-			noteOutput("(" + instNum + ") I was unaware of this round, creating state for it");
+			noteOutput("(", instNum, ") I was unaware of this round, creating state for it");
 			state = new PaxosState(instNum, payload, false, Arrays.asList(REPLICA_ADDRS));
 			this.rounds.put(instNum, state);
 		}
 		
 		// If we've already executed this command, we can just check for gaps in our execution and then return.
 		if (state.executed) {
-			noteOutput("(" + instNum + ") Received decision message, but already executed.");
+			noteOutput("(", instNum, ") Received decision message, but already executed.");
 			catchUpExecution();
 			checkAndHandleGaps();
 			return;
@@ -283,6 +291,14 @@ public abstract class PaxosNode extends RPCNode {
 		if (!state.decided) {
 			state.decidedValue = payload;
 			state.decided = true;
+			if (state.prepareRounds > 0) {
+				metrics().histogram("paxos.roundsPerDecision").record(state.prepareRounds);
+			}
+			if (state.operation >= 0) {
+				// our proposal lost if another value was chosen for this round
+				endOperation(state.operation, Arrays.equals(payload, state.value));
+				state.operation = -1;
+			}
 			logKnownCommands();
 			logKnownStates();
 		}
@@ -297,7 +313,7 @@ public abstract class PaxosNode extends RPCNode {
 		int maxKnown = this.rounds.lastKey();
 		for (int i = 0; i <= maxKnown; i++) {
 			if (!this.rounds.containsKey(i) || i > highestExecutedNum) {
-				noteOutput("Detected a gap at slot " + i);
+				noteOutput("Detected a gap at slot ", i);
 				learnCommand(Arrays.asList(REPLICA_ADDRS), i);
 			} 
 		}
@@ -315,13 +331,13 @@ public abstract class PaxosNode extends RPCNode {
 			}
 			
 			// At this point, we have decided the next state but have not yet executed it. So go ahead and do that.
-			noteOutput("(" + instNum + ") Executing command in special command eater loop.");
+			noteOutput("(", instNum, ") Executing command in special command eater loop.");
 			if (!Arrays.equals(nextState.decidedValue, noopMarker)) {
 				handlePaxosCommand(nextState.instNum, nextState.decidedValue);
 				nextState.executed = true;
 				logKnownCommands();
 			} else {
-				noteOutput("(" + instNum + ") No-op command completed");
+				noteOutput("(", instNum, ") No-op command completed");
 				nextState.executed = true;
 				logKnownCommands();
 			}
@@ -371,7 +387,7 @@ public abstract class PaxosNode extends RPCNode {
 					logData += this.rounds.get(instNum).toLogString() + "\n";
 				}
 			}
-			noteError("Logging commands data: " + logData);
+			noteError("Logging commands data: ", logData);
 			logFile.write(logData.trim());
 			logFile.close();
 
@@ -414,7 +430,7 @@ public abstract class PaxosNode extends RPCNode {
 			for (int instNum : this.rounds.keySet()) {
 				logData += this.rounds.get(instNum).toStateLogString().trim() + "\n";
 			}
-			noteError("Logging state data: " + logData);
+			noteError("Logging state data: ", logData);
 			logFile.write(logData.trim());
 			logFile.close();
 
@@ -468,12 +484,14 @@ public abstract class PaxosNode extends RPCNode {
 		this.rounds = new TreeMap<Integer, PaxosState>();
 	}
 
-	private void noteError(String output) {
-		log(output, System.err, COLOR_ERROR);
+	// The progress of the rounds is logged at level FINE, see NodeLogger
+
+	private void noteError(Object... parts) {
+		paxosLogger.error(parts);
 	}
 
-	private void noteOutput(String output) {
-		log(output, System.out, COLOR_OUTPUT);
+	private void noteOutput(Object... parts) {
+		paxosLogger.debug(parts);
 	}
 
 	// Recovers the known decided commands and runs the command handler for each until a gap is
@@ -529,14 +547,14 @@ public abstract class PaxosNode extends RPCNode {
 				for (String s : commands) {
 					if (s.trim().length() > 0) {
 						PaxosState state = PaxosState.fromLogString(s, Arrays.asList(REPLICA_ADDRS));
-						noteOutput("Found round " + state.instNum + " with value: "
-							+ Utility.byteArrayToString(state.value));
+						noteOutput("Found round ", state.instNum, " with value: ",
+							state.value);
 														
 						this.rounds.put(state.instNum, state);
 					
 						// Record the highest known executed command.
 						if (state.executed) {
-							noteOutput("Had already executed round " + state.instNum);
+							noteOutput("Had already executed round ", state.instNum);
 							this.highestExecutedNum = state.instNum;
 						} 
 					}
@@ -607,9 +625,9 @@ public abstract class PaxosNode extends RPCNode {
 							state.updateFromStateLogString(s);
 						}
 						
-						noteOutput("Found round " + instNum + " promised prop number: " + state.promisedPropNum
-								+ " and accepted prop num: " + state.acceptedPropNum + " and accepted value: "
-							+ Utility.byteArrayToString(state.acceptedValue));
+						noteOutput("Found round ", instNum, " promised prop number: ", state.promisedPropNum,
+								" and accepted prop num: ", state.acceptedPropNum, " and accepted value: ",
+							state.acceptedValue);
 					}
 				}
 			}
@@ -1,10 +1,12 @@
+import java.io.Serializable;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 import edu.washington.cs.cse490h.lib.Utility;
 
-public class PaxosState {
+public class PaxosState implements Serializable {
+	private static final long serialVersionUID = -1323033434511320739L;
 
     public static final String LOG_SEPERATOR = ",";
     public static final String EXECUTED_TRUE_STRING = "EXEC";
@@ -25,6 +27,10 @@ public class PaxosState {
 	public byte[] highestAcceptedValue;
 	public boolean decisionsSent;
 	public boolean acceptRequestsSent;
+	// Id of the benchmark operation replicating value, -1 if there is none
+	public int operation = -1;
+	// Number of prepare rounds this node ran as the proposer
+	public int prepareRounds = 0;
 	
 	//Acceptor State
 	public int promisedPropNum;
@@ -0,0 +1,74 @@
+import java.util.Arrays;
+import java.util.List;
+
+import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.Utility;
+
+/**
+ * Drives PaxosNode for the benchmarks, see bench/scenarios/paxos_replicate. A
+ * replica that is told to "begin" replicates NUM_COMMANDS commands of its own
+ * through replicateCommand, one every INTERVAL time steps. Every replica counts
+ * the commands it executes.
+ */
+public class PaxosTester extends PaxosNode {
+	private static final long serialVersionUID = -2817328702970020972L;
+
+	// Paxos survives failures, but the benchmark measures replication itself
+	public static double getFailureRate() { return 0; }
+
+	public static final String BEGIN_COMMAND = "begin";
+	public static int NUM_COMMANDS = 20;
+	public static int INTERVAL = 5;
+
+	private static final List<Integer> REPLICAS = Arrays.asList(REPLICA_ADDRS);
+
+	private int proposed;
+	private int executed;
+
+	@Override
+	public void start() {
+		super.start();
+		proposed = 0;
+		executed = 0;
+	}
+
+	@Override
+	public void onCommand(String command) {
+		if (command.equals(BEGIN_COMMAND)) {
+			proposeNext();
+		} else {
+			super.onCommand(command);
+		}
+	}
+
+	/**
+	 * Replicate the next command, and schedule the one after it.
+	 */
+	public void proposeNext() {
+		if (proposed == NUM_COMMANDS) {
+			return;
+		}
+		replicateCommand(REPLICAS, Utility.stringToByteArray(addr + ":" + proposed));
+		proposed++;
+
+		try {
+			Callback cb = new Callback(Callback.getMethod("proposeNext", this, new String[0]),
+					this, new Object[0]);
+			addTimeout(cb, INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public void handlePaxosCommand(int instNum, byte[] payload) {
+		if (!Arrays.equals(payload, noopMarker)) {
+			executed++;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "executed " + executed + " commands, proposed " + proposed + "\n" + super.toString();
+	}
+}
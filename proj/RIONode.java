@@ -11,6 +11,8 @@ import edu.washington.cs.cse490h.lib.Node;
  * overriding the onReceive() method to include a call to super.onReceive()
  */
 public abstract class RIONode extends Node {
+	private static final long serialVersionUID = 8543954232138456698L;
+
 	private ReliableInOrderMsgLayer RIOLayer;
 	
 	public RIONode() {
@@ -5,6 +5,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 
 import edu.washington.cs.cse490h.lib.Packet;
 import edu.washington.cs.cse490h.lib.Utility;
@@ -14,7 +15,9 @@ import edu.washington.cs.cse490h.lib.Utility;
  * carried in the payload of a Packet, and in turn the data being transferred is
  * carried in the payload of the RIOPacket packet.
  */
-public class RIOPacket {
+public class RIOPacket implements Serializable {
+	private static final long serialVersionUID = -516067696306225416L;
+
 
 	public static final int MAX_PACKET_SIZE = Packet.MAX_PAYLOAD_SIZE;
 	public static final int HEADER_SIZE = 9;
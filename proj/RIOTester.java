@@ -11,6 +11,8 @@ import edu.washington.cs.cse490h.lib.Utility;
  * continues until we send at least 100 messages to another node.
  */
 public class RIOTester extends RIONode {
+    private static final long serialVersionUID = -1104122573501124662L;
+
     // The RIO layer is not correct in the presence of node failures.
     public static double getFailureRate() {
         return 1 / 100.0;
@@ -0,0 +1,362 @@
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.Histogram;
+import edu.washington.cs.cse490h.lib.LatencyModel;
+import edu.washington.cs.cse490h.lib.Utility;
+
+/**
+ * Synthetic workload for the RPC layer. Issues a mix of file requests from an
+ * RPCNode at a fixed rate per time step, and reports the throughput and latency
+ * it got once every request is answered.
+ *
+ * A workload is started with the node command
+ *
+ * <pre>
+ * load [setting=value ...]
+ * </pre>
+ *
+ * where the settings are:
+ *
+ * <pre>
+ * servers=0,1,...  -- the servers to send requests to, chosen uniformly [default 0]
+ * rate=R           -- requests issued per time step, can be fractional [default 1]
+ * steps=N          -- number of time steps to issue requests for [default 100]
+ * keys=N           -- number of distinct files per server [default 100]
+ * dist=uniform     -- every file is equally popular [default]
+ * dist=zipf:S      -- the file of rank k is picked with probability ~ 1/k^S
+ * mix=OP:W,...     -- relative weights of create, get, put, append and delete
+ *                     [default create:1,get:6,put:1,append:1,delete:1]
+ * size=DIST        -- size of put and append contents, in the syntax of
+ *                     LatencyModel [default const:16]
+ * seed=N           -- seed of the workload, so that it is reproducible
+ *                     [default drawn from the node's random number generator]
+ * </pre>
+ *
+ * Latencies are measured in time steps, from the time step in which the
+ * request is issued to the one in which its result is handled. They include
+ * the time a request waits behind earlier requests of the same client.
+ */
+public class RPCLoadGenerator implements Serializable {
+	private static final long serialVersionUID = 1922773994623789967L;
+
+	private static final Command[] OPS = { Command.CREATE, Command.GET, Command.PUT,
+			Command.APPEND, Command.DELETE };
+
+	/**
+	 * Latencies and outcomes of one kind of request.
+	 */
+	private static class OpStats implements Serializable {
+		private static final long serialVersionUID = 2881524865465423979L;
+
+		int issued = 0;
+		int succeeded = 0;
+		int failed = 0;
+		final Histogram latency = new Histogram();
+
+		void addAll(OpStats other) {
+			issued += other.issued;
+			succeeded += other.succeeded;
+			failed += other.failed;
+			latency.add(other.latency);
+		}
+
+		String summary() {
+			if (latency.getCount() == 0) {
+				return issued + " issued, none answered";
+			}
+			return issued + " issued, " + succeeded + " ok, " + failed + " failed, latency "
+					+ latency;
+		}
+	}
+
+	private final RPCNode node;
+	private final Random rng;
+
+	private int[] servers = { 0 };
+	private double rate = 1;
+	private int steps = 100;
+	private int keys = 100;
+	// cumulative probabilities of the keys by rank, null for uniform
+	private double[] keyCdf = null;
+	// cumulative weights of OPS
+	private double[] mixCdf = { 1, 7, 8, 9, 10 };
+	private LatencyModel sizes = new LatencyModel.Constant(16);
+
+	private final OpStats[] stats;
+	private long startTime;
+	private long lastAnswer;
+	private int stepsDone = 0;
+	private double credit = 0;
+	private int outstanding = 0;
+	private boolean done = false;
+
+	/**
+	 * @param node
+	 *            The node that issues the requests
+	 * @param settings
+	 *            The setting=value tokens of the load command
+	 * @throws IllegalArgumentException
+	 *             If a setting is invalid
+	 */
+	public RPCLoadGenerator(RPCNode node, String[] settings) throws IllegalArgumentException {
+		this.node = node;
+		// null unless given, so that a seeded workload leaves the node's generator alone
+		Long seed = null;
+		for (String setting : settings) {
+			String[] kv = setting.split("=", 2);
+			if (kv.length != 2) {
+				throw new IllegalArgumentException("expected setting=value: " + setting);
+			}
+			try {
+				if (kv[0].equals("servers")) {
+					String[] addrs = kv[1].split(",");
+					servers = new int[addrs.length];
+					for (int i = 0; i < addrs.length; i++) {
+						servers[i] = Integer.parseInt(addrs[i]);
+					}
+				} else if (kv[0].equals("rate")) {
+					rate = Double.parseDouble(kv[1]);
+				} else if (kv[0].equals("steps")) {
+					steps = Integer.parseInt(kv[1]);
+				} else if (kv[0].equals("keys")) {
+					keys = Integer.parseInt(kv[1]);
+				} else if (kv[0].equals("dist")) {
+					parseDist(kv[1]);
+				} else if (kv[0].equals("mix")) {
+					parseMix(kv[1]);
+				} else if (kv[0].equals("size")) {
+					sizes = LatencyModel.parse(kv[1]);
+				} else if (kv[0].equals("seed")) {
+					seed = Long.parseLong(kv[1]);
+				} else {
+					throw new IllegalArgumentException("unknown setting: " + kv[0]);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid value for " + kv[0] + ": " + kv[1]);
+			}
+		}
+		if (rate <= 0 || steps <= 0 || keys <= 0) {
+			throw new IllegalArgumentException("rate, steps and keys must be positive");
+		}
+		if (keyCdf != null) {
+			// the exponent was parsed before the number of keys was known
+			keyCdf = zipfCdf(keys, keyCdf[0]);
+		}
+
+		if (seed == null) {
+			seed = Utility.getRNG().nextLong();
+		}
+		rng = new Random(seed);
+		stats = new OpStats[OPS.length];
+		for (int i = 0; i < OPS.length; i++) {
+			stats[i] = new OpStats();
+		}
+	}
+
+	/**
+	 * Start issuing requests, from the next time step on.
+	 */
+	public void start() {
+		startTime = node.now();
+		lastAnswer = startTime;
+		scheduleTick();
+	}
+
+	/**
+	 * @return true until every request has been issued and answered
+	 */
+	public boolean isRunning() {
+		return !done;
+	}
+
+	/**
+	 * Called once per time step: issues this step's requests, and reports once
+	 * the workload is over.
+	 */
+	public void tick() {
+		if (stepsDone < steps) {
+			stepsDone++;
+			credit += rate;
+			while (credit >= 1) {
+				credit--;
+				issue();
+			}
+		}
+
+		if (stepsDone == steps && outstanding == 0) {
+			done = true;
+			report();
+		} else {
+			scheduleTick();
+		}
+	}
+
+	/**
+	 * Success callback of an issued request.
+	 */
+	public void succeeded(Integer from, byte[] result, Integer op, Long issuedAt) {
+		answered(op, issuedAt).succeeded++;
+	}
+
+	/**
+	 * Failure callback of an issued request.
+	 */
+	public void failed(Integer errorCode, Integer op, Long issuedAt) {
+		answered(op, issuedAt).failed++;
+	}
+
+	private OpStats answered(int op, long issuedAt) {
+		outstanding--;
+		lastAnswer = node.now();
+		OpStats s = stats[op];
+		s.latency.record(lastAnswer - issuedAt);
+		return s;
+	}
+
+	private void issue() {
+		int op = pick(mixCdf);
+		int server = servers[rng.nextInt(servers.length)];
+		String filename = "load" + ((keyCdf == null) ? rng.nextInt(keys) : pick(keyCdf));
+
+		Long now = node.now();
+		Callback success = callback("succeeded", new String[] { "java.lang.Integer",
+				byte[].class.getName(), "java.lang.Integer", "java.lang.Long" }, new Object[] {
+				null, null, op, now });
+		Callback failure = callback("failed", new String[] { "java.lang.Integer",
+				"java.lang.Integer", "java.lang.Long" }, new Object[] { null, op, now });
+
+		stats[op].issued++;
+		outstanding++;
+		switch (OPS[op]) {
+		case CREATE:
+			node.create(server, filename, success, failure);
+			break;
+		case GET:
+			node.get(server, filename, success, failure);
+			break;
+		case PUT:
+			node.put(server, filename, contents(filename), success, failure);
+			break;
+		case APPEND:
+			node.append(server, filename, contents(filename), success, failure);
+			break;
+		case DELETE:
+			node.delete(server, filename, success, failure);
+			break;
+		}
+	}
+
+	/* Random letters of a random size, capped so that the request fits in a packet */
+	private String contents(String filename) {
+		int max = RPCRequestPacket.MAX_PAYLOAD_SIZE - filename.length() - 2;
+		int size = Math.min(sizes.sample(rng), max);
+		char[] buf = new char[size];
+		for (int i = 0; i < size; i++) {
+			buf[i] = (char) ('a' + rng.nextInt(26));
+		}
+		return new String(buf);
+	}
+
+	/* Index of the bucket of a cumulative distribution that a uniform draw falls in */
+	private int pick(double[] cdf) {
+		double x = rng.nextDouble() * cdf[cdf.length - 1];
+		int i = Arrays.binarySearch(cdf, x);
+		if (i < 0) {
+			i = -i - 1;
+		} else {
+			// x is exactly on a boundary, which belongs to the next bucket
+			i++;
+		}
+		return Math.min(i, cdf.length - 1);
+	}
+
+	private void parseDist(String spec) {
+		if (spec.equals("uniform")) {
+			keyCdf = null;
+		} else if (spec.startsWith("zipf:")) {
+			double s = Double.parseDouble(spec.substring("zipf:".length()));
+			if (s <= 0) {
+				throw new IllegalArgumentException("zipf exponent must be positive: " + spec);
+			}
+			// filled in once the number of keys is known
+			keyCdf = new double[] { s };
+		} else {
+			throw new IllegalArgumentException("unknown key distribution: " + spec);
+		}
+	}
+
+	private void parseMix(String spec) {
+		double[] weights = new double[OPS.length];
+		for (String entry : spec.split(",")) {
+			String[] opWeight = entry.split(":");
+			int op = -1;
+			for (int i = 0; i < OPS.length; i++) {
+				if (OPS[i].name().equalsIgnoreCase(opWeight[0])) {
+					op = i;
+				}
+			}
+			if (op < 0 || opWeight.length != 2) {
+				throw new IllegalArgumentException("expected op:weight in mix: " + entry);
+			}
+			weights[op] = Double.parseDouble(opWeight[1]);
+			if (weights[op] < 0) {
+				throw new IllegalArgumentException("negative weight in mix: " + entry);
+			}
+		}
+		double total = 0;
+		for (int i = 0; i < OPS.length; i++) {
+			total += weights[i];
+			weights[i] = total;
+		}
+		if (total <= 0) {
+			throw new IllegalArgumentException("mix has no weight: " + spec);
+		}
+		mixCdf = weights;
+	}
+
+	private static double[] zipfCdf(int n, double s) {
+		double[] cdf = new double[n];
+		double total = 0;
+		for (int k = 1; k <= n; k++) {
+			total += 1 / Math.pow(k, s);
+			cdf[k - 1] = total;
+		}
+		return cdf;
+	}
+
+	private Callback callback(String methodName, String[] paramTypes, Object[] params) {
+		try {
+			Method method = Callback.getMethod(methodName, this, paramTypes);
+			return new Callback(method, this, params);
+		} catch (Exception e) {
+			// the methods are right here, so this cannot happen
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void scheduleTick() {
+		node.addTimeout(callback("tick", new String[0], new Object[0]), 1);
+	}
+
+	private void report() {
+		long elapsed = Math.max(1, lastAnswer - startTime);
+		OpStats total = new OpStats();
+		for (OpStats s : stats) {
+			total.addAll(s);
+		}
+		long answered = total.latency.getCount();
+		node.logLoad("Load finished: " + answered + " requests in " + elapsed
+				+ " steps, throughput " + Math.round(answered * 100.0 / elapsed) / 100.0
+				+ " requests/step");
+		node.logLoad("  all: " + total.summary());
+		for (int i = 0; i < OPS.length; i++) {
+			if (stats[i].issued > 0) {
+				node.logLoad("  " + OPS[i].name().toLowerCase() + ": " + stats[i].summary());
+			}
+		}
+	}
+}
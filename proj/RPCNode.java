@@ -1,6 +1,8 @@
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
@@ -9,7 +11,11 @@ import java.util.Queue;
 import org.apache.commons.lang.exception.ExceptionUtils;
 
 import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.FlightEvents;
+import edu.washington.cs.cse490h.lib.Histogram;
 import edu.washington.cs.cse490h.lib.MessageLayer;
+import edu.washington.cs.cse490h.lib.MetricsRegistry;
+import edu.washington.cs.cse490h.lib.NodeLogger;
 import edu.washington.cs.cse490h.lib.PersistentStorageReader;
 import edu.washington.cs.cse490h.lib.PersistentStorageWriter;
 import edu.washington.cs.cse490h.lib.Utility;
@@ -21,6 +27,7 @@ import edu.washington.cs.cse490h.lib.Utility;
  * @author Jenny Abrahamson
  */
 public class RPCNode extends RIONode {
+	private static final long serialVersionUID = -9124825209078694872L;
 
 	/** Set failure/recovery/delay/drop rates based on command line options, default == 0% */
 	 public static double getFailureRate() { return MessageLayer.rpcFail / 100.0; }
@@ -33,6 +40,8 @@ public class RPCNode extends RIONode {
 	public static final boolean USE_COLORS = true;
 	private static final String COLOR_CYAN = "0;36";
 	private static final String COLOR_GREEN = "0;32";
+	private final NodeLogger rpcLogger = new NodeLogger(this, USE_COLORS ? COLOR_GREEN : null,
+			USE_COLORS ? COLOR_CYAN : null);
 
 	// ------------ SERVER VARIABLES ------------ //
 
@@ -59,6 +68,17 @@ public class RPCNode extends RIONode {
 	// Map from server id to current session id
 	private Map<Integer, Integer> serverSessionIDs;
 
+	// Synthetic workload started by the load command, null if none was
+	private RPCLoadGenerator load;
+
+	// ------------ METRICS ------------ //
+
+	// The histograms of the phases of the requests, see recordRPCTime
+	private final PhaseHistograms queueTimes = new PhaseHistograms("queue");
+	private final PhaseHistograms networkTimes = new PhaseHistograms("network");
+	private final PhaseHistograms totalTimes = new PhaseHistograms("total");
+	private final PhaseHistograms handlingTimes = new PhaseHistograms("handling");
+
 	// ------------------------------------------- //
 
 	// Number of steps to wait before re-sending requests
@@ -78,6 +98,11 @@ public class RPCNode extends RIONode {
 		requestID = 0;
 		requestQueue = new LinkedList<RPCRequest>();
 		serverSessionIDs = new HashMap<Integer, Integer>();
+		metrics().gauge("rpc.queueDepth", new MetricsRegistry.Gauge() {
+			public long value() {
+				return requestQueue.size();
+			}
+		});
 
 		// Recover from a failed put
 		if (Utility.fileExists(this, TEMP_PUT_FILE)) {
@@ -113,10 +138,15 @@ public class RPCNode extends RIONode {
     /**
      * There is a user or input file command to process. The command String
      * needs to be in the following format: command server filename
-     * {additionalInfo}
+     * {additionalInfo}, or be a load command, see RPCLoadGenerator
      */
     @Override
     public void onCommand(String command) {
+        if (command.equals("load") || command.startsWith("load ")) {
+            startLoad(command.substring("load".length()).trim());
+            return;
+        }
+
         String[] request = command.split(" ", 4);
 
         if (request.length >= 3) {
@@ -156,11 +186,11 @@ public class RPCNode extends RIONode {
     public void onRIOReceive(Integer from, int protocol, byte[] msg) {
         if (protocol == Protocol.RPC_REQUEST_PKT) {
             RPCRequestPacket pkt = RPCRequestPacket.unpack(msg);
-            logOutput("JUST RECEIVED: " + pkt.toString());
+            logDebug("JUST RECEIVED: ", pkt);
             handleRPCrequest(from, pkt);
         } else if (protocol == Protocol.RPC_RESULT_PKT) {
             RPCResultPacket pkt = RPCResultPacket.unpack(msg);
-            logOutput("JUST RECEIVED: " + pkt.toString());
+            logDebug("JUST RECEIVED: ", pkt);
             handleRPCresult(from, pkt);
         } else {
             logError("unknown protocol: " + protocol);
@@ -168,6 +198,22 @@ public class RPCNode extends RIONode {
         }
     }
     
+    /** Starts a synthetic workload, unless one is already running */
+    private void startLoad(String settings) {
+        if (load != null && load.isRunning()) {
+            logError("A load is already running, ignoring: load " + settings);
+            return;
+        }
+        try {
+            load = new RPCLoadGenerator(this,
+                    settings.equals("") ? new String[0] : settings.split("\\s+"));
+        } catch (IllegalArgumentException e) {
+            logError("Invalid load command: " + e.getMessage());
+            return;
+        }
+        load.start();
+    }
+
     // ------------ CLIENT STUBS ------------ //
 
     /** Creates the file filename on server serverAddr */
@@ -282,7 +328,11 @@ public class RPCNode extends RIONode {
 
 		if (RPCRequestPacket.validSizePayload(payload)) {
 			RPCRequestPacket pkt = RPCRequestPacket.getPacket(this, requestID++, command, payload);
-			RPCRequest request = new RPCRequest(success, failure, pkt, serverAddr, filename);
+			int operation = beginOperation("rpc." + command.name().toLowerCase());
+			RPCRequest request = new RPCRequest(success, failure, pkt, serverAddr, filename,
+					operation);
+			request.madeStep = now();
+			request.madeNanos = System.nanoTime();
 			requestQueue.add(request);
 			attemptToSend(request);
 		} else {
@@ -317,8 +367,14 @@ public class RPCNode extends RIONode {
         RPCRequestPacket pkt = request.pckt;
         
         pkt.setServerSessionID(serverSessionIDs.get(request.serverAddr));
+        if (request.sentStep < 0) {
+            request.sentStep = now();
+            request.sentNanos = System.nanoTime();
+            recordRPCTime(queueTimes, request, request.sentStep - request.madeStep,
+                    request.sentNanos - request.madeNanos);
+        }
         
-        logOutput("SENDING to Node " + request.serverAddr + ": " + pkt.toString());
+        logDebug("SENDING to Node ", request.serverAddr, ": ", pkt);
         RIOSend(request.serverAddr, Protocol.RPC_REQUEST_PKT, pkt.pack());
 
         // Set timeout to retry this method in TIMEOUT steps, will trigger
@@ -363,21 +419,24 @@ public class RPCNode extends RIONode {
 				serverSessionIDs.put(from,
 						Integer.parseInt(Utility.byteArrayToString(pkt.getPayload())));
 				requestQueue.poll();
+				endOperation(request.operation, true);
+				recordCompletion(request, pkt);
 			}
 		} else {
 			requestQueue.poll();
+			endOperation(request.operation, status == Status.SUCCESS);
+			recordCompletion(request, pkt);
 			Callback callback;
 
 			if (status == Status.SUCCESS) {
 				callback = request.success;
 
 				// Log success message
-				logOutput("Successfully completed: " + requestType + " on server "
-						+ request.serverAddr);
+				logOutput("Successfully completed: ", requestType, " on server ",
+						request.serverAddr);
 
 				// Fill success handlers with node address and payload.
-				String payload = Utility.byteArrayToString(pkt.getPayload());
-				logOutput(payload);
+				logOutput(pkt.getPayload());
 				if (callback != null) {
 					Object[] params = callback.getParams();
 					params[0] = from;
@@ -412,7 +471,7 @@ public class RPCNode extends RIONode {
 			// If appropriate callback not null, invoke it
 			if (callback != null) {
 				try {
-					logOutput("Callback " + callback.toString());
+					logDebug("Callback ", callback);
 					callback.invoke();
 				} catch (Exception e) {
 					ExceptionUtils.printRootCauseStackTrace(e);
@@ -423,6 +482,84 @@ public class RPCNode extends RIONode {
 		// Begin next request
 		sendNextRequest();
 	}
+    /*
+     * Record the network time and total latency of a completed request. The network time is the
+     * time from first sending the request to handling its result, less the time the server took
+     * to handle it, which the server sends back with the result
+     */
+    private void recordCompletion(RPCRequest request, RPCResultPacket result) {
+        long nowNanos = System.nanoTime();
+        recordRPCTime(networkTimes, request,
+                Math.max(0, now() - request.sentStep - result.getHandlingSteps()),
+                Math.max(0, nowNanos - request.sentNanos - result.getHandlingNanos()));
+        recordRPCTime(totalTimes, request, now() - request.madeStep, nowNanos - request.madeNanos);
+        FlightEvents.rpcCompleted(addr, request.serverAddr, request.pckt.getRequest().name(),
+                result.getStatus().name(), result.getPayload().length,
+                now() - request.madeStep, nowNanos - request.madeNanos);
+    }
+
+    private void recordRPCTime(PhaseHistograms phase, RPCRequest request, long steps, long nanos) {
+        recordRPCTime(phase, request.pckt.getRequest(), request.serverAddr, steps, nanos);
+    }
+
+    /*
+     * Record one phase of a request in the histograms of its command and of the other node, in
+     * time steps and, in the Emulator where time steps are wall-clock time, in nanoseconds
+     */
+    private void recordRPCTime(PhaseHistograms phase, Command command, int otherAddr, long steps,
+            long nanos) {
+        phase.record(metrics(), command, otherAddr, steps, nanos);
+    }
+
+    /*
+     * The histograms of one phase of the requests, rpc.<phase>.<command> and rpc.<phase>.node<n>.
+     * Each is looked up by name the first time it is recorded to rather than for every request
+     */
+    private static class PhaseHistograms implements Serializable {
+        private static final long serialVersionUID = 2534164187200526424L;
+
+        private final String phase;
+        // indexed by command ordinal and by address. The nanosecond ones are only used in the
+        // Emulator, and only created there
+        private final Histogram[] byCommand = new Histogram[Command.values().length];
+        private final Histogram[] byCommandNanos = new Histogram[Command.values().length];
+        private Histogram[] byNode = new Histogram[0];
+        private Histogram[] byNodeNanos = new Histogram[0];
+
+        PhaseHistograms(String phase) {
+            this.phase = phase;
+        }
+
+        void record(MetricsRegistry m, Command command, int otherAddr, long steps, long nanos) {
+            int c = command.ordinal();
+            if (byCommand[c] == null) {
+                String name = "rpc." + phase + "." + command.name().toLowerCase();
+                byCommand[c] = m.histogram(name);
+                if (MessageLayer.emulate) {
+                    byCommandNanos[c] = m.histogram(name + ".nanos");
+                }
+            }
+            if (otherAddr >= byNode.length) {
+                byNode = Arrays.copyOf(byNode, otherAddr + 1);
+                byNodeNanos = Arrays.copyOf(byNodeNanos, otherAddr + 1);
+            }
+            if (byNode[otherAddr] == null) {
+                String name = "rpc." + phase + ".node" + otherAddr;
+                byNode[otherAddr] = m.histogram(name);
+                if (MessageLayer.emulate) {
+                    byNodeNanos[otherAddr] = m.histogram(name + ".nanos");
+                }
+            }
+
+            byCommand[c].record(steps);
+            byNode[otherAddr].record(steps);
+            if (MessageLayer.emulate) {
+                byCommandNanos[c].record(nanos);
+                byNodeNanos[otherAddr].record(nanos);
+            }
+        }
+    }
+
     // ------------ SERVER HANDLER CODE ------------ //
 
     /*
@@ -469,14 +606,24 @@ public class RPCNode extends RIONode {
             return;
         } else {
             // "New" request -- compute it!
+            long startStep = now();
+            long startNanos = System.nanoTime();
             result = handleRPCCommand(request, from, pkt);
+            // the result leaves once the storage operations of the request are done
+            int handlingSteps = (int) (sendTime() - startStep);
+            long handlingNanos = System.nanoTime() - startNanos;
+            recordRPCTime(handlingTimes, request, from, handlingSteps, handlingNanos);
+            if (result != null) {
+                // so that the client can take it out of the network time
+                result.setHandlingTime(handlingSteps, handlingNanos);
+            }
         }
 
         storedResults.put(from, result);
 
 
         // Send response
-        logOutput("SENDING to Node " + from + ": " + pkt.toString());
+        logDebug("SENDING to Node ", from, ": ", pkt);
         RIOSend(from, Protocol.RPC_RESULT_PKT, result.pack());
     }
     
@@ -703,18 +850,33 @@ public class RPCNode extends RIONode {
 
     // ------------ LOGGING ------------ //
 
-    private void logError(String output) {
+    // The parts of a message are only put together if it is logged, see
+    // NodeLogger
+
+    private void logError(Object... parts) {
     	if (MessageLayer.rpcLog) {
-    		log(output, System.err, COLOR_CYAN);
+    		rpcLogger.error(parts);
     	}
     }
 
-    private void logOutput(String output) {
+    private void logOutput(Object... parts) {
     	if (MessageLayer.rpcLog) {
-    		log(output, System.out, COLOR_GREEN);
+    		rpcLogger.info(parts);
     	}
     }
 
+    /** Packets sent and received, and callbacks */
+    private void logDebug(Object... parts) {
+    	if (MessageLayer.rpcLog) {
+    		rpcLogger.debug(parts);
+    	}
+    }
+
+    /** Reports of the load generator are printed even without RPC logging */
+    void logLoad(String output) {
+        rpcLogger.info(output);
+    }
+
     public void log(String output, PrintStream stream, String colorCommand) {
     	if (USE_COLORS) {
     		stream.println((char)27 + "[" + colorCommand + "m" + "Node " + addr + ": " + output + (char)27 + "[m");
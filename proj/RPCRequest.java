@@ -1,23 +1,37 @@
+import java.io.Serializable;
+
 import edu.washington.cs.cse490h.lib.Callback;
 
     /**
      * Holds state information for RPC file requests -- used to queue
      * requests and to store callbacks for eventual replies.
      */
-    public class RPCRequest {
+    public class RPCRequest implements Serializable {
+        private static final long serialVersionUID = 2808909431692921491L;
+
         final Callback success;
         final Callback failure;
         final RPCRequestPacket pckt;
         final int serverAddr;
         final String filename;
+        // Id of the benchmark operation for this request
+        final int operation;
+        // Time step and System.nanoTime() at which the request was made
+        long madeStep;
+        long madeNanos;
+        // Time step and System.nanoTime() at which the request was first
+        // sent, -1 until it is
+        long sentStep = -1;
+        long sentNanos;
 
         public RPCRequest(Callback success, Callback failure,
-                RPCRequestPacket pckt, int serverAddr, String filename) {
+                RPCRequestPacket pckt, int serverAddr, String filename, int operation) {
             this.success = success;
             this.failure = failure;
             this.pckt = pckt;
             this.serverAddr = serverAddr;
             this.filename = filename;
+            this.operation = operation;
         }
 
         public String toString() {
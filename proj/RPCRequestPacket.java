@@ -3,6 +3,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 
 import edu.washington.cs.cse490h.lib.Utility;
 
@@ -12,7 +13,8 @@ import edu.washington.cs.cse490h.lib.Utility;
  * the payload of the RPCPacket packet. (And the RIOPacket is carried as the
  * payload of a Packet, etc).
  */
-public class RPCRequestPacket {
+public class RPCRequestPacket implements Serializable {
+    private static final long serialVersionUID = -3726583377980037396L;
 
     public static final int MAX_PACKET_SIZE = RIOPacket.MAX_PAYLOAD_SIZE;
     public static final int HEADER_SIZE = 9;
@@ -3,6 +3,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.Serializable;
 
 import edu.washington.cs.cse490h.lib.Utility;
 
@@ -12,14 +13,19 @@ import edu.washington.cs.cse490h.lib.Utility;
  * the payload of the RPCResultPacket packet. (And the RIOPacket is carried as
  * the payload of a Packet, etc).
  */
-public class RPCResultPacket {
+public class RPCResultPacket implements Serializable {
+    private static final long serialVersionUID = -3484143197629444987L;
 
     public static final int MAX_PACKET_SIZE = RIOPacket.MAX_PAYLOAD_SIZE;
-    public static final int HEADER_SIZE = 5;
+    public static final int HEADER_SIZE = 17;
     public static final int MAX_PAYLOAD_SIZE = MAX_PACKET_SIZE - HEADER_SIZE;
 
     private int requestID;
     private Status status;
+    // Time steps and nanoseconds the server took to handle the request, so
+    // that the client can tell them apart from the time on the network
+    private int handlingSteps;
+    private long handlingNanos;
     private byte[] payload;
 
     public static RPCResultPacket getPacket(RPCNode node, int ID,
@@ -59,6 +65,29 @@ public class RPCResultPacket {
         return this.status;
     }
 
+    /**
+     * Sets the time the server took to handle the request
+     */
+    public void setHandlingTime(int steps, long nanos) {
+        this.handlingSteps = steps;
+        this.handlingNanos = nanos;
+    }
+
+    /**
+     * @return The time steps the server took to handle the request, 0 if it
+     *         did not handle it, such as for a session request
+     */
+    public int getHandlingSteps() {
+        return this.handlingSteps;
+    }
+
+    /**
+     * @return The nanoseconds the server took to handle the request
+     */
+    public long getHandlingNanos() {
+        return this.handlingNanos;
+    }
+
     /**
      * Sets this result's payload
      */
@@ -75,7 +104,8 @@ public class RPCResultPacket {
 
     /**
      * Convert the RPCResultPacket object into a byte array for sending over the
-     * wire. Format: protocol = 1 byte, payload <= MAX_PAYLOAD_SIZE bytes
+     * wire. Format: request id = 4 bytes, status = 1 byte, handling steps = 4
+     * bytes, handling nanoseconds = 8 bytes, payload <= MAX_PAYLOAD_SIZE bytes
      * 
      * @return A byte[] for transporting over the wire. Null if failed to pack
      *         for some reason
@@ -87,6 +117,8 @@ public class RPCResultPacket {
 
             out.writeInt(requestID);
             out.writeByte(status.ordinal());
+            out.writeInt(handlingSteps);
+            out.writeLong(handlingNanos);
             out.write(payload, 0, payload.length);
 
             out.flush();
@@ -113,6 +145,8 @@ public class RPCResultPacket {
 
             int requestID = in.readInt();
             Status status = Status.getStatus(in.readByte());
+            int handlingSteps = in.readInt();
+            long handlingNanos = in.readLong();
 
             byte[] payload = new byte[packet.length - HEADER_SIZE];
             int bytesRead = in.read(payload, 0, payload.length);
@@ -121,7 +155,9 @@ public class RPCResultPacket {
                 return null;
             }
 
-            return new RPCResultPacket(requestID, status, payload);
+            RPCResultPacket result = new RPCResultPacket(requestID, status, payload);
+            result.setHandlingTime(handlingSteps, handlingNanos);
+            return result;
         } catch (IllegalArgumentException e) {
             // will return null
         } catch (IOException e) {
@@ -1,3 +1,4 @@
+import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -8,6 +9,8 @@ import java.util.Random;
 import javax.print.attribute.standard.PrinterResolution;
 
 import edu.washington.cs.cse490h.lib.Callback;
+import edu.washington.cs.cse490h.lib.FlightEvents;
+import edu.washington.cs.cse490h.lib.MetricsRegistry;
 import edu.washington.cs.cse490h.lib.Utility;
 
 /**
@@ -17,7 +20,9 @@ import edu.washington.cs.cse490h.lib.Utility;
  * At a minimum, the student should extend/modify this layer to provide reliable, in-order message
  * delivery, even in the presence of node failures.
  */
-public class ReliableInOrderMsgLayer {
+public class ReliableInOrderMsgLayer implements Serializable {
+	private static final long serialVersionUID = -1244261731566444049L;
+
 	public static int TIMEOUT = 3;
 
 	private HashMap<Integer, InChannel> inConnections;
@@ -29,6 +34,16 @@ public class ReliableInOrderMsgLayer {
 	
 	private Random rand;
 
+	// The metrics of the node, null until the gauges are registered. This cannot happen in the
+	// constructor, which runs before the node has a manager
+	private MetricsRegistry metrics;
+	// The counters of this layer, looked up by name once rather than per packet, and only when
+	// first counted so that no counter shows up that never was. The sent and delivered ones are
+	// indexed by protocol
+	private MetricsRegistry.Counter[] sent;
+	private MetricsRegistry.Counter[] delivered;
+	private MetricsRegistry.Counter retransmissions;
+
 	// The packet number to start at on each channel.
 	public static final int START_SEQUENCE_NUM = -1;
 
@@ -85,6 +100,7 @@ public class ReliableInOrderMsgLayer {
 	 * @param pkt The Packet of data.
 	 */
 	public void RIODataReceive(int from, byte[] msg) {
+		metrics();
 		RIOPacket riopkt = RIOPacket.unpack(msg);
 		if (riopkt == null) {
 			System.out.println("RIOPKT is null.");
@@ -113,6 +129,7 @@ public class ReliableInOrderMsgLayer {
 		LinkedList<RIOPacket> toBeDelivered = in.gotPacket(riopkt);
 		for (RIOPacket p : toBeDelivered) {
 			// deliver in-order the next sequence of packets
+			counter(delivered, "rio.delivered.", p.getProtocol()).inc();
 			n.onRIOReceive(from, p.getProtocol(), p.getPayload());
 		}
 	}
@@ -126,7 +143,7 @@ public class ReliableInOrderMsgLayer {
 	public void RIOAckReceive(int from, byte[] msg) {
 		int seqNum = Integer.parseInt(Utility.byteArrayToString(msg));
 		if (outConnections.containsKey(from)) {
-			outConnections.get(from).gotACK(seqNum);
+			outConnections.get(from).gotACK(n, seqNum);
 		}
 	}
 
@@ -139,6 +156,8 @@ public class ReliableInOrderMsgLayer {
 	 * @param payload The payload to be sent
 	 */
 	public void RIOSend(int destAddr, int protocol, byte[] payload) {
+		metrics();
+		counter(sent, "rio.sent.", protocol).inc();
 		// If we don't have an alive connection with them, just ignore this packet and send out a
 		// SYNC packet to try and get synced up.
 		if (!sessionIds.containsKey(destAddr)) {
@@ -170,6 +189,67 @@ public class ReliableInOrderMsgLayer {
 		outConnections.get(destAddr).onTimeout(n, seqNum);
 	}
 
+	/**
+	 * @return The metrics of the node, with the gauges of this layer registered
+	 */
+	private MetricsRegistry metrics() {
+		if (metrics == null) {
+			metrics = n.metrics();
+			sent = new MetricsRegistry.Counter[Protocol.MAX_PROTOCOL + 1];
+			delivered = new MetricsRegistry.Counter[Protocol.MAX_PROTOCOL + 1];
+			metrics.gauge("rio.outOfOrder", new MetricsRegistry.Gauge() {
+				public long value() {
+					long depth = 0;
+					for (InChannel in : inConnections.values()) {
+						depth += in.outOfOrderMsgs.size();
+					}
+					return depth;
+				}
+			});
+			metrics.gauge("rio.unACKed", new MetricsRegistry.Gauge() {
+				public long value() {
+					long unACKed = 0;
+					for (OutChannel out : outConnections.values()) {
+						unACKed += out.unACKedPackets.size();
+					}
+					return unACKed;
+				}
+			});
+		}
+		return metrics;
+	}
+
+	/**
+	 * Get the counter of a protocol, looking it up by name only the first time. Must be called
+	 * after metrics()
+	 * 
+	 * @param counters The counters of the protocols seen so far
+	 * @param prefix The name of the counter, less the protocol
+	 * @param protocol The protocol to count
+	 * @return The counter named prefix + protocol
+	 */
+	private MetricsRegistry.Counter counter(MetricsRegistry.Counter[] counters, String prefix,
+			int protocol) {
+		if (protocol < 0 || protocol >= counters.length) {
+			// not a valid protocol, which RIOPacket refuses, so not worth keeping
+			return metrics.counter(prefix + protocol);
+		}
+		if (counters[protocol] == null) {
+			counters[protocol] = metrics.counter(prefix + protocol);
+		}
+		return counters[protocol];
+	}
+
+	/**
+	 * @return The counter of the packets this layer sent again
+	 */
+	MetricsRegistry.Counter retransmissions() {
+		if (retransmissions == null) {
+			retransmissions = metrics().counter("rio.retransmissions");
+		}
+		return retransmissions;
+	}
+
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
@@ -184,7 +264,9 @@ public class ReliableInOrderMsgLayer {
 /**
  * Representation of an incoming channel to this node
  */
-class InChannel {
+class InChannel implements Serializable {
+	private static final long serialVersionUID = -1207142680674264980L;
+
 	public int lastSeqNumDelivered;
 	public HashMap<Integer, RIOPacket> outOfOrderMsgs;
 
@@ -238,8 +320,12 @@ class InChannel {
 /**
  * Representation of an outgoing channel to this node
  */
-class OutChannel {
+class OutChannel implements Serializable {
+	private static final long serialVersionUID = -2306941165352317454L;
+
 	public HashMap<Integer, RIOPacket> unACKedPackets;
+	// Map from sequence number to the benchmark operation of an unACKed packet
+	private HashMap<Integer, Integer> operations;
 	public int lastSeqNumSent;
 	private ReliableInOrderMsgLayer parent;
 	private int destAddr;
@@ -247,6 +333,7 @@ class OutChannel {
 	OutChannel(ReliableInOrderMsgLayer parent, int destAddr) {
 		lastSeqNumSent = ReliableInOrderMsgLayer.START_SEQUENCE_NUM;
 		unACKedPackets = new HashMap<Integer, RIOPacket>();
+		operations = new HashMap<Integer, Integer>();
 		this.parent = parent;
 		this.destAddr = destAddr;
 	}
@@ -265,6 +352,7 @@ class OutChannel {
 							"java.lang.Integer" });
 			RIOPacket newPkt = new RIOPacket(protocol, ++lastSeqNumSent, sessionId, payload);
 			unACKedPackets.put(lastSeqNumSent, newPkt);
+			operations.put(lastSeqNumSent, n.beginOperation("rio.send"));
 
 			n.send(destAddr, Protocol.DATA, newPkt.pack());
 			n.addTimeout(new Callback(onTimeoutMethod, parent, new Object[] { destAddr,
@@ -290,10 +378,15 @@ class OutChannel {
 	 * Called when we get an ACK back. Removes the outstanding packet if it is still in
 	 * unACKedPackets.
 	 * 
+	 * @param n The sender and parent of this channel
 	 * @param seqNum The sequence number that was just ACKed
 	 */
-	protected void gotACK(int seqNum) {
+	protected void gotACK(RIONode n, int seqNum) {
 		unACKedPackets.remove(seqNum);
+		Integer operation = operations.remove(seqNum);
+		if (operation != null) {
+			n.endOperation(operation, true);
+		}
 	}
 
 	/**
@@ -309,6 +402,9 @@ class OutChannel {
 							"java.lang.Integer" });
 			RIOPacket riopkt = unACKedPackets.get(seqNum);
 
+			parent.retransmissions().inc();
+			FlightEvents.retransmission(n.addr, destAddr, riopkt.getProtocol(),
+					riopkt.getPayload().length, seqNum);
 			n.send(destAddr, Protocol.DATA, riopkt.pack());
 			n.addTimeout(new Callback(onTimeoutMethod, parent, new Object[] { destAddr, seqNum }),
 					ReliableInOrderMsgLayer.TIMEOUT);
@@ -27,7 +27,8 @@ import edu.washington.cs.cse490h.lib.Utility;
  * definitely happen.
  */
 public abstract class TransactionNode extends PaxosNode {
-	
+	private static final long serialVersionUID = -125938794423216372L;
+
 	public static final String PROPOSAL_PREFIX = "propose";
 	public static final String COMMIT_PREFIX = "commit";
 	public static final String ABORT_PREFIX = "abort";
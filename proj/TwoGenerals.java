@@ -2,6 +2,8 @@ import edu.washington.cs.cse490h.lib.Node;
 import edu.washington.cs.cse490h.lib.Utility;
 
 public class TwoGenerals extends Node {
+    private static final long serialVersionUID = 228599882891597076L;
+
     @Override
     public void start() {
         // TODO
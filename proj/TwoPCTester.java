@@ -0,0 +1,96 @@
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import edu.washington.cs.cse490h.lib.Callback;
+
+/**
+ * Drives TransactionNode for the benchmarks, see bench/scenarios/twopc_commit.
+ * A node that is told to "begin" coordinates NUM_TXNS two-phase commit
+ * transactions over every replica, one every INTERVAL time steps. Every
+ * participant accepts the proposals, and counts the transactions it commits
+ * and aborts.
+ */
+public class TwoPCTester extends TransactionNode {
+	private static final long serialVersionUID = 5193886578499708656L;
+
+	// 2PC recovers from failures, but the benchmark measures the commits themselves
+	public static double getFailureRate() { return 0; }
+
+	public static final String BEGIN_COMMAND = "begin";
+	public static final String REQUEST = "Increment";
+	public static int NUM_TXNS = 20;
+	// A transaction takes a proposal and a decision RPC per participant, and RPCNode sends one
+	// request at a time, so they are spaced out to stay within PROPOSAL_RESPONSE_TIMEOUT
+	public static int INTERVAL = 30;
+
+	private int proposed;
+	private int committed;
+	private int aborted;
+
+	@Override
+	public void start() {
+		super.start();
+		proposed = 0;
+		committed = 0;
+		aborted = 0;
+	}
+
+	@Override
+	public void onCommand(String command) {
+		if (command.equals(BEGIN_COMMAND)) {
+			proposeNext();
+		} else {
+			super.onCommand(command);
+		}
+	}
+
+	/**
+	 * Start the next transaction, and schedule the one after it.
+	 */
+	public void proposeNext() {
+		if (proposed == NUM_TXNS) {
+			return;
+		}
+		// proposeTransaction adds the coordinator to the set
+		Set<Integer> participants = new HashSet<Integer>();
+		for (Integer replica : REPLICA_ADDRS) {
+			participants.add(replica);
+		}
+		proposeTransaction(participants, REQUEST, addr + ":" + proposed);
+		proposed++;
+
+		try {
+			Callback cb = new Callback(Callback.getMethod("proposeNext", this, new String[0]),
+					this, new Object[0]);
+			addTimeout(cb, INTERVAL);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	// The transaction handlers, called by TransactionNode for the REQUEST
+
+	public boolean proposeIncrement(UUID txnID, String args) {
+		return true;
+	}
+
+	public void commitIncrement(UUID txnID, String args) {
+		committed++;
+	}
+
+	public void abortIncrement(UUID txnID, String args) {
+		aborted++;
+	}
+
+	@Override
+	public void handlePaxosCommand(int instNum, byte[] payload) {
+		// The benchmark only uses transactions
+	}
+
+	@Override
+	public String toString() {
+		return "committed " + committed + " transactions, aborted " + aborted + ", proposed "
+				+ proposed + "\n" + super.toString();
+	}
+}